@@ -50,6 +50,21 @@ BENCHMARKS = [
     ("jit_combined_test.sr", ["900000"])
 ]
 
+GC_MODES = ["generational", "marksweep", "incremental", "host"]
+
+GC_BENCHMARKS = [
+    ("quick_sort.sr", ["100000", "-1000000000", "1000000000"]),
+    ("quick_sort.sr", ["1000000", "-1000000000", "1000000000"]),
+    ("sieve.sr", ["1000000"]),
+    ("sieve.sr", ["10000000"]),
+    ("nbody.sr", []),
+    ("binary_trees.sr", ["10"]),
+    ("binary_trees.sr", ["12"]),
+    ("linked_list.sr", ["10000", "20"]),
+    ("struct_churn.sr", ["2000", "100"]),
+    ("long_lived_array.sr", ["100000", "200000"])
+]
+
 def build_project():
     print("Building project with Maven...")
     cmd = "mvn clean package"
@@ -84,7 +99,7 @@ def find_jar():
     print("Could not find executable JAR file.")
     sys.exit(1)
 
-def run_benchmark(jar_path, source_file, args, use_jit):
+def run_benchmark(jar_path, source_file, args, use_jit, options=()):
     full_path = os.path.join(EXAMPLES_DIR, source_file)
     if not os.path.exists(full_path):
         print(f"File {full_path} not found.")
@@ -92,6 +107,7 @@ def run_benchmark(jar_path, source_file, args, use_jit):
     cmd = ["java", "-jar", jar_path]
     if not use_jit:
         cmd.append("--no-jit")
+    cmd += list(options)
     cmd += ["run", full_path] + args
     start_time = time.time()
     try:
@@ -102,6 +118,16 @@ def run_benchmark(jar_path, source_file, args, use_jit):
         print(f"Error running {source_file}: {e.stderr.decode('utf-8')}")
         return None
 
+def gc_summary(jar_path, source_file, args, mode):
+    cmd = ["java", "-jar", jar_path, "--gc", mode, "run", os.path.join(EXAMPLES_DIR, source_file)] + args
+    try:
+        result = subprocess.run(cmd, check=True, stdout=subprocess.PIPE, stderr=subprocess.PIPE)
+    except subprocess.CalledProcessError as e:
+        print(f"Error running {source_file}: {e.stderr.decode('utf-8')}")
+        return None
+    lines = [line for line in result.stdout.decode('utf-8').splitlines() if line.startswith("[GC:")]
+    return lines[-1] if lines else None
+
 def main():
     build_project()
 
@@ -123,6 +149,27 @@ def main():
             print(f"{filename:<25} | {arg_str:<30} | {s_jit:>10} | {s_nojit:>12} | {speedup:>10}")
 
     print("-" * 100)
+    print()
+
+    header = " | ".join(f"{mode + ' (ms)':>20}" for mode in GC_MODES)
+    print(f"{'GC benchmark':<25} | {'Args':<30} | {header}")
+    print("-" * 100)
+    for filename, args in GC_BENCHMARKS:
+        times = [run_benchmark(jar_path, filename, args, True, ["--gc", mode]) for mode in GC_MODES]
+        arg_str = " ".join(args)
+        cells = " | ".join(f"{t:>20.2f}" if t else f"{'FAIL':>20}" for t in times)
+        print(f"{filename:<25} | {arg_str:<30} | {cells}")
+
+    print("-" * 100)
+    print()
+
+    print(f"{'GC statistics':<25} | {'Args':<30} | Summary (--gc {GC_MODES[0]})")
+    print("-" * 100)
+    for filename, args in GC_BENCHMARKS:
+        summary = gc_summary(jar_path, filename, args, GC_MODES[0])
+        print(f"{filename:<25} | {' '.join(args):<30} | {summary or 'FAIL'}")
+
+    print("-" * 100)
 
 if __name__ == "__main__":
     main()
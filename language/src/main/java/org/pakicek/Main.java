@@ -8,6 +8,13 @@ import org.pakicek.parser.lexer.Lexer;
 import org.pakicek.parser.lexer.Token;
 import org.pakicek.runtime.ProgramImage;
 import org.pakicek.runtime.VirtualMachine;
+import org.pakicek.runtime.gc.GarbageCollector;
+import org.pakicek.runtime.gc.GcTelemetry;
+import org.pakicek.runtime.gc.Heap;
+import org.pakicek.runtime.profile.AllocationProfile;
+import org.pakicek.runtime.profile.Profile;
+import org.pakicek.runtime.snapshot.HeapAnalyzer;
+import org.pakicek.runtime.snapshot.HeapSnapshot;
 
 import java.io.IOException;
 import java.nio.file.Files;
@@ -26,12 +33,48 @@ public class Main {
             return;
         }
 
-        boolean jitEnabled = true;
+        Options options = new Options();
         int argStartIndex = 0;
 
-        if (args[0].equals("--no-jit")) {
-            jitEnabled = false;
-            argStartIndex = 1;
+        while (argStartIndex < args.length && args[argStartIndex].startsWith("--")) {
+            String option = args[argStartIndex++];
+            switch (option) {
+                case "--no-jit" -> options.jitEnabled = false;
+                case "--gc-log" -> options.gcLog = true;
+                case "--columnar-structs" -> options.columnarStructs = true;
+                case "--record-profile", "--profile", "--alloc-profile", "--heap-dump", "--heap-dump-on-oom" -> {
+                    if (argStartIndex >= args.length) {
+                        printUsage();
+                        return;
+                    }
+                    switch (option) {
+                        case "--profile" -> options.profileFile = args[argStartIndex++];
+                        case "--record-profile" -> options.recordProfileFile = args[argStartIndex++];
+                        case "--heap-dump" -> options.heapDumpFile = args[argStartIndex++];
+                        case "--heap-dump-on-oom" -> options.oomHeapDumpFile = args[argStartIndex++];
+                        default -> options.allocProfileFile = args[argStartIndex++];
+                    }
+                }
+                case "--gc" -> {
+                    Heap.Mode mode = argStartIndex < args.length ? parseGcMode(args[argStartIndex++]) : null;
+                    if (mode == null) {
+                        printUsage();
+                        return;
+                    }
+                    options.gcMode = mode;
+                }
+                case "--gc-nursery", "--gc-growth", "--max-heap", "--gc-slice", "--off-heap-arrays" -> {
+                    if (argStartIndex >= args.length || !parseGcTuning(option, args[argStartIndex++], options)) {
+                        printUsage();
+                        return;
+                    }
+                }
+                default -> {
+                    System.err.println("Unknown option: " + option);
+                    printUsage();
+                    return;
+                }
+            }
         }
 
         if (args.length < argStartIndex + 2) {
@@ -45,12 +88,13 @@ public class Main {
 
         try {
             switch (command) {
-                case "run" -> handleRunSource(inputFile, programArgs, jitEnabled);
+                case "run" -> handleRunSource(inputFile, programArgs, options);
                 case "compile" -> {
                     String outputFile = (args.length >= argStartIndex + 3) ? args[argStartIndex + 2] : addExtension(inputFile);
-                    handleCompile(inputFile, outputFile);
+                    handleCompile(inputFile, outputFile, options);
                 }
-                case "exec" -> handleExecBytecode(inputFile, programArgs, jitEnabled);
+                case "exec" -> handleExecBytecode(inputFile, programArgs, options);
+                case "analyze" -> handleAnalyzeSnapshot(inputFile);
                 default -> {
                     System.err.println("Unknown command: " + command);
                     printUsage();
@@ -63,30 +107,71 @@ public class Main {
         }
     }
 
-    private static void handleRunSource(String filename, String[] args, boolean jitEnabled) throws IOException {
+    private static void handleRunSource(String filename, String[] args, Options options) throws IOException {
         long start = System.currentTimeMillis();
         String source = Files.readString(Path.of(filename));
         ProgramImage image = compilePipeline(source);
-        VirtualMachine vm = new VirtualMachine();
-        vm.setJitEnabled(jitEnabled);
-        vm.run(image, args);
+        VirtualMachine vm = execute(image, args, options);
         long end = System.currentTimeMillis();
         System.out.println("\n[Finished in " + (end - start) + "ms]");
+        System.out.println(vm.getGarbageCollector().getTelemetry().summary());
     }
 
-    private static void handleCompile(String inputFile, String outputFile) throws IOException {
+    private static void handleCompile(String inputFile, String outputFile, Options options) throws IOException {
         System.out.println("Compiling " + inputFile + "...");
         String source = Files.readString(Path.of(inputFile));
         ProgramImage image = compilePipeline(source);
+        if (options.profileFile != null) {
+            image.profile = Profile.load(Path.of(options.profileFile));
+        }
         BytecodeIO.write(image, outputFile);
         System.out.println("Output written to " + outputFile);
     }
 
-    private static void handleExecBytecode(String filename, String[] args, boolean jitEnabled) throws IOException {
+    private static void handleExecBytecode(String filename, String[] args, Options options) throws IOException {
         ProgramImage image = BytecodeIO.read(filename);
+        execute(image, args, options);
+    }
+
+    private static void handleAnalyzeSnapshot(String filename) throws IOException {
+        HeapSnapshot snapshot = HeapSnapshot.read(Path.of(filename));
+        new HeapAnalyzer(snapshot).report(System.out, HeapAnalyzer.DEFAULT_DOMINATORS);
+    }
+
+    private static VirtualMachine execute(ProgramImage image, String[] args, Options options) throws IOException {
         VirtualMachine vm = new VirtualMachine();
-        vm.setJitEnabled(jitEnabled);
-        vm.run(image, args);
+        vm.setJitEnabled(options.jitEnabled);
+        GcTelemetry telemetry = vm.getGarbageCollector().getTelemetry();
+        telemetry.register();
+        if (options.gcLog) {
+            telemetry.setLog(System.err);
+        }
+        vm.setGcMode(options.gcMode);
+        vm.setGcTuning(options.nurseryBytes, options.growthFactor, options.maxHeapBytes);
+        vm.setGcSliceBudget(options.sliceBudget);
+        vm.setOffHeapThreshold(options.offHeapThreshold);
+        vm.setColumnarStructs(options.columnarStructs);
+        if (options.profileFile != null) {
+            vm.setProfile(Profile.load(Path.of(options.profileFile)));
+        }
+        Profile recorded = options.recordProfileFile != null ? new Profile() : null;
+        vm.setRecordedProfile(recorded);
+        AllocationProfile allocations = options.allocProfileFile != null ? new AllocationProfile() : null;
+        vm.setAllocationProfile(allocations);
+        vm.setHeapDump(options.heapDumpFile != null ? Path.of(options.heapDumpFile) : null,
+                options.oomHeapDumpFile != null ? Path.of(options.oomHeapDumpFile) : null);
+        try {
+            vm.run(image, args);
+        } finally {
+            if (allocations != null) {
+                allocations.afterCollections(vm.getHeap());
+                allocations.save(Path.of(options.allocProfileFile));
+            }
+        }
+        if (recorded != null) {
+            recorded.save(Path.of(options.recordProfileFile));
+        }
+        return vm;
     }
 
     private static ProgramImage compilePipeline(String source) {
@@ -101,9 +186,81 @@ public class Main {
     private static void printUsage() {
         System.out.println("Slowrace Language Compiler & VM");
         System.out.println("Usage:");
-        System.out.println("  [--no-jit] run     <source.sr>             Compile and run source code immediately");
-        System.out.println("  compile <source.sr> [out.file]  Compile source to bytecode file");
-        System.out.println("  [--no-jit] exec    <program.srbyte>        Execute compiled bytecode");
+        System.out.println("  [options] run     <source.sr>             Compile and run source code immediately");
+        System.out.println("  [--profile <file>] compile <source.sr> [out.file]  Compile source to bytecode file");
+        System.out.println("  [options] exec    <program.srbyte>        Execute compiled bytecode");
+        System.out.println("  analyze <snapshot.srheap>                 Report retained sizes of a heap snapshot");
+        System.out.println("Options:");
+        System.out.println("  --no-jit                  Disable the JIT");
+        System.out.println("  --record-profile <file>   Write a run profile to <file> after execution");
+        System.out.println("  --profile <file>          Optimize using a recorded profile");
+        System.out.println("  --alloc-profile <file>    Write allocation sites sorted by allocated bytes to <file> at exit");
+        System.out.println("  --heap-dump <file>        Write a heap snapshot to <file> when the program finishes");
+        System.out.println("  --heap-dump-on-oom <file> Write a heap snapshot to <file> before failing with a Memory Error");
+        System.out.println("  --gc <mode>               Garbage collector: marksweep (default), generational, incremental or host");
+        System.out.println("  --gc-nursery <size>       Nursery size that triggers a minor collection (default 1m)");
+        System.out.println("  --gc-growth <factor>      Heap growth factor over the live size before a full collection (default 2.0)");
+        System.out.println("  --gc-slice <n>            Work budget of one incremental marking slice (default 1000)");
+        System.out.println("  --gc-log                  Print a line for every GC pause to stderr");
+        System.out.println("  --off-heap-arrays <n>     Store arrays of at least <n> numbers or bools off the JVM heap");
+        System.out.println("  --columnar-structs        Store arrays of structs with only int, float and bool fields as one column per field");
+        System.out.println("  --max-heap <size>         Fail with a Memory Error above <size> bytes (k/m/g suffixes allowed)");
+    }
+
+    private static class Options {
+        boolean jitEnabled = true;
+        boolean gcLog = false;
+        boolean columnarStructs = false;
+        String profileFile;
+        String recordProfileFile;
+        String allocProfileFile;
+        String heapDumpFile;
+        String oomHeapDumpFile;
+        Heap.Mode gcMode = Heap.Mode.MARK_SWEEP;
+        long nurseryBytes = Heap.DEFAULT_NURSERY_BYTES;
+        double growthFactor = Heap.DEFAULT_GROWTH_FACTOR;
+        long maxHeapBytes = Long.MAX_VALUE;
+        int sliceBudget = GarbageCollector.DEFAULT_SLICE_BUDGET;
+        int offHeapThreshold = Integer.MAX_VALUE;
+    }
+
+    private static boolean parseGcTuning(String option, String value, Options options) {
+        try {
+            switch (option) {
+                case "--gc-nursery" -> options.nurseryBytes = parseBytes(value);
+                case "--max-heap" -> options.maxHeapBytes = parseBytes(value);
+                case "--gc-slice" -> options.sliceBudget = Integer.parseInt(value);
+                case "--off-heap-arrays" -> options.offHeapThreshold = Integer.parseInt(value);
+                default -> options.growthFactor = Double.parseDouble(value);
+            }
+        } catch (NumberFormatException | ArithmeticException e) {
+            return false;
+        }
+        return options.nurseryBytes > 0 && options.maxHeapBytes > 0 && options.growthFactor >= 1.0 && options.sliceBudget > 0
+                && options.offHeapThreshold > 0;
+    }
+
+    private static long parseBytes(String value) {
+        String lower = value.toLowerCase();
+        if (lower.isEmpty()) throw new NumberFormatException("empty size");
+        long unit = switch (lower.charAt(lower.length() - 1)) {
+            case 'k' -> 1L << 10;
+            case 'm' -> 1L << 20;
+            case 'g' -> 1L << 30;
+            default -> 1;
+        };
+        String digits = unit == 1 ? lower : lower.substring(0, lower.length() - 1);
+        return Math.multiplyExact(Long.parseLong(digits), unit);
+    }
+
+    private static Heap.Mode parseGcMode(String name) {
+        return switch (name) {
+            case "generational" -> Heap.Mode.GENERATIONAL;
+            case "marksweep" -> Heap.Mode.MARK_SWEEP;
+            case "incremental" -> Heap.Mode.INCREMENTAL;
+            case "host" -> Heap.Mode.HOST;
+            default -> null;
+        };
     }
 
     private static String addExtension(String filename) {
@@ -8,7 +8,9 @@ import org.pakicek.parser.ast.node.statement.*;
 import org.pakicek.parser.ast.node.type.*;
 import org.pakicek.runtime.ProgramImage;
 import org.pakicek.runtime.bytecode.*;
+import org.pakicek.runtime.vm.SrArray;
 import org.pakicek.runtime.vm.SrValue;
+import org.pakicek.runtime.vm.StructShape;
 
 import java.math.BigInteger;
 import java.util.ArrayList;
@@ -19,21 +21,32 @@ import java.util.Map;
 public class BytecodeCompiler implements ASTVisitor<Void> {
     private Chunk currentChunk;
     private final Map<String, Chunk> functions = new HashMap<>();
+    private final List<StructShape> shapes = new ArrayList<>();
+    private final Map<String, Integer> shapeIndex = new HashMap<>();
+    private final Map<String, StructDeclarationNode> structs = new HashMap<>();
+    private final Map<String, TypeNode> returnTypes = new HashMap<>();
     
     private static class Local {
         String name;
+        TypeNode type;
         int depth;
-        Local(String name, int depth) {
+        Local(String name, TypeNode type, int depth) {
             this.name = name;
+            this.type = type;
             this.depth = depth;
         }
     }
 
     private final List<Local> locals = new ArrayList<>();
     private int scopeDepth = 0;
+    private TypeNode literalElementType;
     
     public ProgramImage compile(ProgramNode program) {
         functions.clear();
+        shapes.clear();
+        shapeIndex.clear();
+        structs.clear();
+        returnTypes.clear();
         visit(program);
         currentChunk = new Chunk();
         locals.clear();
@@ -42,7 +55,8 @@ public class BytecodeCompiler implements ASTVisitor<Void> {
             program.getMainNode().accept(this);
         }
         currentChunk.emit(OpCode.HALT, 0);
-        return new ProgramImage(currentChunk, new HashMap<>(functions));
+        currentChunk.computeLiveness();
+        return new ProgramImage(currentChunk, new HashMap<>(functions), new ArrayList<>(shapes));
     }
 
     public Map<String, Chunk> getFunctions() {
@@ -51,6 +65,12 @@ public class BytecodeCompiler implements ASTVisitor<Void> {
     
     @Override
     public Void visit(ProgramNode node) {
+        for (StructDeclarationNode struct : node.getStructs()) {
+            struct.accept(this);
+        }
+        for (FunctionDeclarationNode func : node.getFunctions()) {
+            returnTypes.put(func.getName(), func.getReturnType());
+        }
         for (FunctionDeclarationNode func : node.getFunctions()) {
             func.accept(this);
         }
@@ -69,7 +89,7 @@ public class BytecodeCompiler implements ASTVisitor<Void> {
         scopeDepth++;
         
         for (ParameterNode param : node.getParameters()) {
-            addLocal(param.getName());
+            addLocal(param.getName(), param.getType());
         }
         
         node.getBody().accept(this);
@@ -80,6 +100,7 @@ public class BytecodeCompiler implements ASTVisitor<Void> {
             currentChunk.emit(OpCode.RETURN, node.getLine());
         }
         
+        currentChunk.computeLiveness();
         functions.put(node.getName(), currentChunk);
         currentChunk = previousChunk;
         locals.clear();
@@ -92,8 +113,8 @@ public class BytecodeCompiler implements ASTVisitor<Void> {
     @Override
     public Void visit(MainNode node) {
         scopeDepth++;
-        addLocal("argc");
-        addLocal("argv");
+        addLocal("argc", null);
+        addLocal("argv", null);
         node.getBody().accept(this);
         scopeDepth--;
         return null;
@@ -101,6 +122,17 @@ public class BytecodeCompiler implements ASTVisitor<Void> {
 
     @Override
     public Void visit(StructDeclarationNode node) {
+        if (shapes.size() > 255) throw new RuntimeException("Too many struct declarations");
+        List<VariableDeclarationNode> fields = node.getFields();
+        String[] names = new String[fields.size()];
+        SrValue[] defaults = new SrValue[fields.size()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = fields.get(i).getName();
+            defaults[i] = defaultFieldValue(fields.get(i).getType());
+        }
+        shapeIndex.put(node.getName(), shapes.size());
+        structs.put(node.getName(), node);
+        shapes.add(new StructShape(node.getName(), names, defaults));
         return null;
     }
 
@@ -129,11 +161,13 @@ public class BytecodeCompiler implements ASTVisitor<Void> {
     @Override
     public Void visit(VariableDeclarationNode node) {
         if (node.getInitialValue() != null) {
+            if (node.getType() instanceof ArrayTypeNode arr) literalElementType = arr.getElementType();
             node.getInitialValue().accept(this);
+            literalElementType = null;
         } else {
             emitDefaultValue(node.getType(), node.getLine());
         }
-        addLocal(node.getName());
+        addLocal(node.getName(), node.getType());
         currentChunk.emit(OpCode.STORE_LOCAL, node.getLine());
         currentChunk.emitByte(locals.size() - 1, node.getLine());
         return null;
@@ -223,13 +257,15 @@ public class BytecodeCompiler implements ASTVisitor<Void> {
             currentChunk.emit(OpCode.DUP, node.getLine());
             currentChunk.emit(OpCode.STORE_LOCAL, node.getLine());
             currentChunk.emitByte(index, node.getLine());
+        } else if (target instanceof FieldAccessNode fieldAccess && fieldAccess.getObject() instanceof ArrayAccessNode element) {
+            element.getArray().accept(this);
+            element.getIndex().accept(this);
+            node.getValue().accept(this);
+            emitFieldAccess(OpCode.SET_ELEMENT_FIELD, fieldAccess, node.getLine());
         } else if (target instanceof FieldAccessNode fieldAccess) {
             fieldAccess.getObject().accept(this);
             node.getValue().accept(this);
-            SrValue nameVal = new SrValue(fieldAccess.getFieldName());
-            int nameIdx = currentChunk.addConstant(nameVal);
-            currentChunk.emit(OpCode.SET_FIELD, node.getLine());
-            currentChunk.emitByte(nameIdx, node.getLine());
+            emitFieldAccess(OpCode.SET_FIELD, fieldAccess, node.getLine());
         } else if (target instanceof ArrayAccessNode arrayAccess) {
             arrayAccess.getArray().accept(this);
             arrayAccess.getIndex().accept(this);
@@ -263,6 +299,8 @@ public class BytecodeCompiler implements ASTVisitor<Void> {
             return null;
         }
 
+        if (node.getOperator().equals("+") && emitConcat(node)) return null;
+
         node.getLeft().accept(this);
         node.getRight().accept(this);
 
@@ -272,8 +310,8 @@ public class BytecodeCompiler implements ASTVisitor<Void> {
             case "*" -> currentChunk.emit(OpCode.MUL, node.getLine());
             case "/" -> currentChunk.emit(OpCode.DIV, node.getLine());
             case "%" -> currentChunk.emit(OpCode.MOD, node.getLine());
-            case "==" -> currentChunk.emit(OpCode.EQ, node.getLine());
-            case "!=" -> currentChunk.emit(OpCode.NEQ, node.getLine());
+            case "==" -> currentChunk.emit(equalityOp(node, OpCode.EQ, OpCode.EQ_FLOAT, OpCode.EQ_BOOL), node.getLine());
+            case "!=" -> currentChunk.emit(equalityOp(node, OpCode.NEQ, OpCode.NEQ_FLOAT, OpCode.NEQ_BOOL), node.getLine());
             case "<" -> currentChunk.emit(OpCode.LT, node.getLine());
             case ">" -> currentChunk.emit(OpCode.GT, node.getLine());
             case "<=" -> currentChunk.emit(OpCode.LTE, node.getLine());
@@ -349,6 +387,14 @@ public class BytecodeCompiler implements ASTVisitor<Void> {
                 currentChunk.emitByte(vIdx, node.getLine());
                 return null;
             }
+            case "dump_heap" -> {
+                node.getArguments().get(0).accept(this);
+                currentChunk.emit(OpCode.DUMP_HEAP, node.getLine());
+                int vIdx = currentChunk.addConstant(SrValue.VOID);
+                currentChunk.emit(OpCode.LOAD_CONST, node.getLine());
+                currentChunk.emitByte(vIdx, node.getLine());
+                return null;
+            }
             case "len" -> {
                 node.getArguments().get(0).accept(this);
                 currentChunk.emit(OpCode.LEN, node.getLine());
@@ -399,11 +445,14 @@ public class BytecodeCompiler implements ASTVisitor<Void> {
 
     @Override
     public Void visit(FieldAccessNode node) {
+        if (node.getObject() instanceof ArrayAccessNode element) {
+            element.getArray().accept(this);
+            element.getIndex().accept(this);
+            emitFieldAccess(OpCode.GET_ELEMENT_FIELD, node, node.getLine());
+            return null;
+        }
         node.getObject().accept(this);
-        SrValue nameVal = new SrValue(node.getFieldName());
-        int idx = currentChunk.addConstant(nameVal);
-        currentChunk.emit(OpCode.GET_FIELD, node.getLine());
-        currentChunk.emitByte(idx, node.getLine());
+        emitFieldAccess(OpCode.GET_FIELD, node, node.getLine());
         return null;
     }
     
@@ -444,7 +493,8 @@ public class BytecodeCompiler implements ASTVisitor<Void> {
         int sizeIdx = currentChunk.addConstant(new SrValue(BigInteger.valueOf(size)));
         currentChunk.emit(OpCode.LOAD_CONST, node.getLine());
         currentChunk.emitByte(sizeIdx, node.getLine());
-        currentChunk.emit(OpCode.NEW_ARRAY, node.getLine());
+        emitNewArray(literalElementType, node.getLine());
+        literalElementType = null;
         
         for (int i = 0; i < size; i++) {
             currentChunk.emit(OpCode.DUP, node.getLine());
@@ -463,8 +513,8 @@ public class BytecodeCompiler implements ASTVisitor<Void> {
     @Override public Void visit(ArrayTypeNode node) { return null; }
     @Override public Void visit(StructTypeNode node) { return null; }
     
-    private void addLocal(String name) {
-        locals.add(new Local(name, scopeDepth));
+    private void addLocal(String name, TypeNode type) {
+        locals.add(new Local(name, type, scopeDepth));
     }
 
     private int resolveLocal(String name) {
@@ -474,6 +524,114 @@ public class BytecodeCompiler implements ASTVisitor<Void> {
         return -1;
     }
 
+    private TypeNode staticType(ExpressionNode expr) {
+        if (expr instanceof VariableNode var) {
+            int index = resolveLocal(var.getName());
+            return index == -1 ? null : locals.get(index).type;
+        }
+        if (expr instanceof ArrayAccessNode access) {
+            return staticType(access.getArray()) instanceof ArrayTypeNode arr ? arr.getElementType() : null;
+        }
+        if (expr instanceof FieldAccessNode access) {
+            if (!(staticType(access.getObject()) instanceof StructTypeNode st)) return null;
+            StructDeclarationNode struct = structs.get(st.getStructName());
+            if (struct == null) return null;
+            for (VariableDeclarationNode field : struct.getFields()) {
+                if (field.getName().equals(access.getFieldName())) return field.getType();
+            }
+            return null;
+        }
+        if (expr instanceof FunctionCallNode call) {
+            return returnTypes.get(call.getFunctionName());
+        }
+        return null;
+    }
+
+    private boolean emitConcat(BinaryExpressionNode node) {
+        List<BinaryExpressionNode> chain = new ArrayList<>();
+        ExpressionNode left = node;
+        while (left instanceof BinaryExpressionNode bin && bin.getOperator().equals("+")) {
+            chain.add(0, bin);
+            left = bin.getLeft();
+        }
+        List<ExpressionNode> parts = new ArrayList<>();
+        parts.add(left);
+        for (BinaryExpressionNode bin : chain) parts.add(bin.getRight());
+
+        int first = 0;
+        while (first < parts.size() && !"string".equals(basicType(parts.get(first)))) first++;
+        if (first == parts.size()) return false;
+        if (first >= 2) {
+            parts = new ArrayList<>(parts.subList(first, parts.size()));
+            parts.add(0, chain.get(first - 2));
+        }
+
+        int pending = 0;
+        for (ExpressionNode part : parts) {
+            part.accept(this);
+            if (++pending == 255) {
+                currentChunk.emit(OpCode.CONCAT, node.getLine());
+                currentChunk.emitByte(pending, node.getLine());
+                pending = 1;
+            }
+        }
+        if (pending > 1) {
+            currentChunk.emit(OpCode.CONCAT, node.getLine());
+            currentChunk.emitByte(pending, node.getLine());
+        }
+        return true;
+    }
+
+    private String basicType(ExpressionNode expr) {
+        if (expr instanceof BinaryExpressionNode bin && bin.getOperator().equals("+")) {
+            return "string".equals(basicType(bin.getLeft())) || "string".equals(basicType(bin.getRight())) ? "string" : null;
+        }
+        if (expr instanceof IntegerLiteralNode) return "int";
+        if (expr instanceof FloatLiteralNode) return "float";
+        if (expr instanceof BooleanLiteralNode) return "bool";
+        if (expr instanceof StringLiteralNode) return "string";
+        return staticType(expr) instanceof BasicTypeNode basic ? basic.getTypeName() : null;
+    }
+
+    private OpCode equalityOp(BinaryExpressionNode node, OpCode generic, OpCode floats, OpCode bools) {
+        String left = basicType(node.getLeft());
+        String right = basicType(node.getRight());
+        if (left == null || right == null) return generic;
+        if (left.equals("bool") && right.equals("bool")) return bools;
+        if (left.equals("float") && (right.equals("float") || right.equals("int"))
+                || left.equals("int") && right.equals("float")) return floats;
+        return generic;
+    }
+
+    private void emitFieldAccess(OpCode op, FieldAccessNode node, int line) {
+        String field = node.getFieldName();
+        int shape = -1;
+        if (staticType(node.getObject()) instanceof StructTypeNode st) {
+            Integer index = shapeIndex.get(st.getStructName());
+            if (index != null && shapes.get(index).slotOf(field) != -1) shape = index;
+        }
+        for (int i = 0; shape == -1 && i < shapes.size(); i++) {
+            if (shapes.get(i).slotOf(field) != -1) shape = i;
+        }
+        if (shape == -1) throw new RuntimeException("Unknown field: " + field);
+        currentChunk.emit(op, line);
+        currentChunk.emitByte(shape, line);
+        currentChunk.emitByte(shapes.get(shape).slotOf(field), line);
+    }
+
+    private SrValue defaultFieldValue(TypeNode type) {
+        if (type instanceof BasicTypeNode basic) {
+            return switch (basic.getTypeName()) {
+                case "int" -> SrValue.valueOf(0);
+                case "float" -> new SrValue(0.0);
+                case "bool" -> SrValue.valueOf(false);
+                case "string" -> new SrValue("");
+                default -> SrValue.VOID;
+            };
+        }
+        return SrValue.VOID;
+    }
+
     private void emitDefaultValue(TypeNode type, int line) {
         if (type instanceof BasicTypeNode basic) {
             switch (basic.getTypeName()) {
@@ -495,22 +653,42 @@ public class BytecodeCompiler implements ASTVisitor<Void> {
                 }
             }
         } else if (type instanceof StructTypeNode st) {
-            int idx = currentChunk.addConstant(new SrValue(st.getStructName()));
+            Integer shape = shapeIndex.get(st.getStructName());
+            if (shape == null) throw new RuntimeException("Undefined struct: " + st.getStructName());
             currentChunk.emit(OpCode.NEW_STRUCT, line);
-            currentChunk.emitByte(idx, line);
+            currentChunk.emitByte(shape, line);
         } else if (type instanceof ArrayTypeNode arr) {
             if (arr.isFixedSize()) {
                 int idx = currentChunk.addConstant(new SrValue(BigInteger.valueOf(arr.getFixedSize())));
                 currentChunk.emit(OpCode.LOAD_CONST, line);
                 currentChunk.emitByte(idx, line);
-                currentChunk.emit(OpCode.NEW_ARRAY, line);
+                emitNewArray(arr.getElementType(), line);
             } else if (arr.isDynamicSize()) {
                 arr.getSizeExpression().accept(this);
-                currentChunk.emit(OpCode.NEW_ARRAY, line);
+                emitNewArray(arr.getElementType(), line);
             }
         }
     }
 
+    private void emitNewArray(TypeNode elementType, int line) {
+        if (elementType instanceof StructTypeNode st && shapeIndex.containsKey(st.getStructName())) {
+            currentChunk.emit(OpCode.NEW_STRUCT_ARRAY, line);
+            currentChunk.emitByte(shapeIndex.get(st.getStructName()), line);
+            return;
+        }
+        SrArray.ElementType type = SrArray.ElementType.ANY;
+        if (elementType instanceof BasicTypeNode basic) {
+            type = switch (basic.getTypeName()) {
+                case "int" -> SrArray.ElementType.INT;
+                case "float" -> SrArray.ElementType.FLOAT;
+                case "bool" -> SrArray.ElementType.BOOL;
+                default -> SrArray.ElementType.ANY;
+            };
+        }
+        currentChunk.emit(OpCode.NEW_ARRAY, line);
+        currentChunk.emitByte(type.ordinal(), line);
+    }
+
     private int emitJump(OpCode instruction, int line) {
         currentChunk.emit(instruction, line);
         currentChunk.emitByte(0xff, line);
@@ -2,31 +2,60 @@ package org.pakicek.compiler;
 
 import org.pakicek.runtime.ProgramImage;
 import org.pakicek.runtime.bytecode.Chunk;
+import org.pakicek.runtime.profile.Profile;
 import org.pakicek.runtime.vm.SrValue;
+import org.pakicek.runtime.vm.StructShape;
 
 import java.io.*;
 import java.math.BigInteger;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 public class BytecodeIO {
     private static final String MAGIC = "SLOW";
-    private static final int VERSION = 1;
+    private static final int VERSION = 4;
+    private static final int MIN_VERSION = 4;
 
     public static void write(ProgramImage program, String filename) throws IOException {
         try (DataOutputStream out = new DataOutputStream(new FileOutputStream(filename))) {
             out.writeBytes(MAGIC);
             out.writeInt(VERSION);
+            writeShapes(out, program.shapes);
             out.writeInt(program.functions.size());
             for (Map.Entry<String, Chunk> entry : program.functions.entrySet()) {
                 out.writeUTF(entry.getKey());
                 writeChunk(out, entry.getValue());
             }
             writeChunk(out, program.mainChunk);
+            writeProfile(out, program.profile);
         }
     }
 
+    private static void writeShapes(DataOutputStream out, List<StructShape> shapes) throws IOException {
+        out.writeInt(shapes.size());
+        for (StructShape shape : shapes) {
+            out.writeUTF(shape.name);
+            out.writeInt(shape.size());
+            for (int i = 0; i < shape.size(); i++) {
+                out.writeUTF(shape.fieldNames[i]);
+                writeConstant(out, shape.defaults[i]);
+            }
+        }
+    }
+
+    private static void writeProfile(DataOutputStream out, Profile profile) throws IOException {
+        out.writeBoolean(profile != null);
+        if (profile == null) return;
+        StringWriter text = new StringWriter();
+        profile.write(text);
+        byte[] bytes = text.toString().getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
     private static void writeChunk(DataOutputStream out, Chunk chunk) throws IOException {
         out.writeInt(chunk.constants.size());
         for (SrValue val : chunk.constants) {
@@ -75,9 +104,13 @@ public class BytecodeIO {
                 throw new IOException("Invalid file format. Expected SLOW, got " + magic);
             }
             int version = in.readInt();
-            if (version != VERSION) {
+            if (version < 1 || version > VERSION) {
                 throw new IOException("Unsupported version: " + version);
             }
+            if (version < MIN_VERSION) {
+                throw new IOException("Bytecode version " + version + " predates struct shapes, recompile the source");
+            }
+            List<StructShape> shapes = readShapes(in);
             Map<String, Chunk> functions = new HashMap<>();
             int funcCount = in.readInt();
             for (int i = 0; i < funcCount; i++) {
@@ -86,8 +119,31 @@ public class BytecodeIO {
                 functions.put(name, chunk);
             }
             Chunk mainChunk = readChunk(in);
-            return new ProgramImage(mainChunk, functions);
+            ProgramImage image = new ProgramImage(mainChunk, functions, shapes);
+            if (in.readBoolean()) {
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                image.profile = Profile.read(new StringReader(new String(bytes, StandardCharsets.UTF_8)));
+            }
+            return image;
+        }
+    }
+
+    private static List<StructShape> readShapes(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        List<StructShape> shapes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String name = in.readUTF();
+            int size = in.readInt();
+            String[] fieldNames = new String[size];
+            SrValue[] defaults = new SrValue[size];
+            for (int j = 0; j < size; j++) {
+                fieldNames[j] = in.readUTF();
+                defaults[j] = readConstant(in);
+            }
+            shapes.add(new StructShape(name, fieldNames, defaults));
         }
+        return shapes;
     }
 
     private static Chunk readChunk(DataInputStream in) throws IOException {
@@ -5,12 +5,14 @@ import org.pakicek.runtime.vm.SrValue;
 
 public class CallFrame {
     public final Chunk chunk;
+    public final String functionName;
     public int ip = 0;
     public final int stackOffset;
     public final SrValue[] locals = new SrValue[256];
 
-    public CallFrame(Chunk chunk, int stackOffset) {
+    public CallFrame(Chunk chunk, int stackOffset, String functionName) {
         this.chunk = chunk;
+        this.functionName = functionName;
         this.stackOffset = stackOffset;
     }
 }
\ No newline at end of file
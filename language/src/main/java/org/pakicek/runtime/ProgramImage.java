@@ -1,15 +1,26 @@
 package org.pakicek.runtime;
 
 import org.pakicek.runtime.bytecode.Chunk;
+import org.pakicek.runtime.profile.Profile;
+import org.pakicek.runtime.vm.StructShape;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 public class ProgramImage {
     public final Chunk mainChunk;
     public final Map<String, Chunk> functions;
+    public final List<StructShape> shapes;
+    public Profile profile;
 
     public ProgramImage(Chunk mainChunk, Map<String, Chunk> functions) {
+        this(mainChunk, functions, new ArrayList<>());
+    }
+
+    public ProgramImage(Chunk mainChunk, Map<String, Chunk> functions, List<StructShape> shapes) {
         this.mainChunk = mainChunk;
         this.functions = functions != null ? functions : new HashMap<>();
+        this.shapes = shapes;
     }
 }
\ No newline at end of file
@@ -2,22 +2,43 @@ package org.pakicek.runtime;
 
 import org.pakicek.runtime.bytecode.*;
 import org.pakicek.runtime.gc.*;
+import org.pakicek.runtime.jit.ArgumentSpecializer;
 import org.pakicek.runtime.jit.JitOptimizer;
+import org.pakicek.runtime.jit.VectorKernel;
+import org.pakicek.runtime.profile.AllocationProfile;
+import org.pakicek.runtime.profile.Profile;
+import org.pakicek.runtime.snapshot.HeapSnapshotWriter;
 import org.pakicek.runtime.vm.*;
 
+import java.io.IOException;
 import java.math.BigInteger;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.function.Consumer;
 
 public class VirtualMachine {
+    private static final int JIT_THRESHOLD = 10;
+    private static final SrArray.ElementType[] ELEMENT_TYPES = SrArray.ElementType.values();
+
     private final Stack<SrValue> stack = new Stack<>();
     private final Stack<CallFrame> frames = new Stack<>();
     private final Heap heap = new Heap();
     private final GarbageCollector gc;
     private final JitOptimizer jit = new JitOptimizer();
+    private final ArgumentSpecializer specializer = new ArgumentSpecializer(jit);
     private boolean jitEnabled = true;
     private final Random random = new Random();
     private final Map<String, Chunk> functions = new HashMap<>();
+    private Map<String, Chunk> originalFunctions = new HashMap<>();
+    private StructShape[] shapes = new StructShape[0];
     private final Map<Chunk, Integer> callCounts = new HashMap<>();
+    private final Map<String, VectorKernel> vectorKernels = new HashMap<>();
+    private Profile profile;
+    private Profile activeProfile;
+    private Profile recordedProfile;
+    private AllocationProfile allocationProfile;
+    private Path heapDumpOnExit;
+    private Path heapDumpOnOutOfMemory;
     public VirtualMachine() {
         this.gc = new GarbageCollector(heap, this);
     }
@@ -25,9 +46,67 @@ public class VirtualMachine {
         this.jitEnabled = enabled;
     }
 
+    public void setGcMode(Heap.Mode mode) {
+        heap.setMode(mode);
+    }
+
+    public void setGcTuning(long nurseryBytes, double growthFactor, long maxHeapBytes) {
+        heap.setNurseryBytes(nurseryBytes);
+        heap.setGrowthFactor(growthFactor);
+        heap.setMaxHeapBytes(maxHeapBytes);
+    }
+
+    public void setOffHeapThreshold(int length) {
+        heap.setOffHeapThreshold(length);
+    }
+
+    public void setColumnarStructs(boolean enabled) {
+        heap.setColumnarStructs(enabled);
+    }
+
+    public void setGcSliceBudget(int sliceBudget) {
+        gc.setSliceBudget(sliceBudget);
+    }
+
+    public GarbageCollector getGarbageCollector() {
+        return gc;
+    }
+
+    public Heap getHeap() {
+        return heap;
+    }
+
+    public void setProfile(Profile profile) {
+        this.profile = profile;
+    }
+
+    public void setRecordedProfile(Profile recordedProfile) {
+        this.recordedProfile = recordedProfile;
+    }
+
+    public void setAllocationProfile(AllocationProfile allocationProfile) {
+        this.allocationProfile = allocationProfile;
+        gc.setAllocationProfile(allocationProfile);
+    }
+
+    public void setHeapDump(Path onExit, Path onOutOfMemory) {
+        this.heapDumpOnExit = onExit;
+        this.heapDumpOnOutOfMemory = onOutOfMemory;
+    }
+
+    public int dumpHeap(Path path) {
+        try {
+            return HeapSnapshotWriter.write(this, path);
+        } catch (IOException e) {
+            throw new RuntimeException("IO Error: cannot write heap snapshot " + path + ": " + e.getMessage());
+        }
+    }
+
     public void run(ProgramImage image, String[] args) {
         this.functions.clear();
         this.functions.putAll(image.functions);
+        this.originalFunctions = image.functions;
+        this.shapes = image.shapes.toArray(new StructShape[0]);
         frames.clear();
         stack.clear();
 
@@ -42,13 +121,34 @@ public class VirtualMachine {
 
         heap.register(argvObj);
         SrValue argvVal = new SrValue(argvObj);
-        CallFrame mainFrame = new CallFrame(image.mainChunk, 0);
+        Chunk mainChunk = image.mainChunk;
+        activeProfile = profile != null ? profile : image.profile;
+        if (recordedProfile != null) {
+            activeProfile = null;
+            recordedProfile.function(Profile.MAIN).recordCall();
+        } else if (activeProfile != null) {
+            mainChunk = jit.layout(mainChunk, activeProfile.get(Profile.MAIN));
+            if (jitEnabled) compileHotFunctions();
+        }
+
+        CallFrame mainFrame = new CallFrame(mainChunk, 0, Profile.MAIN);
         mainFrame.locals[0] = argcVal;
         mainFrame.locals[1] = argvVal;
         frames.push(mainFrame);
         loop();
     }
 
+    private void compileHotFunctions() {
+        for (Map.Entry<String, Chunk> entry : functions.entrySet()) {
+            Profile.FunctionProfile functionProfile = activeProfile.get(entry.getKey());
+            if (functionProfile != null && functionProfile.getCalls() > JIT_THRESHOLD) {
+                Chunk optimized = jit.optimize(entry.getValue(), functionProfile);
+                entry.setValue(optimized);
+                callCounts.put(optimized, -1000000);
+            }
+        }
+    }
+
     private void loop() {
         while (!frames.isEmpty()) {
             CallFrame frame = frames.peek();
@@ -58,10 +158,13 @@ public class VirtualMachine {
             }
             byte opByte = frame.chunk.code.get(frame.ip++);
             OpCode op = OpCode.values()[opByte];
+            if (recordedProfile != null) {
+                recordProfile(frame, op);
+            }
 
             switch (op) {
                 case LOAD_CONST -> {
-                    int idx = frame.chunk.code.get(frame.ip++);
+                    int idx = frame.chunk.code.get(frame.ip++) & 0xFF;
                     stack.push(frame.chunk.constants.get(idx));
                 }
                 case LOAD_TRUE -> stack.push(new SrValue(true));
@@ -77,21 +180,32 @@ public class VirtualMachine {
                     stack.push(a);
                 }
                 case LOAD_LOCAL -> {
-                    int slot = frame.chunk.code.get(frame.ip++);
+                    int slot = frame.chunk.code.get(frame.ip++) & 0xFF;
                     stack.push(frame.locals[slot]);
                 }
                 case STORE_LOCAL -> {
-                    int slot = frame.chunk.code.get(frame.ip++);
-                    frame.locals[slot] = stack.pop();
+                    int slot = frame.chunk.code.get(frame.ip++) & 0xFF;
+                    SrValue val = stack.pop();
+                    if (gc.isMarking()) gc.shade(val);
+                    frame.locals[slot] = val;
                 }
-                case ADD -> binaryOp(BigInteger::add, Double::sum);
-                case SUB -> binaryOp(BigInteger::subtract, (a, b) -> a - b);
-                case MUL -> binaryOp(BigInteger::multiply, (a, b) -> a * b);
-                case DIV -> binaryOp(BigInteger::divide, (a, b) -> a / b);
+                case ADD -> {
+                    if (stack.peek().type == SrValue.Type.STRING || stack.get(stack.size() - 2).type == SrValue.Type.STRING) {
+                        concat(2);
+                    } else {
+                        binaryOp(Math::addExact, BigInteger::add, Double::sum);
+                    }
+                }
+                case CONCAT -> concat(frame.chunk.code.get(frame.ip++) & 0xFF);
+                case SUB -> binaryOp(Math::subtractExact, BigInteger::subtract, (a, b) -> a - b);
+                case MUL -> binaryOp(Math::multiplyExact, BigInteger::multiply, (a, b) -> a * b);
+                case DIV -> binaryOp(VirtualMachine::divideExact, BigInteger::divide, (a, b) -> a / b);
                 case MOD -> {
                     SrValue b = stack.pop();
                     SrValue a = stack.pop();
-                    if (a.type == SrValue.Type.INT && b.type == SrValue.Type.INT) {
+                    if (a.isSmallInt() && b.isSmallInt() && b.asLong() != 0) {
+                        stack.push(SrValue.valueOf(a.asLong() % b.asLong()));
+                    } else if (a.type == SrValue.Type.INT && b.type == SrValue.Type.INT) {
                         stack.push(new SrValue(a.asInt().remainder(b.asInt())));
                     } else {
                         stack.push(new SrValue(a.asFloat() % b.asFloat()));
@@ -100,27 +214,37 @@ public class VirtualMachine {
                 case BIT_AND -> {
                     SrValue b = stack.pop();
                     SrValue a = stack.pop();
-                    stack.push(new SrValue(a.asInt().and(b.asInt())));
+                    if (a.isSmallInt() && b.isSmallInt()) {
+                        stack.push(SrValue.valueOf(a.asLong() & b.asLong()));
+                    } else {
+                        stack.push(new SrValue(a.asInt().and(b.asInt())));
+                    }
                 }
                 case BIT_OR -> {
                     SrValue b = stack.pop();
                     SrValue a = stack.pop();
-                    stack.push(new SrValue(a.asInt().or(b.asInt())));
+                    if (a.isSmallInt() && b.isSmallInt()) {
+                        stack.push(SrValue.valueOf(a.asLong() | b.asLong()));
+                    } else {
+                        stack.push(new SrValue(a.asInt().or(b.asInt())));
+                    }
                 }
                 case LOGIC_AND -> {
                     boolean b = stack.pop().asBool();
                     boolean a = stack.pop().asBool();
-                    stack.push(new SrValue(a && b));
+                    stack.push(SrValue.valueOf(a && b));
                 }
                 case LOGIC_OR -> {
                     boolean b = stack.pop().asBool();
                     boolean a = stack.pop().asBool();
-                    stack.push(new SrValue(a || b));
+                    stack.push(SrValue.valueOf(a || b));
                 }
                 case NOT -> {
                     SrValue val = stack.pop();
                     if (val.type == SrValue.Type.BOOL) {
-                        stack.push(new SrValue(!val.asBool()));
+                        stack.push(SrValue.valueOf(!val.asBool()));
+                    } else if (val.isSmallInt()) {
+                        stack.push(SrValue.valueOf(~val.asLong()));
                     } else if (val.type == SrValue.Type.INT) {
                         stack.push(new SrValue(val.asInt().not()));
                     } else {
@@ -129,26 +253,69 @@ public class VirtualMachine {
                 }
                 case EQ -> {
                     SrValue b = stack.pop();
-                    SrValue a = stack.pop();
-                    if (a.type == SrValue.Type.INT && b.type == SrValue.Type.INT) {
-                        stack.push(new SrValue(a.asInt().equals(b.asInt())));
-                    } else {
-                        stack.push(new SrValue(Objects.equals(a.asString(), b.asString())));
-                    }
+                    stack.push(SrValue.valueOf(valuesEqual(stack.pop(), b)));
                 }
                 case NEQ -> {
+                    SrValue b = stack.pop();
+                    stack.push(SrValue.valueOf(!valuesEqual(stack.pop(), b)));
+                }
+                case EQ_FLOAT, NEQ_FLOAT -> {
                     SrValue b = stack.pop();
                     SrValue a = stack.pop();
-                    if (a.type == SrValue.Type.INT && b.type == SrValue.Type.INT) {
-                        stack.push(new SrValue(!a.asInt().equals(b.asInt())));
-                    } else {
-                        stack.push(new SrValue(!Objects.equals(a.asString(), b.asString())));
-                    }
+                    boolean equal = a.type == SrValue.Type.FLOAT && b.type == SrValue.Type.FLOAT
+                            ? a.asFloat() == b.asFloat() : valuesEqual(a, b);
+                    stack.push(SrValue.valueOf(equal == (op == OpCode.EQ_FLOAT)));
+                }
+                case EQ_BOOL, NEQ_BOOL -> {
+                    SrValue b = stack.pop();
+                    SrValue a = stack.pop();
+                    boolean equal = a.type == SrValue.Type.BOOL && b.type == SrValue.Type.BOOL
+                            ? a.asBool() == b.asBool() : valuesEqual(a, b);
+                    stack.push(SrValue.valueOf(equal == (op == OpCode.EQ_BOOL)));
                 }
                 case GT -> compareOp((i) -> i > 0);
                 case LT -> compareOp((i) -> i < 0);
                 case GTE -> compareOp((i) -> i >= 0);
                 case LTE -> compareOp((i) -> i <= 0);
+                case ADD_LONG -> {
+                    long b = stack.pop().asLong();
+                    long a = stack.pop().asLong();
+                    stack.push(SrValue.valueOf(a + b));
+                }
+                case SUB_LONG -> {
+                    long b = stack.pop().asLong();
+                    long a = stack.pop().asLong();
+                    stack.push(SrValue.valueOf(a - b));
+                }
+                case MUL_LONG -> {
+                    long b = stack.pop().asLong();
+                    long a = stack.pop().asLong();
+                    stack.push(SrValue.valueOf(a * b));
+                }
+                case EQ_LONG -> {
+                    long b = stack.pop().asLong();
+                    stack.push(SrValue.valueOf(stack.pop().asLong() == b));
+                }
+                case NEQ_LONG -> {
+                    long b = stack.pop().asLong();
+                    stack.push(SrValue.valueOf(stack.pop().asLong() != b));
+                }
+                case GT_LONG -> {
+                    long b = stack.pop().asLong();
+                    stack.push(SrValue.valueOf(stack.pop().asLong() > b));
+                }
+                case LT_LONG -> {
+                    long b = stack.pop().asLong();
+                    stack.push(SrValue.valueOf(stack.pop().asLong() < b));
+                }
+                case GTE_LONG -> {
+                    long b = stack.pop().asLong();
+                    stack.push(SrValue.valueOf(stack.pop().asLong() >= b));
+                }
+                case LTE_LONG -> {
+                    long b = stack.pop().asLong();
+                    stack.push(SrValue.valueOf(stack.pop().asLong() <= b));
+                }
                 case JMP -> {
                     byte b1 = frame.chunk.code.get(frame.ip++);
                     byte b2 = frame.chunk.code.get(frame.ip++);
@@ -163,9 +330,31 @@ public class VirtualMachine {
                         frame.ip += offset;
                     }
                 }
+                case VECTOR_LOOP -> {
+                    int descriptorIdx = frame.chunk.code.get(frame.ip++) & 0xFF;
+                    String descriptor = frame.chunk.constants.get(descriptorIdx).asString();
+                    VectorKernel kernel = vectorKernels.computeIfAbsent(descriptor, VectorKernel::parse);
+                    stack.push(new SrValue(kernel.run(frame.locals, frame.chunk.constants)));
+                }
+                case JMP_TRUE -> {
+                    byte b1 = frame.chunk.code.get(frame.ip++);
+                    byte b2 = frame.chunk.code.get(frame.ip++);
+                    short offset = (short) ((b1 << 8) | (b2 & 0xFF));
+                    if (stack.pop().asBool()) {
+                        frame.ip += offset;
+                    }
+                }
                 case NEW_ARRAY -> {
-                    int size = stack.pop().asInt().intValue();
-                    allocate(new SrArray(size));
+                    SrArray.ElementType elementType = ELEMENT_TYPES[frame.chunk.code.get(frame.ip++) & 0xFF];
+                    int length = arrayLength(stack.pop());
+                    reserve(heap.allocationBytes(length, elementType));
+                    allocate(heap.newArray(length, elementType), frame, frame.ip - 2);
+                }
+                case NEW_STRUCT_ARRAY -> {
+                    StructShape shape = shapes[frame.chunk.code.get(frame.ip++) & 0xFF];
+                    int length = arrayLength(stack.pop());
+                    reserve(heap.structArrayBytes(length, shape));
+                    allocate(heap.newStructArray(length, shape), frame, frame.ip - 2);
                 }
                 case GET_ARRAY -> {
                     SrValue index = stack.pop();
@@ -173,11 +362,8 @@ public class VirtualMachine {
                     if (arrVal.type != SrValue.Type.OBJECT || !(arrVal.asObject() instanceof SrArray array)) {
                         throw new RuntimeException("Type Error: Expected Array");
                     }
-                    int idx = index.asInt().intValue();
-                    if (idx < 0 || idx >= array.elements.length) {
-                        throw new RuntimeException("Index Error: " + idx);
-                    }
-                    stack.push(array.elements[idx]);
+                    int idx = arrayIndex(index, array);
+                    stack.push(array.get(idx));
                 }
                 case SET_ARRAY -> {
                     SrValue val = stack.pop();
@@ -187,53 +373,76 @@ public class VirtualMachine {
                     if (arrVal.type != SrValue.Type.OBJECT || !(arrVal.asObject() instanceof SrArray array)) {
                         throw new RuntimeException("Type Error: Expected Array");
                     }
-                    int idx = index.asInt().intValue();
-
-                    if (idx < 0 || idx >= array.elements.length) {
-                        throw new RuntimeException("Index Error: " + idx);
-                    }
-                    array.elements[idx] = val;
+                    int idx = arrayIndex(index, array);
+                    if (!array.accepts(idx, val)) heap.generalize(array);
+                    array.set(idx, val);
+                    heap.arrayWriteBarrier(array, idx, val);
+                    if (gc.isMarking()) gc.shade(val);
                     stack.push(val);
                 }
                 case LEN -> {
                     SrValue val = stack.pop();
                     if (val.type == SrValue.Type.STRING) {
-                        stack.push(new SrValue(BigInteger.valueOf(val.asString().length())));
+                        stack.push(SrValue.valueOf(val.asString().length()));
                     } else if (val.type == SrValue.Type.OBJECT && val.asObject() != null) {
-                        stack.push(new SrValue(BigInteger.valueOf(val.asObject().getSize())));
+                        stack.push(SrValue.valueOf(val.asObject().getSize()));
                     } else {
                         throw new RuntimeException("Type Error: len() argument");
                     }
                 }
                 case NEW_STRUCT -> {
-                    int nameIdx = frame.chunk.code.get(frame.ip++);
-                    String structName = frame.chunk.constants.get(nameIdx).asString();
-                    allocate(new SrStruct(structName));
+                    StructShape shape = shapes[frame.chunk.code.get(frame.ip++) & 0xFF];
+                    reserve(Heap.structBytes(shape));
+                    allocate(new SrStruct(shape), frame, frame.ip - 2);
                 }
                 case SET_FIELD -> {
-                    int fieldNameIdx = frame.chunk.code.get(frame.ip++);
-                    String fieldName = frame.chunk.constants.get(fieldNameIdx).asString();
+                    StructShape shape = shapes[frame.chunk.code.get(frame.ip++) & 0xFF];
+                    int slot = frame.chunk.code.get(frame.ip++) & 0xFF;
                     SrValue val = stack.pop();
-                    SrValue objVal = stack.pop();
-
-                    if (objVal.asObject() instanceof SrStruct struct) {
-                        struct.fields.put(fieldName, val);
-                    } else {
-                        throw new RuntimeException("Type Error: Setting field on non-struct");
-                    }
+                    setField(stack.pop(), shape, slot, val);
                     stack.push(val);
                 }
                 case GET_FIELD -> {
-                    int fieldNameIdx = frame.chunk.code.get(frame.ip++);
-                    String fieldName = frame.chunk.constants.get(fieldNameIdx).asString();
-                    SrValue objVal = stack.pop();
-
-                    if (objVal.asObject() instanceof SrStruct struct) {
-                        SrValue fieldVal = struct.fields.getOrDefault(fieldName, SrValue.VOID);
-                        stack.push(fieldVal);
+                    StructShape shape = shapes[frame.chunk.code.get(frame.ip++) & 0xFF];
+                    int slot = frame.chunk.code.get(frame.ip++) & 0xFF;
+                    stack.push(getField(stack.pop(), shape, slot));
+                }
+                case GET_ELEMENT_FIELD -> {
+                    StructShape shape = shapes[frame.chunk.code.get(frame.ip++) & 0xFF];
+                    int slot = frame.chunk.code.get(frame.ip++) & 0xFF;
+                    SrValue index = stack.pop();
+                    SrValue arrVal = stack.pop();
+                    if (arrVal.type != SrValue.Type.OBJECT || !(arrVal.asObject() instanceof SrArray array)) {
+                        throw new RuntimeException("Type Error: Expected Array");
+                    }
+                    int idx = arrayIndex(index, array);
+                    StructColumns columns = array.columns;
+                    if (columns != null && array.isPresent(idx)) {
+                        if (columns.shape != shape) slot = columns.shape.resolve(shape.fieldNames[slot]);
+                        stack.push(columns.get(idx, slot));
+                    } else {
+                        stack.push(getField(array.get(idx), shape, slot));
+                    }
+                }
+                case SET_ELEMENT_FIELD -> {
+                    StructShape shape = shapes[frame.chunk.code.get(frame.ip++) & 0xFF];
+                    int slot = frame.chunk.code.get(frame.ip++) & 0xFF;
+                    SrValue val = stack.pop();
+                    SrValue index = stack.pop();
+                    SrValue arrVal = stack.pop();
+                    if (arrVal.type != SrValue.Type.OBJECT || !(arrVal.asObject() instanceof SrArray array)) {
+                        throw new RuntimeException("Type Error: Expected Array");
+                    }
+                    int idx = arrayIndex(index, array);
+                    StructColumns columns = array.columns;
+                    int columnSlot = columns == null || columns.shape == shape ? slot : columns.shape.resolve(shape.fieldNames[slot]);
+                    if (columns != null && array.isPresent(idx) && columns.accepts(columnSlot, val)) {
+                        columns.set(idx, columnSlot, val);
                     } else {
-                        throw new RuntimeException("Type Error: Getting field from non-struct");
+                        if (columns != null) heap.generalize(array);
+                        setField(array.get(idx), shape, slot, val);
                     }
+                    stack.push(val);
                 }
                 case PRINT -> System.out.print(stack.pop());
                 case PRINTLN -> System.out.println(stack.pop());
@@ -245,7 +454,7 @@ public class VirtualMachine {
                 case TO_INT -> {
                     SrValue val = stack.pop();
                     try {
-                        stack.push(new SrValue(new BigInteger(val.asString())));
+                        stack.push(parseInt(val.asString()));
                     } catch (NumberFormatException e) {
                         throw new RuntimeException("Type Error: Cannot convert to int: " + val);
                     }
@@ -265,26 +474,33 @@ public class VirtualMachine {
                     }
                 }
                 case CALL -> {
-                    int nameIdx = frame.chunk.code.get(frame.ip++);
+                    int callIp = frame.ip - 1;
+                    int nameIdx = frame.chunk.code.get(frame.ip++) & 0xFF;
                     String funcName = frame.chunk.constants.get(nameIdx).asString();
-                    int argCount = frame.chunk.code.get(frame.ip++);
+                    int argCount = frame.chunk.code.get(frame.ip++) & 0xFF;
 
                     Chunk funcChunk = functions.get(funcName);
                     if (funcChunk == null) {
                         throw new RuntimeException("Runtime Error: Function " + funcName + " not found");
                     }
 
-                    if (jitEnabled) {
+                    if (jitEnabled && recordedProfile == null) {
+                        Profile.FunctionProfile functionProfile = activeProfile != null ? activeProfile.get(funcName) : null;
                         int calls = callCounts.getOrDefault(funcChunk, 0) + 1;
                         callCounts.put(funcChunk, calls);
-                        if (calls > 10) {
-                            funcChunk = jit.optimize(funcChunk);
+                        if (calls > JIT_THRESHOLD) {
+                            funcChunk = jit.optimize(funcChunk, functionProfile);
                             functions.put(funcName, funcChunk);
                             callCounts.put(funcChunk, -1000000);
                         }
+                        Chunk specialized = specializer.select(frame.chunk, callIp, originalFunctions.get(funcName),
+                                stack, argCount, functionProfile);
+                        if (specialized != null) {
+                            funcChunk = specialized;
+                        }
                     }
 
-                    CallFrame nextFrame = new CallFrame(funcChunk, stack.size() - argCount);
+                    CallFrame nextFrame = new CallFrame(funcChunk, stack.size() - argCount, funcName);
                     for (int i = argCount - 1; i >= 0; i--) {
                         nextFrame.locals[i] = stack.pop();
                     }
@@ -297,7 +513,9 @@ public class VirtualMachine {
                         stack.push(result);
                     }
                 }
+                case DUMP_HEAP -> dumpHeap(Path.of(stack.pop().asString()));
                 case HALT -> {
+                    if (heapDumpOnExit != null) dumpHeap(heapDumpOnExit);
                     frames.clear();
                     return;
                 }
@@ -305,50 +523,198 @@ public class VirtualMachine {
         }
     }
 
+    private void recordProfile(CallFrame frame, OpCode op) {
+        int ip = frame.ip - 1;
+        Profile.FunctionProfile functionProfile = recordedProfile.function(frame.functionName);
+        switch (op) {
+            case CALL -> {
+                int nameIdx = frame.chunk.code.get(frame.ip) & 0xFF;
+                recordedProfile.function(frame.chunk.constants.get(nameIdx).asString()).recordCall();
+            }
+            case JMP -> {
+                short offset = (short) ((frame.chunk.code.get(ip + 1) << 8) | (frame.chunk.code.get(ip + 2) & 0xFF));
+                if (offset < 0) functionProfile.recordLoopIteration(ip);
+            }
+            case JMP_FALSE -> functionProfile.recordBranch(ip, !stack.peek().asBool());
+            case JMP_TRUE -> functionProfile.recordBranch(ip, stack.peek().asBool());
+            case ADD, SUB, MUL, DIV, MOD, EQ, NEQ, GT, LT, GTE, LTE ->
+                    functionProfile.recordOperands(ip, stack.get(stack.size() - 2), stack.peek());
+            default -> { }
+        }
+    }
+
+    private interface LongOp { long apply(long a, long b); }
     private interface BigIntOp { BigInteger apply(BigInteger a, BigInteger b); }
     private interface DoubleOp { double apply(double a, double b); }
 
-    private void binaryOp(BigIntOp intOp, DoubleOp doubleOp) {
+    private void binaryOp(LongOp longOp, BigIntOp intOp, DoubleOp doubleOp) {
         SrValue b = stack.pop();
         SrValue a = stack.pop();
+        if (a.isSmallInt() && b.isSmallInt()) {
+            try {
+                stack.push(SrValue.valueOf(longOp.apply(a.asLong(), b.asLong())));
+                return;
+            } catch (ArithmeticException e) {
+                // overflow or division by zero: retry with BigInteger semantics below
+            }
+        }
         if (a.type == SrValue.Type.INT && b.type == SrValue.Type.INT) {
             stack.push(new SrValue(intOp.apply(a.asInt(), b.asInt())));
         } else {
-            double da = (a.type == SrValue.Type.INT) ? a.asInt().doubleValue() : a.asFloat();
-            double db = (b.type == SrValue.Type.INT) ? b.asInt().doubleValue() : b.asFloat();
+            double da = a.asFloat();
+            double db = b.asFloat();
             stack.push(new SrValue(doubleOp.apply(da, db)));
         }
     }
 
+    private void concat(int count) {
+        int base = stack.size() - count;
+        int capacity = 0;
+        for (int i = base; i < stack.size(); i++) {
+            SrValue part = stack.get(i);
+            capacity += part.type == SrValue.Type.STRING ? part.asString().length() : 24;
+        }
+        StringBuilder builder = new StringBuilder(capacity);
+        for (int i = base; i < stack.size(); i++) {
+            SrValue part = stack.get(i);
+            if (part.isSmallInt()) {
+                builder.append(part.asLong());
+            } else if (part.type == SrValue.Type.FLOAT) {
+                builder.append(part.asFloat());
+            } else {
+                builder.append(part.asString());
+            }
+        }
+        stack.setSize(base);
+        stack.push(new SrValue(builder.toString()));
+    }
+
     private interface CompOp { boolean check(int comparisonResult); }
 
     private void compareOp(CompOp op) {
         SrValue b = stack.pop();
         SrValue a = stack.pop();
         int res;
-        if (a.type == SrValue.Type.INT && b.type == SrValue.Type.INT) {
+        if (a.isSmallInt() && b.isSmallInt()) {
+            res = Long.compare(a.asLong(), b.asLong());
+        } else if (a.type == SrValue.Type.INT && b.type == SrValue.Type.INT) {
             res = a.asInt().compareTo(b.asInt());
         } else {
-            double da = (a.type == SrValue.Type.INT) ? a.asInt().doubleValue() : a.asFloat();
-            double db = (b.type == SrValue.Type.INT) ? b.asInt().doubleValue() : b.asFloat();
+            double da = a.asFloat();
+            double db = b.asFloat();
             res = Double.compare(da, db);
         }
-        stack.push(new SrValue(op.check(res)));
+        stack.push(SrValue.valueOf(op.check(res)));
+    }
+
+    private static boolean valuesEqual(SrValue a, SrValue b) {
+        if (a.isSmallInt() && b.isSmallInt()) return a.asLong() == b.asLong();
+        return switch (a.type) {
+            case INT -> b.type == SrValue.Type.INT ? a.asInt().equals(b.asInt()) : b.type == SrValue.Type.FLOAT && a.asFloat() == b.asFloat();
+            case FLOAT -> (b.type == SrValue.Type.FLOAT || b.type == SrValue.Type.INT) && a.asFloat() == b.asFloat();
+            case BOOL -> b.type == SrValue.Type.BOOL && a.asBool() == b.asBool();
+            case STRING -> b.type == SrValue.Type.STRING && a.asString().equals(b.asString());
+            case OBJECT -> b.type == SrValue.Type.OBJECT && a.asObject() == b.asObject();
+            case VOID -> b.type == SrValue.Type.VOID;
+        };
+    }
+
+    private static long divideExact(long a, long b) {
+        if (a == Long.MIN_VALUE && b == -1) throw new ArithmeticException("long overflow");
+        return a / b;
+    }
+
+    private static SrValue parseInt(String text) {
+        try {
+            return SrValue.valueOf(Long.parseLong(text));
+        } catch (NumberFormatException e) {
+            return new SrValue(new BigInteger(text));
+        }
     }
 
-    private void allocate(SrObject obj) {
-        if (heap.shouldCollect()) {
+    private static int arrayIndex(SrValue index, SrArray array) {
+        if (index.type != SrValue.Type.INT) {
+            throw new RuntimeException("Type Error: Array index must be int");
+        }
+        if (!index.isSmallInt() || index.asLong() < 0 || index.asLong() >= array.getSize()) {
+            throw new RuntimeException("Index Error: " + index);
+        }
+        return (int) index.asLong();
+    }
+
+    private void reserve(long bytes) {
+        if (gc.isMarking()) {
+            gc.markSlice();
+        } else if (heap.shouldCollect(bytes)) {
             gc.collect();
         }
-        heap.register(obj);
+        if (heap.exceedsMaxHeap(bytes)) {
+            gc.collectMajor();
+            if (heap.exceedsMaxHeap(bytes)) {
+                if (heapDumpOnOutOfMemory != null) dumpHeap(heapDumpOnOutOfMemory);
+                throw new RuntimeException("Memory Error: heap limit of " + heap.getMaxHeapBytes() + " bytes exceeded");
+            }
+        }
+    }
+
+    private void allocate(SrObject obj, CallFrame frame, int ip) {
+        track(obj, frame, ip);
         stack.push(new SrValue(obj));
     }
 
-    public List<SrValue> getStackRoots() {
-        List<SrValue> roots = new ArrayList<>(stack);
-        for(CallFrame f : frames) {
-            for(SrValue v : f.locals) if(v != null) roots.add(v);
+    private void track(SrObject obj, CallFrame frame, int ip) {
+        heap.register(obj, gc.isMarking());
+        if (allocationProfile != null) {
+            allocationProfile.recordAllocation(frame.functionName, ip, frame.chunk.lines.get(ip), obj);
+        }
+    }
+
+    private int arrayLength(SrValue size) {
+        if (!size.isSmallInt() || size.asLong() < 0 || size.asLong() > Integer.MAX_VALUE) {
+            throw new RuntimeException("Size Error: " + size);
+        }
+        return (int) size.asLong();
+    }
+
+    private SrValue getField(SrValue objVal, StructShape shape, int slot) {
+        if (!(objVal.asObject() instanceof SrStruct struct)) {
+            throw new RuntimeException("Type Error: Getting field from non-struct");
+        }
+        if (struct.shape != shape) slot = struct.shape.resolve(shape.fieldNames[slot]);
+        return struct.get(slot);
+    }
+
+    private void setField(SrValue objVal, StructShape shape, int slot, SrValue val) {
+        if (!(objVal.asObject() instanceof SrStruct struct)) {
+            throw new RuntimeException("Type Error: Setting field on non-struct");
+        }
+        if (struct.shape != shape) slot = struct.shape.resolve(shape.fieldNames[slot]);
+        if (!struct.accepts(slot, val)) {
+            SrArray owner = struct.isView() ? struct.columns.owner : null;
+            boolean ownerLive = owner != null && (owner.heapSpace < 0 || heap.isLive(owner));
+            if (ownerLive && owner.columns == struct.columns) heap.generalize(owner);
+            heap.generalize(struct);
+        }
+        struct.setField(slot, val);
+        heap.writeBarrier(struct, val);
+        if (gc.isMarking()) gc.shade(val);
+    }
+
+    public void scanRoots(Consumer<SrValue> visitor) {
+        for (int i = 0; i < stack.size(); i++) {
+            visitor.accept(stack.get(i));
+        }
+        for (int f = 0; f < frames.size(); f++) {
+            CallFrame frame = frames.get(f);
+            BitSet live = frame.chunk.liveLocalsAt(frame.ip);
+            if (live == null) {
+                for (SrValue v : frame.locals) if (v != null) visitor.accept(v);
+                continue;
+            }
+            for (int slot = live.nextSetBit(0); slot >= 0; slot = live.nextSetBit(slot + 1)) {
+                SrValue v = frame.locals[slot];
+                if (v != null) visitor.accept(v);
+            }
         }
-        return roots;
     }
-}
\ No newline at end of file
+}
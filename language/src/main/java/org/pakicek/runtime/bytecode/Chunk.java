@@ -2,12 +2,14 @@ package org.pakicek.runtime.bytecode;
 
 import org.pakicek.runtime.vm.SrValue;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
 
 public class Chunk {
     public final List<Byte> code = new ArrayList<>();
     public final List<SrValue> constants = new ArrayList<>();
     public final List<Integer> lines = new ArrayList<>();
+    private BitSet[] liveLocals;
 
     public void emit(OpCode op, int line) {
         code.add((byte) op.ordinal());
@@ -23,4 +25,13 @@ public class Chunk {
         constants.add(value);
         return constants.size() - 1;
     }
-}
\ No newline at end of file
+
+    public void computeLiveness() {
+        liveLocals = Liveness.compute(this);
+    }
+
+    public BitSet liveLocalsAt(int ip) {
+        if (liveLocals == null) computeLiveness();
+        return ip < liveLocals.length ? liveLocals[ip] : null;
+    }
+}
@@ -0,0 +1,71 @@
+package org.pakicek.runtime.bytecode;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+public class Liveness {
+    public static final int MAX_LOCALS = 256;
+
+    public static BitSet[] compute(Chunk chunk) {
+        List<Byte> code = chunk.code;
+        List<Integer> starts = new ArrayList<>();
+        for (int ip = 0; ip < code.size(); ip += length(code, ip)) {
+            starts.add(ip);
+        }
+
+        BitSet[] liveIn = new BitSet[code.size() + 1];
+        liveIn[code.size()] = new BitSet();
+        for (int ip : starts) liveIn[ip] = new BitSet();
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int k = starts.size() - 1; k >= 0; k--) {
+                int ip = starts.get(k);
+                BitSet live = liveOut(code, ip, liveIn);
+                OpCode op = OpCode.values()[code.get(ip) & 0xFF];
+                switch (op) {
+                    case LOAD_LOCAL -> live.set(code.get(ip + 1) & 0xFF);
+                    case STORE_LOCAL -> live.clear(code.get(ip + 1) & 0xFF);
+                    case VECTOR_LOOP -> live.set(0, MAX_LOCALS);
+                    default -> { }
+                }
+                if (!live.equals(liveIn[ip])) {
+                    liveIn[ip] = live;
+                    changed = true;
+                }
+            }
+        }
+
+        BitSet[] safepoints = new BitSet[code.size() + 1];
+        for (int ip : starts) {
+            OpCode op = OpCode.values()[code.get(ip) & 0xFF];
+            if (op == OpCode.NEW_ARRAY || op == OpCode.NEW_STRUCT || op == OpCode.NEW_STRUCT_ARRAY || op == OpCode.CALL
+                    || op == OpCode.DUMP_HEAP) {
+                int next = ip + length(code, ip);
+                safepoints[next] = liveIn[next];
+            }
+        }
+        return safepoints;
+    }
+
+    private static BitSet liveOut(List<Byte> code, int ip, BitSet[] liveIn) {
+        OpCode op = OpCode.values()[code.get(ip) & 0xFF];
+        BitSet out = new BitSet();
+        if (op == OpCode.RETURN || op == OpCode.HALT) return out;
+        if (op == OpCode.JMP || op == OpCode.JMP_FALSE || op == OpCode.JMP_TRUE) {
+            short offset = (short) (((code.get(ip + 1) & 0xFF) << 8) | (code.get(ip + 2) & 0xFF));
+            int target = ip + 3 + offset;
+            if (target >= 0 && target < liveIn.length && liveIn[target] != null) out.or(liveIn[target]);
+            if (op == OpCode.JMP) return out;
+        }
+        int next = ip + length(code, ip);
+        if (next < liveIn.length && liveIn[next] != null) out.or(liveIn[next]);
+        return out;
+    }
+
+    private static int length(List<Byte> code, int ip) {
+        return 1 + OpCode.values()[code.get(ip) & 0xFF].operandBytes();
+    }
+}
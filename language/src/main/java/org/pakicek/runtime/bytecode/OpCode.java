@@ -33,5 +33,30 @@ public enum OpCode {
     SQRT,
     TO_INT,
     RANDOM,
-    HALT
+    HALT,
+
+    ADD_LONG, SUB_LONG, MUL_LONG,
+    EQ_LONG, NEQ_LONG, GT_LONG, LT_LONG, GTE_LONG, LTE_LONG,
+
+    JMP_TRUE,
+
+    VECTOR_LOOP,
+
+    DUMP_HEAP,
+
+    NEW_STRUCT_ARRAY,
+    GET_ELEMENT_FIELD,
+    SET_ELEMENT_FIELD,
+
+    EQ_FLOAT, NEQ_FLOAT, EQ_BOOL, NEQ_BOOL,
+
+    CONCAT;
+
+    public int operandBytes() {
+        return switch (this) {
+            case LOAD_CONST, LOAD_LOCAL, STORE_LOCAL, NEW_ARRAY, NEW_STRUCT, NEW_STRUCT_ARRAY, VECTOR_LOOP, CONCAT -> 1;
+            case CALL, JMP, JMP_FALSE, JMP_TRUE, GET_FIELD, SET_FIELD, GET_ELEMENT_FIELD, SET_ELEMENT_FIELD -> 2;
+            default -> 0;
+        };
+    }
 }
\ No newline at end of file
@@ -1,44 +1,223 @@
 package org.pakicek.runtime.gc;
 
 import org.pakicek.runtime.VirtualMachine;
+import org.pakicek.runtime.profile.AllocationProfile;
 import org.pakicek.runtime.vm.*;
 
-import java.util.Stack;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
 
 public class GarbageCollector {
+    public static final int DEFAULT_SLICE_BUDGET = 1000;
+    public static final long PARALLEL_MARK_BYTES = 64L << 20;
+
     private final Heap heap;
     private final VirtualMachine vm;
+    private final GcTelemetry telemetry;
+    private final Deque<SrObject> greyObjects = new ArrayDeque<>();
+    private final Deque<SrObject> workList = new ArrayDeque<>();
+    private final Consumer<SrValue> markRoot = val -> push(val, false);
+    private final Consumer<SrValue> markYoungRoot = val -> push(val, true);
+    private final Consumer<SrValue> shadeRoot = this::shade;
+    private int sliceBudget = DEFAULT_SLICE_BUDGET;
+    private boolean marking = false;
+    private SrArray scanArray;
+    private int scanIndex;
+    private int markSlices = 0;
+    private long parallelThreshold = PARALLEL_MARK_BYTES;
+    private ParallelMarker parallelMarker;
+    private int parallelMarks = 0;
+    private AllocationProfile allocationProfile;
 
     public GarbageCollector(Heap heap, VirtualMachine vm) {
         this.heap = heap;
         this.vm = vm;
+        this.telemetry = new GcTelemetry(heap);
+    }
+
+    public void setSliceBudget(int sliceBudget) {
+        this.sliceBudget = sliceBudget;
+    }
+
+    public boolean isMarking() {
+        return marking;
+    }
+
+    public void setParallelThreshold(long bytes) {
+        this.parallelThreshold = bytes;
+    }
+
+    public int getParallelMarks() {
+        return parallelMarks;
+    }
+
+    public int getMarkSlices() {
+        return markSlices;
+    }
+
+    public GcTelemetry getTelemetry() {
+        return telemetry;
+    }
+
+    public void setAllocationProfile(AllocationProfile allocationProfile) {
+        this.allocationProfile = allocationProfile;
     }
 
     public void collect() {
-        mark();
-        heap.sweep();
+        if (heap.getMode() == Heap.Mode.HOST) return;
+        telemetry.begin();
+        if (heap.getMode() == Heap.Mode.INCREMENTAL) {
+            if (!marking) startMarking();
+            markSlice();
+        } else if (heap.needsMajorCollection()) {
+            collectMajor();
+        } else {
+            collectMinor();
+        }
+        telemetry.end();
+    }
+
+    public void collectMinor() {
+        if (heap.getMode() == Heap.Mode.HOST) return;
+        telemetry.begin();
+        mark(true);
+        heap.sweepNursery();
+        telemetry.end();
+        recordSurvivors();
     }
 
-    private void mark() {
-        Stack<SrObject> workList = new Stack<>();
-        for (SrValue val : vm.getStackRoots()) {
-            if (val.type == SrValue.Type.OBJECT && val.asObject() != null) {
-                workList.push(val.asObject());
+    public void collectMajor() {
+        if (heap.getMode() == Heap.Mode.HOST) return;
+        telemetry.begin();
+        if (marking) {
+            while (marking) markSlice(Integer.MAX_VALUE);
+        } else {
+            if (heap.getHeapBytes() >= parallelThreshold) {
+                if (parallelMarker == null) parallelMarker = new ParallelMarker(ForkJoinPool.commonPool(), heap);
+                parallelMarker.mark(vm);
+                parallelMarks++;
+            } else {
+                mark(false);
             }
+            heap.sweep();
         }
-        while (!workList.isEmpty()) {
-            SrObject obj = workList.pop();
-            if (obj.isMarked) continue;
-            obj.isMarked = true;
-            if (obj instanceof SrArray) {
-                for (SrValue el : ((SrArray) obj).elements) {
-                    if (el.type == SrValue.Type.OBJECT) workList.push(el.asObject());
+        telemetry.end();
+        recordSurvivors();
+    }
+
+    public void startMarking() {
+        telemetry.begin();
+        marking = true;
+        vm.scanRoots(shadeRoot);
+        telemetry.end();
+    }
+
+    public void markSlice() {
+        telemetry.begin();
+        markSlice(sliceBudget);
+        telemetry.end();
+        recordSurvivors();
+    }
+
+    private void recordSurvivors() {
+        if (allocationProfile != null) allocationProfile.afterCollections(heap);
+    }
+
+    private void markSlice(int budget) {
+        markSlices++;
+        int work = 0;
+        while (work < budget) {
+            if (scanArray != null) {
+                int end = (int) Math.min(scanArray.elements.length, (long) scanIndex + budget - work);
+                for (int i = scanIndex; i < end; i++) {
+                    shade(scanArray.elements[i]);
+                }
+                work += end - scanIndex;
+                scanIndex = end;
+                if (scanIndex == scanArray.elements.length) scanArray = null;
+                continue;
+            }
+            SrObject obj = greyObjects.poll();
+            if (obj == null) {
+                vm.scanRoots(shadeRoot);
+                if (greyObjects.isEmpty()) {
+                    marking = false;
+                    heap.sweep();
+                    return;
                 }
-            } else if (obj instanceof SrStruct) {
-                for (SrValue val : ((SrStruct) obj).fields.values()) {
-                    if (val.type == SrValue.Type.OBJECT) workList.push(val.asObject());
+                continue;
+            }
+            work++;
+            if (obj instanceof SrArray array) {
+                if (array.elements != null) scanArray = array;
+                scanIndex = 0;
+            } else if (obj instanceof SrStruct struct) {
+                for (SrValue val : struct.fields) {
+                    shade(val);
+                }
+                work += struct.fields.length;
+            }
+        }
+    }
+
+    public void shade(SrValue val) {
+        if (val == null || val.type != SrValue.Type.OBJECT || val.asObject() == null) return;
+        SrObject obj = val.asObject();
+        if (heap.mark(obj) && obj.mayContainRefs) {
+            greyObjects.push(obj);
+        }
+    }
+
+    private void mark(boolean youngOnly) {
+        vm.scanRoots(youngOnly ? markYoungRoot : markRoot);
+        if (youngOnly) {
+            for (SrObject holder : heap.getRememberedSet()) {
+                if (holder instanceof SrArray array && array.dirtyCards != null) {
+                    pushDirtyCards(array);
+                } else {
+                    pushChildren(holder, true);
                 }
             }
         }
+        while (!workList.isEmpty()) {
+            SrObject obj = workList.pop();
+            if (!heap.mark(obj)) continue;
+            pushChildren(obj, youngOnly);
+        }
+    }
+
+    private void pushDirtyCards(SrArray array) {
+        for (int card = array.dirtyCards.nextSetBit(0); card >= 0; card = array.dirtyCards.nextSetBit(card + 1)) {
+            int end = Math.min(array.elements.length, (card + 1) * Heap.CARD_SIZE);
+            for (int i = card * Heap.CARD_SIZE; i < end; i++) {
+                push(array.elements[i], true);
+            }
+        }
+    }
+
+    private void pushChildren(SrObject obj, boolean youngOnly) {
+        if (obj instanceof SrArray array) {
+            if (array.elements == null) return;
+            for (SrValue el : array.elements) {
+                push(el, youngOnly);
+            }
+        } else if (obj instanceof SrStruct) {
+            for (SrValue val : ((SrStruct) obj).fields) {
+                push(val, youngOnly);
+            }
+        }
+    }
+
+    private void push(SrValue val, boolean youngOnly) {
+        if (val == null || val.type != SrValue.Type.OBJECT || val.asObject() == null) return;
+        SrObject obj = val.asObject();
+        if (youngOnly && obj.isOld) return;
+        if (!obj.mayContainRefs) {
+            heap.mark(obj);
+            return;
+        }
+        workList.push(obj);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,251 @@
+package org.pakicek.runtime.gc;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+public class GcTelemetry implements GcTelemetryMXBean {
+    public static final String OBJECT_NAME = "org.pakicek:type=GarbageCollector";
+    public static final int HISTORY_SIZE = 256;
+
+    private static final long[] HISTOGRAM_BOUNDS_MICROS = { 10, 100, 1_000, 10_000, 100_000 };
+
+    private final Heap heap;
+    private final long startNanos = System.nanoTime();
+    private final long[] histogram = new long[HISTOGRAM_BOUNDS_MICROS.length + 1];
+    private final long[] liveHistory = new long[HISTORY_SIZE];
+    private final long[] liveTimestamps = new long[HISTORY_SIZE];
+    private PrintStream log;
+    private int depth = 0;
+    private long pauseStart;
+    private int objectsBefore;
+    private long bytesBefore;
+    private int minorBefore;
+    private int majorBefore;
+
+    private long minorCollections = 0;
+    private long majorCollections = 0;
+    private long pauseCount = 0;
+    private long totalPauseNanos = 0;
+    private long maxPauseNanos = 0;
+    private long objectsReclaimed = 0;
+    private long bytesReclaimed = 0;
+    private long liveObjects = 0;
+    private long liveBytes = 0;
+    private long peakLiveObjects = 0;
+    private long peakLiveBytes = 0;
+    private long heapObjects = 0;
+    private long heapBytes = 0;
+    private int historyCount = 0;
+
+    public GcTelemetry(Heap heap) {
+        this.heap = heap;
+    }
+
+    public void setLog(PrintStream log) {
+        this.log = log;
+    }
+
+    public void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) server.unregisterMBean(name);
+            server.registerMBean(this, name);
+        } catch (JMException e) {
+            throw new RuntimeException("GC Error: cannot register telemetry MXBean: " + e.getMessage());
+        }
+    }
+
+    void begin() {
+        if (depth++ > 0) return;
+        objectsBefore = heap.getObjectCount();
+        bytesBefore = heap.getHeapBytes();
+        minorBefore = heap.getMinorCollections();
+        majorBefore = heap.getMajorCollections();
+        pauseStart = System.nanoTime();
+    }
+
+    void end() {
+        if (--depth > 0) return;
+        long pause = System.nanoTime() - pauseStart;
+        int objects = heap.getObjectCount();
+        long bytes = heap.getHeapBytes();
+        boolean minor = heap.getMinorCollections() != minorBefore;
+        boolean major = heap.getMajorCollections() != majorBefore;
+        String kind = major ? "major" : minor ? "minor" : "mark-slice";
+
+        synchronized (this) {
+            pauseCount++;
+            totalPauseNanos += pause;
+            maxPauseNanos = Math.max(maxPauseNanos, pause);
+            histogram[bucket(pause / 1_000)]++;
+            if (minor) minorCollections++;
+            if (major) majorCollections++;
+            heapObjects = objects;
+            heapBytes = bytes;
+            if (minor || major) {
+                objectsReclaimed += objectsBefore - objects;
+                bytesReclaimed += bytesBefore - bytes;
+                liveObjects = objects;
+                liveBytes = bytes;
+                peakLiveObjects = Math.max(peakLiveObjects, objects);
+                peakLiveBytes = Math.max(peakLiveBytes, bytes);
+                int slot = historyCount++ % HISTORY_SIZE;
+                liveHistory[slot] = bytes;
+                liveTimestamps[slot] = (System.nanoTime() - startNanos) / 1_000_000;
+            }
+        }
+
+        if (log != null) {
+            StringBuilder line = new StringBuilder("[gc ").append(kind).append("] pause ").append(formatMillis(pause));
+            if (minor || major) {
+                line.append(", reclaimed ").append(objectsBefore - objects).append(" objects / ")
+                        .append(formatBytes(bytesBefore - bytes)).append(", live ").append(objects)
+                        .append(" objects / ").append(formatBytes(bytes));
+            }
+            log.println(line);
+        }
+    }
+
+    private static int bucket(long micros) {
+        for (int i = 0; i < HISTOGRAM_BOUNDS_MICROS.length; i++) {
+            if (micros < HISTOGRAM_BOUNDS_MICROS[i]) return i;
+        }
+        return HISTOGRAM_BOUNDS_MICROS.length;
+    }
+
+    public void sampleHeap() {
+        int objects = heap.getObjectCount();
+        long bytes = heap.getHeapBytes();
+        synchronized (this) {
+            heapObjects = objects;
+            heapBytes = bytes;
+        }
+    }
+
+    public synchronized String summary() {
+        if (heap.getMode() == Heap.Mode.HOST) {
+            return "[GC: host, allocated " + heap.getAllocatedObjects() + " objects / "
+                    + formatBytes(heap.getAllocatedBytes()) + "]";
+        }
+        sampleHeap();
+        return "[GC: " + getCollectionCount() + " collections (" + minorCollections + " minor, " + majorCollections
+                + " major), " + pauseCount + " pauses, total " + formatMillis(totalPauseNanos) + ", max "
+                + formatMillis(maxPauseNanos) + ", reclaimed " + objectsReclaimed + " objects / "
+                + formatBytes(bytesReclaimed) + ", peak live " + peakLiveObjects + " objects / "
+                + formatBytes(peakLiveBytes) + ", heap " + heapObjects + " objects / " + formatBytes(heapBytes) + "]";
+    }
+
+    private static String formatMillis(long nanos) {
+        return String.format("%.3fms", nanos / 1_000_000.0);
+    }
+
+    private static String formatBytes(long bytes) {
+        if (bytes < 1L << 10) return bytes + "B";
+        if (bytes < 1L << 20) return String.format("%.1fKB", bytes / 1024.0);
+        return String.format("%.1fMB", bytes / (1024.0 * 1024.0));
+    }
+
+    @Override
+    public synchronized long getCollectionCount() {
+        return minorCollections + majorCollections;
+    }
+
+    @Override
+    public synchronized long getMinorCollectionCount() {
+        return minorCollections;
+    }
+
+    @Override
+    public synchronized long getMajorCollectionCount() {
+        return majorCollections;
+    }
+
+    @Override
+    public synchronized long getPauseCount() {
+        return pauseCount;
+    }
+
+    @Override
+    public synchronized long getTotalPauseNanos() {
+        return totalPauseNanos;
+    }
+
+    @Override
+    public synchronized long getMaxPauseNanos() {
+        return maxPauseNanos;
+    }
+
+    @Override
+    public long[] getPauseHistogramBoundsMicros() {
+        return HISTOGRAM_BOUNDS_MICROS.clone();
+    }
+
+    @Override
+    public synchronized long[] getPauseHistogram() {
+        return histogram.clone();
+    }
+
+    @Override
+    public synchronized long getObjectsReclaimed() {
+        return objectsReclaimed;
+    }
+
+    @Override
+    public synchronized long getBytesReclaimed() {
+        return bytesReclaimed;
+    }
+
+    @Override
+    public synchronized long getLiveObjects() {
+        return liveObjects;
+    }
+
+    @Override
+    public synchronized long getLiveBytes() {
+        return liveBytes;
+    }
+
+    @Override
+    public synchronized long getPeakLiveObjects() {
+        return peakLiveObjects;
+    }
+
+    @Override
+    public synchronized long getPeakLiveBytes() {
+        return peakLiveBytes;
+    }
+
+    @Override
+    public synchronized long getHeapObjects() {
+        return heapObjects;
+    }
+
+    @Override
+    public synchronized long getHeapBytes() {
+        return heapBytes;
+    }
+
+    @Override
+    public synchronized long[] getLiveBytesHistory() {
+        return ordered(liveHistory);
+    }
+
+    @Override
+    public synchronized long[] getLiveBytesTimestamps() {
+        return ordered(liveTimestamps);
+    }
+
+    private long[] ordered(long[] ring) {
+        if (historyCount <= HISTORY_SIZE) return Arrays.copyOf(ring, historyCount);
+        int start = historyCount % HISTORY_SIZE;
+        long[] out = new long[HISTORY_SIZE];
+        System.arraycopy(ring, start, out, 0, HISTORY_SIZE - start);
+        System.arraycopy(ring, 0, out, HISTORY_SIZE - start, start);
+        return out;
+    }
+}
@@ -0,0 +1,39 @@
+package org.pakicek.runtime.gc;
+
+public interface GcTelemetryMXBean {
+    long getCollectionCount();
+
+    long getMinorCollectionCount();
+
+    long getMajorCollectionCount();
+
+    long getPauseCount();
+
+    long getTotalPauseNanos();
+
+    long getMaxPauseNanos();
+
+    long[] getPauseHistogramBoundsMicros();
+
+    long[] getPauseHistogram();
+
+    long getObjectsReclaimed();
+
+    long getBytesReclaimed();
+
+    long getLiveObjects();
+
+    long getLiveBytes();
+
+    long getPeakLiveObjects();
+
+    long getPeakLiveBytes();
+
+    long getHeapObjects();
+
+    long getHeapBytes();
+
+    long[] getLiveBytesHistory();
+
+    long[] getLiveBytesTimestamps();
+}
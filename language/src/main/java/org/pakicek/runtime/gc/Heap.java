@@ -2,30 +2,375 @@ package org.pakicek.runtime.gc;
 
 import org.pakicek.runtime.vm.*;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
 
 public class Heap {
-    private final List<SrObject> objects = new ArrayList<>();
-    private static final int GC_THRESHOLD = 1000;
-    private int allocationCount = 0;
+    public enum Mode { GENERATIONAL, MARK_SWEEP, INCREMENTAL, HOST }
+
+    public static final long DEFAULT_NURSERY_BYTES = 1L << 20;
+    public static final double DEFAULT_GROWTH_FACTOR = 2.0;
+    public static final long MIN_HEAP_BYTES = 4L << 20;
+    public static final int CARD_SIZE = 128;
+
+    private static final long OBJECT_HEADER_BYTES = 16;
+    private static final long REFERENCE_BYTES = 8;
+    private static final long VALUE_BYTES = 24;
+    private static final long STRUCT_BYTES = 64;
+    public static final long FIELD_BYTES = 64;
+
+    public static final int STRUCT_SPACE = 0;
+    public static final int LARGE_SPACE = 4;
+    private static final int[] ARRAY_SIZE_CLASSES = { 16, 256, 4096 };
+    private static final int LAZY_SWEEP_WORDS = 2;
+
+    private final OffHeapArena arena = new OffHeapArena();
+    private final Space[] spaces = new Space[LARGE_SPACE + 1];
+    private final List<SrObject> nursery = new ArrayList<>();
+    private final List<SrObject> rememberedSet = new ArrayList<>();
+    private Mode mode = Mode.MARK_SWEEP;
+    private long nurseryLimit = DEFAULT_NURSERY_BYTES;
+    private double growthFactor = DEFAULT_GROWTH_FACTOR;
+    private long maxHeapBytes = Long.MAX_VALUE;
+    private int offHeapThreshold = Integer.MAX_VALUE;
+    private boolean columnarStructs;
+    private long nurseryBytes = 0;
+    private long collectionThreshold = MIN_HEAP_BYTES;
+    private int minorCollections = 0;
+    private int majorCollections = 0;
+    private int sweepingSpace = LARGE_SPACE + 1;
+    private long allocatedObjects = 0;
+    private long allocatedBytes = 0;
+
+    public Heap() {
+        for (int i = 0; i < spaces.length; i++) {
+            spaces[i] = new Space(i, arena);
+        }
+    }
+
+    public void setMode(Mode mode) {
+        this.mode = mode;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public void setNurseryBytes(long bytes) {
+        this.nurseryLimit = bytes;
+    }
+
+    public void setGrowthFactor(double factor) {
+        this.growthFactor = factor;
+    }
+
+    public void setMaxHeapBytes(long bytes) {
+        this.maxHeapBytes = bytes;
+    }
+
+    public long getMaxHeapBytes() {
+        return maxHeapBytes;
+    }
+
+    public void setOffHeapThreshold(int length) {
+        this.offHeapThreshold = length;
+    }
+
+    public void setColumnarStructs(boolean enabled) {
+        this.columnarStructs = enabled;
+    }
+
+    private boolean isOffHeap(int length, SrArray.ElementType type) {
+        return mode != Mode.HOST && length >= offHeapThreshold && OffHeapElements.supports(type)
+                && OffHeapArena.fits(OffHeapElements.bytesFor(length, type));
+    }
+
+    public long allocationBytes(int length, SrArray.ElementType type) {
+        return isOffHeap(length, type) ? OBJECT_HEADER_BYTES + OffHeapElements.bytesFor(length, type) : arrayBytes(length, type);
+    }
+
+    public SrArray newArray(int length) {
+        return newArray(length, SrArray.ElementType.ANY);
+    }
+
+    public SrArray newArray(int length, SrArray.ElementType type) {
+        if (!isOffHeap(length, type)) return new SrArray(length, type);
+        return new SrArray(new OffHeapElements(arena.allocate(OffHeapElements.bytesFor(length, type)), length, type));
+    }
+
+    public SrArray newStructArray(int length, StructShape shape) {
+        if (!columnarStructs || !StructColumns.supports(shape)) return newArray(length);
+        return SrArray.columnar(length, shape);
+    }
+
+    public long structArrayBytes(int length, StructShape shape) {
+        if (!columnarStructs || !StructColumns.supports(shape)) return allocationBytes(length, SrArray.ElementType.ANY);
+        return columnarBytes(length, shape);
+    }
+
+    public void generalize(SrArray array) {
+        OffHeapElements offHeap = array.offHeap;
+        array.generalize();
+        if (offHeap != null) arena.release(offHeap.buffer());
+        if (array.heapSpace < 0) return;
+        long delta = arrayBytes(array.getSize()) - spaces[array.heapSpace].bytesAt(array.heapSlot);
+        spaces[array.heapSpace].addBytes(array.heapSlot, delta);
+        if (!array.isOld) {
+            nurseryBytes += delta;
+        }
+    }
+
+    public static long arrayBytes(int length) {
+        return OBJECT_HEADER_BYTES + length * (REFERENCE_BYTES + VALUE_BYTES);
+    }
+
+    public static long arrayBytes(int length, SrArray.ElementType type) {
+        return switch (type) {
+            case INT, FLOAT -> OBJECT_HEADER_BYTES + (long) length * Long.BYTES;
+            case BOOL -> OBJECT_HEADER_BYTES + (long) ((length + 63) >>> 6) * Long.BYTES;
+            default -> arrayBytes(length);
+        };
+    }
+
+    public void generalize(SrStruct struct) {
+        struct.generalize();
+        if (struct.heapSpace < 0) return;
+        long delta = structBytes(struct.getSize()) - spaces[struct.heapSpace].bytesAt(struct.heapSlot);
+        spaces[struct.heapSpace].addBytes(struct.heapSlot, delta);
+        if (!struct.isOld) {
+            nurseryBytes += delta;
+        }
+    }
+
+    public static long structBytes(int fieldCount) {
+        return structBytes(fieldCount, 0);
+    }
+
+    public static long structBytes(int referenceFields, int primitiveFields) {
+        return STRUCT_BYTES + referenceFields * FIELD_BYTES + (long) primitiveFields * Long.BYTES;
+    }
+
+    public static long columnarBytes(int length, StructShape shape) {
+        return OBJECT_HEADER_BYTES + (long) length * (REFERENCE_BYTES + shape.primitiveFields() * Long.BYTES);
+    }
+
+    public static long structBytes(StructShape shape) {
+        return structBytes(shape.referenceFields(), shape.primitiveFields());
+    }
+
+    public static long estimateBytes(SrObject obj) {
+        if (obj instanceof SrArray array) {
+            if (array.offHeap != null) return OBJECT_HEADER_BYTES + OffHeapElements.bytesFor(array.offHeap.length(), array.offHeap.type());
+            if (array.columns != null) return columnarBytes(array.getSize(), array.columns.shape);
+            return arrayBytes(array.getSize(), array.elementType);
+        }
+        SrStruct struct = (SrStruct) obj;
+        if (struct.isView()) return STRUCT_BYTES;
+        return struct.isBoxed() ? structBytes(struct.getSize()) : structBytes(struct.shape);
+    }
+
+    public static int spaceFor(SrObject obj) {
+        if (!(obj instanceof SrArray array)) return STRUCT_SPACE;
+        for (int i = 0; i < ARRAY_SIZE_CLASSES.length; i++) {
+            if (array.getSize() <= ARRAY_SIZE_CLASSES[i]) return STRUCT_SPACE + 1 + i;
+        }
+        return LARGE_SPACE;
+    }
 
     public void register(SrObject obj) {
-        objects.add(obj);
-        allocationCount++;
+        register(obj, false);
     }
 
-    public boolean shouldCollect() {
-        return allocationCount >= GC_THRESHOLD;
+    public void register(SrObject obj, boolean black) {
+        long bytes = estimateBytes(obj);
+        allocatedObjects++;
+        allocatedBytes += bytes;
+        if (mode == Mode.HOST) {
+            obj.isOld = true;
+            return;
+        }
+        if (sweepingSpace < spaces.length) sweepLazily();
+        spaces[spaceFor(obj)].allocate(obj, bytes, black);
+        if (mode != Mode.GENERATIONAL) {
+            obj.isOld = true;
+        } else {
+            nursery.add(obj);
+            nurseryBytes += bytes;
+        }
     }
 
-    public void sweep() {
-        objects.removeIf(obj -> {
-            if (!obj.isMarked) {
-                return true;
+    public boolean isLive(SrObject obj) {
+        return obj.heapSpace >= 0 && spaces[obj.heapSpace].objectAt(obj.heapSlot) == obj
+                && spaces[obj.heapSpace].isAllocated(obj.heapSlot);
+    }
+
+    public boolean isMarked(SrObject obj) {
+        return spaces[obj.heapSpace].isMarked(obj.heapSlot);
+    }
+
+    public boolean mark(SrObject obj) {
+        if (!isLive(obj)) return false;
+        return spaces[obj.heapSpace].mark(obj.heapSlot);
+    }
+
+    public boolean tryMark(SrObject obj) {
+        if (!isLive(obj)) return false;
+        return spaces[obj.heapSpace].tryMark(obj.heapSlot);
+    }
+
+    public void writeBarrier(SrObject holder, SrValue val) {
+        if (holder.isOld && isYoung(val)) {
+            remember(holder);
+        }
+    }
+
+    public void arrayWriteBarrier(SrArray array, int index, SrValue val) {
+        if (array.isOld && isYoung(val)) {
+            if (array.dirtyCards == null) array.dirtyCards = new BitSet();
+            array.dirtyCards.set(index / CARD_SIZE);
+            remember(array);
+        }
+    }
+
+    private static boolean isYoung(SrValue val) {
+        return val.type == SrValue.Type.OBJECT && val.asObject() != null && !val.asObject().isOld;
+    }
+
+    private void remember(SrObject holder) {
+        if (!holder.isRemembered) {
+            holder.isRemembered = true;
+            rememberedSet.add(holder);
+        }
+    }
+
+    public boolean shouldCollect(long bytes) {
+        if (mode == Mode.HOST) return false;
+        if (mode != Mode.GENERATIONAL) {
+            return getHeapBytes() + bytes > collectionThreshold;
+        }
+        return nurseryBytes > 0 && nurseryBytes + bytes > nurseryLimit;
+    }
+
+    public boolean needsMajorCollection() {
+        return mode != Mode.GENERATIONAL || getHeapBytes() - nurseryBytes >= collectionThreshold;
+    }
+
+    public boolean exceedsMaxHeap(long bytes) {
+        return mode != Mode.HOST && getHeapBytes() + bytes > maxHeapBytes;
+    }
+
+    public List<SrObject> getRememberedSet() {
+        return rememberedSet;
+    }
+
+    public void sweepNursery() {
+        for (SrObject obj : nursery) {
+            Space space = spaces[obj.heapSpace];
+            if (space.isMarked(obj.heapSlot)) {
+                space.unmark(obj.heapSlot);
+                obj.isOld = true;
+            } else {
+                space.free(obj.heapSlot);
             }
-            obj.isMarked = false;
-            return false;
-        });
-        allocationCount = 0;
+        }
+        clearNursery();
+        minorCollections++;
+    }
+
+    public void sweep() {
+        for (SrObject obj : nursery) {
+            if (isMarked(obj)) obj.isOld = true;
+        }
+        clearNursery();
+        for (Space space : spaces) {
+            space.sweep(offHeapThreshold != Integer.MAX_VALUE);
+        }
+        spaces[LARGE_SPACE].finishSweep();
+        sweepingSpace = 0;
+        collectionThreshold = Math.max(MIN_HEAP_BYTES, (long) (getHeapBytes() * growthFactor));
+        majorCollections++;
+    }
+
+    private void sweepLazily() {
+        while (sweepingSpace < spaces.length) {
+            if (spaces[sweepingSpace].sweepLazily(LAZY_SWEEP_WORDS)) return;
+            sweepingSpace++;
+        }
+    }
+
+    public void finishSweep() {
+        for (Space space : spaces) {
+            space.finishSweep();
+        }
+        sweepingSpace = spaces.length;
+    }
+
+    public boolean isSweeping() {
+        for (Space space : spaces) {
+            if (space.isSweeping()) return true;
+        }
+        return false;
+    }
+
+    private void clearNursery() {
+        nursery.clear();
+        nurseryBytes = 0;
+        for (SrObject holder : rememberedSet) {
+            holder.isRemembered = false;
+            if (holder instanceof SrArray array) array.dirtyCards = null;
+        }
+        rememberedSet.clear();
+    }
+
+    public int getNurserySize() {
+        return nursery.size();
+    }
+
+    public int getOldSize() {
+        return getObjectCount() - nursery.size();
+    }
+
+    public int getObjectCount() {
+        int count = 0;
+        for (Space space : spaces) count += space.count();
+        return count;
+    }
+
+    public int getSpaceCount(int space) {
+        return spaces[space].count();
+    }
+
+    public long getHeapBytes() {
+        long bytes = 0;
+        for (Space space : spaces) bytes += space.bytes();
+        return bytes;
+    }
+
+    public long getOffHeapBytes() {
+        return arena.usedBytes();
+    }
+
+    public long getPooledOffHeapBytes() {
+        return arena.pooledBytes();
+    }
+
+    public long getCollectionThreshold() {
+        return collectionThreshold;
+    }
+
+    public long getAllocatedObjects() {
+        return allocatedObjects;
+    }
+
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    public int getMinorCollections() {
+        return minorCollections;
+    }
+
+    public int getMajorCollections() {
+        return majorCollections;
     }
-}
\ No newline at end of file
+}
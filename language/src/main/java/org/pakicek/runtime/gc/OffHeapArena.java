@@ -0,0 +1,57 @@
+package org.pakicek.runtime.gc;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+class OffHeapArena {
+    static final int PAGE_BYTES = 64 << 10;
+    static final long MAX_POOLED_BYTES = 64L << 20;
+
+    private final Map<Integer, ArrayDeque<ByteBuffer>> pool = new HashMap<>();
+    private long usedBytes = 0;
+    private long pooledBytes = 0;
+
+    static boolean fits(long bytes) {
+        return bytes <= Integer.MAX_VALUE - PAGE_BYTES;
+    }
+
+    ByteBuffer allocate(long bytes) {
+        int capacity = (int) ((bytes + PAGE_BYTES - 1) / PAGE_BYTES * PAGE_BYTES);
+        ArrayDeque<ByteBuffer> free = pool.get(capacity);
+        ByteBuffer buffer = free != null ? free.poll() : null;
+        if (buffer != null) {
+            pooledBytes -= capacity;
+            clear(buffer);
+        } else {
+            buffer = ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+        }
+        usedBytes += capacity;
+        return buffer;
+    }
+
+    void release(ByteBuffer buffer) {
+        int capacity = buffer.capacity();
+        usedBytes -= capacity;
+        if (pooledBytes + capacity > MAX_POOLED_BYTES) return;
+        pool.computeIfAbsent(capacity, c -> new ArrayDeque<>()).push(buffer);
+        pooledBytes += capacity;
+    }
+
+    private static void clear(ByteBuffer buffer) {
+        int capacity = buffer.capacity();
+        for (int i = 0; i < capacity; i += Long.BYTES) {
+            buffer.putLong(i, 0L);
+        }
+    }
+
+    long usedBytes() {
+        return usedBytes;
+    }
+
+    long pooledBytes() {
+        return pooledBytes;
+    }
+}
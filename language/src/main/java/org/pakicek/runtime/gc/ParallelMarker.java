@@ -0,0 +1,106 @@
+package org.pakicek.runtime.gc;
+
+import org.pakicek.runtime.VirtualMachine;
+import org.pakicek.runtime.vm.*;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+class ParallelMarker {
+    static final int CHUNK_SIZE = 4096;
+    static final int SPLIT_THRESHOLD = 256;
+
+    private final ForkJoinPool pool;
+    private final Heap heap;
+
+    ParallelMarker(ForkJoinPool pool, Heap heap) {
+        this.pool = pool;
+        this.heap = heap;
+    }
+
+    void mark(VirtualMachine vm) {
+        List<SrObject> start = new ArrayList<>();
+        vm.scanRoots(val -> {
+            SrObject obj = objectOf(val);
+            if (obj != null && heap.tryMark(obj) && obj.mayContainRefs) start.add(obj);
+        });
+        pool.invoke(new MarkTask(start, null, 0, 0));
+    }
+
+    private static SrObject objectOf(SrValue val) {
+        if (val == null || val.type != SrValue.Type.OBJECT) return null;
+        return val.asObject();
+    }
+
+    @SuppressWarnings("serial")
+    private final class MarkTask extends RecursiveAction {
+        private final List<SrObject> batch;
+        private final SrArray array;
+        private final int from;
+        private final int to;
+        private final List<MarkTask> forked = new ArrayList<>();
+        private final Deque<SrObject> local = new ArrayDeque<>();
+
+        MarkTask(List<SrObject> batch, SrArray array, int from, int to) {
+            this.batch = batch;
+            this.array = array;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (array != null) {
+                scanRange(array, from, to);
+            } else {
+                local.addAll(batch);
+            }
+            while (!local.isEmpty()) {
+                SrObject obj = local.pop();
+                if (obj instanceof SrArray arr) {
+                    if (arr.elements == null) continue;
+                    if (arr.elements.length > CHUNK_SIZE) {
+                        for (int start = CHUNK_SIZE; start < arr.elements.length; start += CHUNK_SIZE) {
+                            fork(new MarkTask(null, arr, start, Math.min(arr.elements.length, start + CHUNK_SIZE)));
+                        }
+                        scanRange(arr, 0, CHUNK_SIZE);
+                    } else {
+                        scanRange(arr, 0, arr.elements.length);
+                    }
+                } else if (obj instanceof SrStruct struct) {
+                    for (SrValue val : struct.fields) {
+                        visit(val);
+                    }
+                }
+                if (local.size() > SPLIT_THRESHOLD) {
+                    List<SrObject> half = new ArrayList<>();
+                    for (int i = local.size() / 2; i > 0; i--) half.add(local.pollLast());
+                    fork(new MarkTask(half, null, 0, 0));
+                }
+            }
+            for (MarkTask task : forked) {
+                task.join();
+            }
+        }
+
+        private void scanRange(SrArray arr, int start, int end) {
+            for (int i = start; i < end; i++) {
+                visit(arr.elements[i]);
+            }
+        }
+
+        private void visit(SrValue val) {
+            SrObject child = objectOf(val);
+            if (child != null && heap.tryMark(child) && child.mayContainRefs) local.push(child);
+        }
+
+        private void fork(MarkTask task) {
+            task.fork();
+            forked.add(task);
+        }
+    }
+}
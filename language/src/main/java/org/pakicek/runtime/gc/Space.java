@@ -0,0 +1,198 @@
+package org.pakicek.runtime.gc;
+
+import org.pakicek.runtime.vm.SrArray;
+import org.pakicek.runtime.vm.SrObject;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+
+class Space {
+    private static final VarHandle WORDS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    final int id;
+    private final OffHeapArena arena;
+    private SrObject[] slots = new SrObject[64];
+    private long[] slotBytes = new long[64];
+    private final long[][] bitmaps = { new long[1], new long[1] };
+    private int epoch = 0;
+    private long[] pending;
+    private long[] spare;
+    private int sweepCursor = 0;
+    private int top = 0;
+    private int[] freeSlots = new int[16];
+    private int freeCount = 0;
+    private int count = 0;
+    private long bytes = 0;
+
+    Space(int id, OffHeapArena arena) {
+        this.id = id;
+        this.arena = arena;
+    }
+
+    private long[] markBits() {
+        return bitmaps[epoch & 1];
+    }
+
+    private long[] liveBits() {
+        return bitmaps[(epoch + 1) & 1];
+    }
+
+    void allocate(SrObject obj, long size, boolean black) {
+        while (freeCount == 0 && pending != null) sweepLazily(1);
+        int slot = freeCount > 0 ? freeSlots[--freeCount] : top++;
+        ensureCapacity(slot + 1);
+        slots[slot] = obj;
+        slotBytes[slot] = size;
+        count++;
+        bytes += size;
+        obj.heapSpace = id;
+        obj.heapSlot = slot;
+        liveBits()[slot >>> 6] |= 1L << slot;
+        if (black) markBits()[slot >>> 6] |= 1L << slot;
+    }
+
+    private void ensureCapacity(int size) {
+        if (size > slots.length) {
+            int capacity = Math.max(size, slots.length * 2);
+            slots = Arrays.copyOf(slots, capacity);
+            slotBytes = Arrays.copyOf(slotBytes, capacity);
+        }
+        int words = (size + 63) >>> 6;
+        if (words > bitmaps[0].length) {
+            int capacity = Math.max(words, bitmaps[0].length * 2);
+            bitmaps[0] = Arrays.copyOf(bitmaps[0], capacity);
+            bitmaps[1] = Arrays.copyOf(bitmaps[1], capacity);
+        }
+    }
+
+    boolean isAllocated(int slot) {
+        return (liveBits()[slot >>> 6] & (1L << slot)) != 0;
+    }
+
+    boolean isMarked(int slot) {
+        return (markBits()[slot >>> 6] & (1L << slot)) != 0;
+    }
+
+    boolean mark(int slot) {
+        long[] marks = markBits();
+        long bit = 1L << slot;
+        if ((marks[slot >>> 6] & bit) != 0) return false;
+        marks[slot >>> 6] |= bit;
+        return true;
+    }
+
+    boolean tryMark(int slot) {
+        long[] marks = markBits();
+        long bit = 1L << slot;
+        while (true) {
+            long word = (long) WORDS.getVolatile(marks, slot >>> 6);
+            if ((word & bit) != 0) return false;
+            if (WORDS.compareAndSet(marks, slot >>> 6, word, word | bit)) return true;
+        }
+    }
+
+    void unmark(int slot) {
+        markBits()[slot >>> 6] &= ~(1L << slot);
+    }
+
+    void addBytes(int slot, long delta) {
+        slotBytes[slot] += delta;
+        bytes += delta;
+    }
+
+    SrObject objectAt(int slot) {
+        return slot < slots.length ? slots[slot] : null;
+    }
+
+    long bytesAt(int slot) {
+        return slotBytes[slot];
+    }
+
+    void free(int slot) {
+        liveBits()[slot >>> 6] &= ~(1L << slot);
+        markBits()[slot >>> 6] &= ~(1L << slot);
+        bytes -= slotBytes[slot];
+        count--;
+        release(slot);
+    }
+
+    private void release(int slot) {
+        releaseOffHeap(slot);
+        slots[slot] = null;
+        slotBytes[slot] = 0;
+        if (freeCount == freeSlots.length) freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+        freeSlots[freeCount++] = slot;
+    }
+
+    private void releaseOffHeap(int slot) {
+        if (slots[slot] instanceof SrArray array && array.offHeap != null) {
+            arena.release(array.offHeap.buffer());
+            array.offHeap = null;
+        }
+    }
+
+    void sweep(boolean offHeap) {
+        finishSweep();
+        long[] live = liveBits();
+        long[] marks = markBits();
+        count = 0;
+        bytes = 0;
+        for (int w = 0; w < live.length; w++) {
+            long word = marks[w];
+            live[w] &= ~word;
+            count += Long.bitCount(word);
+            while (word != 0) {
+                bytes += slotBytes[(w << 6) + Long.numberOfTrailingZeros(word)];
+                word &= word - 1;
+            }
+        }
+        if (offHeap) {
+            for (int w = 0; w < live.length; w++) {
+                long dead = live[w];
+                while (dead != 0) {
+                    releaseOffHeap((w << 6) + Long.numberOfTrailingZeros(dead));
+                    dead &= dead - 1;
+                }
+            }
+        }
+        pending = live;
+        sweepCursor = 0;
+        bitmaps[(epoch + 1) & 1] = spare != null && spare.length == live.length ? spare : new long[live.length];
+        spare = null;
+        epoch++;
+    }
+
+    boolean sweepLazily(int words) {
+        if (pending == null) return false;
+        int end = Math.min(pending.length, sweepCursor + words);
+        for (; sweepCursor < end; sweepCursor++) {
+            long dead = pending[sweepCursor];
+            while (dead != 0) {
+                release((sweepCursor << 6) + Long.numberOfTrailingZeros(dead));
+                dead &= dead - 1;
+            }
+            pending[sweepCursor] = 0;
+        }
+        if (sweepCursor < pending.length) return true;
+        spare = pending;
+        pending = null;
+        return false;
+    }
+
+    boolean isSweeping() {
+        return pending != null;
+    }
+
+    void finishSweep() {
+        if (pending != null) sweepLazily(pending.length);
+    }
+
+    int count() {
+        return count;
+    }
+
+    long bytes() {
+        return bytes;
+    }
+}
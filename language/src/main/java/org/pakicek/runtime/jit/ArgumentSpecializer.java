@@ -0,0 +1,101 @@
+package org.pakicek.runtime.jit;
+
+import org.pakicek.runtime.bytecode.Chunk;
+import org.pakicek.runtime.profile.Profile;
+import org.pakicek.runtime.vm.SrValue;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class ArgumentSpecializer {
+    static final int OBSERVED_CALLS = 10;
+    static final int MAX_GUARD_FAILURES = 10;
+
+    private final JitOptimizer jit;
+    private final Map<Chunk, Map<Integer, CallSite>> sites = new IdentityHashMap<>();
+
+    private static class CallSite {
+        final Chunk generic;
+        final SrValue[] observed;
+        final boolean[] stable;
+        int observations;
+        Map<Integer, SrValue> guard;
+        Chunk specialized;
+        int failures;
+        boolean disabled;
+
+        CallSite(Chunk generic, int argCount) {
+            this.generic = generic;
+            this.observed = new SrValue[argCount];
+            this.stable = new boolean[argCount];
+        }
+    }
+
+    public ArgumentSpecializer(JitOptimizer jit) {
+        this.jit = jit;
+    }
+
+    public Chunk select(Chunk caller, int callIp, Chunk generic, List<SrValue> stack, int argCount,
+                        Profile.FunctionProfile profile) {
+        if (generic == null || argCount == 0) return null;
+        CallSite site = sites.computeIfAbsent(caller, k -> new HashMap<>())
+                .computeIfAbsent(callIp, k -> new CallSite(generic, argCount));
+        if (site.disabled || site.generic != generic || site.observed.length != argCount) return null;
+        int base = stack.size() - argCount;
+
+        if (site.specialized != null) {
+            for (Map.Entry<Integer, SrValue> entry : site.guard.entrySet()) {
+                if (!sameConstant(entry.getValue(), stack.get(base + entry.getKey()))) {
+                    if (++site.failures > MAX_GUARD_FAILURES) {
+                        site.specialized = null;
+                        site.disabled = true;
+                    }
+                    return null;
+                }
+            }
+            return site.specialized;
+        }
+
+        for (int i = 0; i < argCount; i++) {
+            SrValue arg = stack.get(base + i);
+            if (site.observations == 0) {
+                site.observed[i] = arg;
+                site.stable[i] = isConstantType(arg);
+            } else if (site.stable[i] && !sameConstant(site.observed[i], arg)) {
+                site.stable[i] = false;
+            }
+        }
+        if (++site.observations < OBSERVED_CALLS) return null;
+
+        Map<Integer, SrValue> guard = new HashMap<>();
+        for (int i = 0; i < argCount; i++) {
+            if (site.stable[i]) guard.put(i, site.observed[i]);
+        }
+        Chunk specialized = guard.isEmpty() ? null : jit.specialize(generic, guard, profile);
+        if (specialized == null) {
+            site.disabled = true;
+            return null;
+        }
+        site.guard = guard;
+        site.specialized = specialized;
+        return specialized;
+    }
+
+    private static boolean isConstantType(SrValue value) {
+        return value.type == SrValue.Type.INT || value.type == SrValue.Type.FLOAT
+                || value.type == SrValue.Type.BOOL || value.type == SrValue.Type.STRING;
+    }
+
+    static boolean sameConstant(SrValue a, SrValue b) {
+        if (a.type != b.type) return false;
+        return switch (a.type) {
+            case INT -> a.isSmallInt() && b.isSmallInt() ? a.asLong() == b.asLong() : a.asInt().equals(b.asInt());
+            case FLOAT -> Double.doubleToLongBits(a.asFloat()) == Double.doubleToLongBits(b.asFloat());
+            case BOOL -> a.asBool() == b.asBool();
+            case STRING -> a.asString().equals(b.asString());
+            default -> false;
+        };
+    }
+}
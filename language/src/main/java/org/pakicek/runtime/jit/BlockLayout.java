@@ -0,0 +1,91 @@
+package org.pakicek.runtime.jit;
+
+import org.pakicek.runtime.bytecode.Chunk;
+import org.pakicek.runtime.bytecode.OpCode;
+import org.pakicek.runtime.profile.Profile;
+
+import java.util.*;
+
+import static org.pakicek.runtime.jit.ChunkRewriter.*;
+
+class BlockLayout {
+    static final double COLD_TAKEN_RATIO = 0.9;
+    static final long MIN_BRANCH_SAMPLES = 16;
+
+    private final Map<Integer, Long> averageTrips = new HashMap<>();
+
+    Map<Integer, Long> averageTrips() {
+        return averageTrips;
+    }
+
+    Chunk apply(Chunk original, Profile.FunctionProfile profile) {
+        List<Byte> code = original.code;
+        TreeMap<Integer, Integer> coldRegions = findColdRegions(code, profile);
+
+        ChunkRewriter rewriter = new ChunkRewriter(original);
+        int ip = 0;
+        int last = -1;
+        while (ip < code.size()) {
+            Integer end = coldRegions.get(ip + 3);
+            if (end != null && opAt(code, ip) == OpCode.JMP_FALSE) {
+                rewriter.map(ip);
+                rewriter.emitJumpToSource(OpCode.JMP_TRUE, ip + 3, rewriter.lineAt(ip));
+                last = ip;
+                ip = end;
+                continue;
+            }
+            rewriter.copy(ip);
+            last = ip;
+            ip += length(code, ip);
+        }
+        if (!coldRegions.isEmpty() && last != -1 && fallsThrough(opAt(code, last))) {
+            rewriter.emitJumpToSource(OpCode.JMP, code.size(), rewriter.lineAt(last));
+        }
+        for (Map.Entry<Integer, Integer> region : coldRegions.entrySet()) {
+            int regionLast = -1;
+            for (int regionIp = region.getKey(); regionIp < region.getValue(); regionIp += length(code, regionIp)) {
+                rewriter.copy(regionIp);
+                regionLast = regionIp;
+            }
+            if (fallsThrough(opAt(code, regionLast))) {
+                rewriter.emitJumpToSource(OpCode.JMP, region.getValue(), rewriter.lineAt(regionLast));
+            }
+        }
+        Chunk result = rewriter.finish();
+        collectTrips(code, profile, rewriter);
+        return result;
+    }
+
+    private TreeMap<Integer, Integer> findColdRegions(List<Byte> code, Profile.FunctionProfile profile) {
+        TreeMap<Integer, Integer> regions = new TreeMap<>();
+        int coveredUntil = -1;
+        for (int ip = 0; ip < code.size(); ip += length(code, ip)) {
+            if (ip < coveredUntil || opAt(code, ip) != OpCode.JMP_FALSE) continue;
+            int target = jumpTarget(code, ip);
+            if (target <= ip + 3 || target > code.size()) continue;
+            if (profile.branchSamples(ip) < MIN_BRANCH_SAMPLES || profile.takenRatio(ip) < COLD_TAKEN_RATIO) continue;
+            regions.put(ip + 3, target);
+            coveredUntil = target;
+        }
+        return regions;
+    }
+
+    private void collectTrips(List<Byte> code, Profile.FunctionProfile profile, ChunkRewriter rewriter) {
+        for (int ip = 0; ip < code.size(); ip += length(code, ip)) {
+            if (opAt(code, ip) != OpCode.JMP || jumpTarget(code, ip) > ip) continue;
+            long iterations = profile.loopIterations(ip);
+            if (iterations == 0) continue;
+            long exits = 0;
+            for (int exit = 0; exit < code.size(); exit += length(code, exit)) {
+                if (opAt(code, exit) == OpCode.JMP_FALSE && jumpTarget(code, exit) == ip + 3) {
+                    exits += profile.branchTaken(exit);
+                }
+            }
+            averageTrips.put(rewriter.resolve(ip), iterations / Math.max(1, exits));
+        }
+    }
+
+    private static boolean fallsThrough(OpCode op) {
+        return op != OpCode.JMP && op != OpCode.RETURN && op != OpCode.HALT;
+    }
+}
@@ -0,0 +1,169 @@
+package org.pakicek.runtime.jit;
+
+import org.pakicek.runtime.bytecode.Chunk;
+import org.pakicek.runtime.bytecode.OpCode;
+import org.pakicek.runtime.vm.SrValue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+class ChunkRewriter {
+    private final Chunk source;
+    private final Chunk target = new Chunk();
+    private final int[] addressMap;
+    private final List<int[]> pendingJumps = new ArrayList<>();
+
+    ChunkRewriter(Chunk source) {
+        this.source = source;
+        this.target.constants.addAll(source.constants);
+        this.addressMap = new int[source.code.size() + 1];
+        Arrays.fill(addressMap, -1);
+    }
+
+    Chunk target() {
+        return target;
+    }
+
+    int position() {
+        return target.code.size();
+    }
+
+    void map(int sourceIp) {
+        addressMap[sourceIp] = position();
+    }
+
+    void copy(int ip) {
+        map(ip);
+        OpCode op = opAt(source.code, ip);
+        int line = lineAt(ip);
+        if (isJump(op)) {
+            emitJumpToSource(op, jumpTarget(source.code, ip), line);
+            return;
+        }
+        copyRaw(ip, ip + 1 + op.operandBytes());
+    }
+
+    void copyRaw(int from, int to) {
+        for (int i = from; i < to; i++) {
+            target.code.add(source.code.get(i));
+            target.lines.add(lineAt(i));
+        }
+    }
+
+    void emit(OpCode op, int line) {
+        target.emit(op, line);
+    }
+
+    void emitByte(int b, int line) {
+        target.emitByte(b, line);
+    }
+
+    void emitJumpToSource(OpCode op, int sourceTarget, int line) {
+        target.emit(op, line);
+        pendingJumps.add(new int[]{target.code.size(), sourceTarget});
+        target.emitByte(0xff, line);
+        target.emitByte(0xff, line);
+    }
+
+    int emitJump(OpCode op, int line) {
+        target.emit(op, line);
+        target.emitByte(0xff, line);
+        target.emitByte(0xff, line);
+        return target.code.size() - 2;
+    }
+
+    void patchJump(int offsetIndex) {
+        writeOffset(offsetIndex, position() - (offsetIndex + 2));
+    }
+
+    void emitLoop(int loopStart, int line) {
+        target.emit(OpCode.JMP, line);
+        int offset = loopStart - (target.code.size() + 2);
+        target.emitByte((offset >> 8) & 0xFF, line);
+        target.emitByte(offset & 0xFF, line);
+    }
+
+    int constant(SrValue value) {
+        for (int i = 0; i < target.constants.size(); i++) {
+            SrValue existing = target.constants.get(i);
+            if (existing.type == value.type && Objects.equals(existing.asString(), value.asString())) {
+                return i;
+            }
+        }
+        if (target.constants.size() > 0xFF) return -1;
+        return target.addConstant(value);
+    }
+
+    boolean hasConstantRoom(int count) {
+        return target.constants.size() + count <= 0x100;
+    }
+
+    Chunk finish() {
+        if (addressMap[source.code.size()] == -1) {
+            addressMap[source.code.size()] = position();
+        }
+        for (int[] jump : pendingJumps) {
+            int offsetIndex = jump[0];
+            int newTarget = resolve(jump[1]);
+            writeOffset(offsetIndex, newTarget - (offsetIndex + 2));
+        }
+        return target;
+    }
+
+    int resolve(int sourceIp) {
+        for (int ip = sourceIp; ip < addressMap.length; ip++) {
+            if (addressMap[ip] != -1) return addressMap[ip];
+        }
+        return position();
+    }
+
+    private void writeOffset(int offsetIndex, int offset) {
+        if (offset > Short.MAX_VALUE || offset < Short.MIN_VALUE) {
+            throw new IllegalStateException("Jump too large after rewrite");
+        }
+        target.code.set(offsetIndex, (byte) ((offset >> 8) & 0xFF));
+        target.code.set(offsetIndex + 1, (byte) (offset & 0xFF));
+    }
+
+    int lineAt(int ip) {
+        return ip < source.lines.size() ? source.lines.get(ip) : 0;
+    }
+
+    static OpCode opAt(List<Byte> code, int ip) {
+        int opIndex = code.get(ip) & 0xFF;
+        if (opIndex >= OpCode.values().length) {
+            throw new RuntimeException("Invalid OpCode " + opIndex + " at index " + ip);
+        }
+        return OpCode.values()[opIndex];
+    }
+
+    static int operand(List<Byte> code, int ip) {
+        return code.get(ip + 1) & 0xFF;
+    }
+
+    static int length(List<Byte> code, int ip) {
+        return 1 + opAt(code, ip).operandBytes();
+    }
+
+    static boolean isJump(OpCode op) {
+        return op == OpCode.JMP || op == OpCode.JMP_FALSE || op == OpCode.JMP_TRUE;
+    }
+
+    static int jumpTarget(List<Byte> code, int ip) {
+        int b1 = code.get(ip + 1) & 0xFF;
+        int b2 = code.get(ip + 2) & 0xFF;
+        short offset = (short) ((b1 << 8) | b2);
+        return ip + 3 + offset;
+    }
+
+    static boolean[] instructionStarts(List<Byte> code) {
+        boolean[] starts = new boolean[code.size() + 1];
+        for (int ip = 0; ip < code.size(); ip += length(code, ip)) {
+            starts[ip] = true;
+        }
+        starts[code.size()] = true;
+        return starts;
+    }
+}
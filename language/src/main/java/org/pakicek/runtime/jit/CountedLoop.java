@@ -0,0 +1,213 @@
+package org.pakicek.runtime.jit;
+
+import org.pakicek.runtime.bytecode.Chunk;
+import org.pakicek.runtime.bytecode.OpCode;
+import org.pakicek.runtime.vm.SrValue;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.pakicek.runtime.jit.ChunkRewriter.*;
+
+class CountedLoop {
+    static final int UPDATE_LENGTH = 9;
+
+    final int header;
+    final int boundStart;
+    final int boundEnd;
+    final OpCode comparison;
+    final int bodyStart;
+    final int updateStart;
+    final int backJump;
+    final int exit;
+    final int slot;
+    final BigInteger step;
+    BigInteger initValue;
+    int initStart = -1;
+    BigInteger boundValue;
+    boolean boundIsInt;
+    boolean innermost = true;
+
+    private CountedLoop(int header, int boundStart, int boundEnd, OpCode comparison, int bodyStart,
+                        int backJump, int slot, BigInteger step) {
+        this.header = header;
+        this.boundStart = boundStart;
+        this.boundEnd = boundEnd;
+        this.comparison = comparison;
+        this.bodyStart = bodyStart;
+        this.updateStart = backJump - UPDATE_LENGTH;
+        this.backJump = backJump;
+        this.exit = backJump + 3;
+        this.slot = slot;
+        this.step = step;
+    }
+
+    int bodyLength() {
+        return backJump - bodyStart;
+    }
+
+    BigInteger tripCount() {
+        if (initValue == null || boundValue == null) return null;
+        BigInteger limit = comparison == OpCode.LTE ? boundValue.add(BigInteger.ONE) : boundValue;
+        BigInteger distance = limit.subtract(initValue);
+        if (distance.signum() <= 0) return BigInteger.ZERO;
+        BigInteger[] qr = distance.divideAndRemainder(step);
+        return qr[1].signum() == 0 ? qr[0] : qr[0].add(BigInteger.ONE);
+    }
+
+    static List<CountedLoop> find(Chunk chunk) {
+        List<Byte> code = chunk.code;
+        boolean[] starts = instructionStarts(code);
+        List<CountedLoop> loops = new ArrayList<>();
+        for (int ip = 0; ip < code.size(); ip += length(code, ip)) {
+            if (opAt(code, ip) != OpCode.JMP) continue;
+            int target = jumpTarget(code, ip);
+            if (target >= ip || target < 0 || !starts[target]) continue;
+            CountedLoop loop = match(chunk, starts, target, ip);
+            if (loop != null && isClosed(code, loop)) {
+                loops.add(loop);
+            }
+        }
+        for (CountedLoop outer : loops) {
+            for (CountedLoop inner : loops) {
+                if (inner != outer && inner.header > outer.header && inner.exit <= outer.exit) {
+                    outer.innermost = false;
+                }
+            }
+        }
+        return loops;
+    }
+
+    private static CountedLoop match(Chunk chunk, boolean[] starts, int header, int backJump) {
+        List<Byte> code = chunk.code;
+        if (opAt(code, header) != OpCode.LOAD_LOCAL) return null;
+        int slot = operand(code, header);
+
+        int boundStart = header + 2;
+        if (!starts[boundStart]) return null;
+        OpCode boundOp = opAt(code, boundStart);
+        int boundEnd;
+        if (boundOp == OpCode.LOAD_CONST) {
+            boundEnd = boundStart + 2;
+        } else if (boundOp == OpCode.LOAD_LOCAL) {
+            boundEnd = boundStart + 2;
+            if (boundEnd < code.size() && opAt(code, boundEnd) == OpCode.LEN) boundEnd++;
+        } else {
+            return null;
+        }
+
+        OpCode comparison = opAt(code, boundEnd);
+        if (comparison != OpCode.LT && comparison != OpCode.LTE) return null;
+        int exitJump = boundEnd + 1;
+        if (opAt(code, exitJump) != OpCode.JMP_FALSE || jumpTarget(code, exitJump) != backJump + 3) return null;
+        int bodyStart = exitJump + 3;
+
+        int update = backJump - UPDATE_LENGTH;
+        if (update < bodyStart || !starts[update]) return null;
+        if (opAt(code, update) != OpCode.LOAD_LOCAL || operand(code, update) != slot) return null;
+        if (opAt(code, update + 2) != OpCode.LOAD_CONST) return null;
+        if (opAt(code, update + 4) != OpCode.ADD || opAt(code, update + 5) != OpCode.DUP) return null;
+        if (opAt(code, update + 6) != OpCode.STORE_LOCAL || operand(code, update + 6) != slot) return null;
+        if (opAt(code, update + 8) != OpCode.POP) return null;
+        SrValue step = chunk.constants.get(operand(code, update + 2));
+        if (step.type != SrValue.Type.INT || step.asInt().signum() <= 0) return null;
+
+        CountedLoop loop = new CountedLoop(header, boundStart, boundEnd, comparison, bodyStart, backJump, slot, step.asInt());
+        if (storesLocal(code, bodyStart, update, slot)) return null;
+        resolveBound(chunk, starts, loop, boundOp);
+        resolveInit(chunk, starts, loop);
+        return loop;
+    }
+
+    private static void resolveBound(Chunk chunk, boolean[] starts, CountedLoop loop, OpCode boundOp) {
+        List<Byte> code = chunk.code;
+        if (boundOp == OpCode.LOAD_CONST) {
+            SrValue value = chunk.constants.get(operand(code, loop.boundStart));
+            if (value.type == SrValue.Type.INT) {
+                loop.boundIsInt = true;
+                loop.boundValue = value.asInt();
+            }
+            return;
+        }
+        int boundSlot = operand(code, loop.boundStart);
+        if (storesLocal(code, loop.bodyStart, loop.updateStart, boundSlot)) return;
+        boolean isLen = loop.boundEnd - loop.boundStart == 3;
+        int store = singleStore(code, boundSlot);
+        if (isLen) {
+            loop.boundIsInt = true;
+            if (store != -1 && store < loop.header && store >= 4 && starts[store - 4]
+                    && opAt(code, store - 4) == OpCode.LOAD_CONST && (opAt(code, store - 2) == OpCode.NEW_ARRAY || opAt(code, store - 2) == OpCode.NEW_STRUCT_ARRAY)) {
+                SrValue size = chunk.constants.get(operand(code, store - 4));
+                if (size.type == SrValue.Type.INT) loop.boundValue = size.asInt();
+            }
+            return;
+        }
+        if (store == -1 || store >= loop.header) return;
+        if (store >= 1 && starts[store - 1] && opAt(code, store - 1) == OpCode.LEN) {
+            loop.boundIsInt = true;
+        } else if (store >= 2 && starts[store - 2] && opAt(code, store - 2) == OpCode.LOAD_CONST) {
+            SrValue value = chunk.constants.get(operand(code, store - 2));
+            if (value.type == SrValue.Type.INT) {
+                loop.boundIsInt = true;
+                loop.boundValue = value.asInt();
+            }
+        }
+    }
+
+    private static void resolveInit(Chunk chunk, boolean[] starts, CountedLoop loop) {
+        List<Byte> code = chunk.code;
+        for (int ip = 0; ip < code.size(); ip += length(code, ip)) {
+            OpCode op = opAt(code, ip);
+            if (isJump(op) && ip != loop.backJump && jumpTarget(code, ip) == loop.header) return;
+        }
+        int h = loop.header;
+        int constAt = -1;
+        if (h >= 4 && starts[h - 4] && opAt(code, h - 4) == OpCode.LOAD_CONST
+                && opAt(code, h - 2) == OpCode.STORE_LOCAL && operand(code, h - 2) == loop.slot) {
+            constAt = h - 4;
+        } else if (h >= 6 && starts[h - 6] && opAt(code, h - 6) == OpCode.LOAD_CONST && opAt(code, h - 4) == OpCode.DUP
+                && opAt(code, h - 3) == OpCode.STORE_LOCAL && operand(code, h - 3) == loop.slot
+                && opAt(code, h - 1) == OpCode.POP) {
+            constAt = h - 6;
+        }
+        if (constAt == -1) return;
+        SrValue init = chunk.constants.get(operand(code, constAt));
+        if (init.type == SrValue.Type.INT) {
+            loop.initValue = init.asInt();
+            loop.initStart = constAt;
+        }
+    }
+
+    private static boolean isClosed(List<Byte> code, CountedLoop loop) {
+        for (int ip = 0; ip < code.size(); ip += length(code, ip)) {
+            if (!isJump(opAt(code, ip))) continue;
+            int target = jumpTarget(code, ip);
+            boolean inBody = ip >= loop.bodyStart && ip < loop.updateStart;
+            if (inBody) {
+                if (target < loop.bodyStart || target > loop.updateStart) return false;
+            } else if (ip < loop.header || ip >= loop.exit) {
+                if (target > loop.header && target < loop.exit) return false;
+            }
+        }
+        return true;
+    }
+
+    static boolean storesLocal(List<Byte> code, int from, int to, int slot) {
+        for (int ip = from; ip < to; ip += length(code, ip)) {
+            if (opAt(code, ip) == OpCode.STORE_LOCAL && operand(code, ip) == slot) return true;
+        }
+        return false;
+    }
+
+    static int singleStore(List<Byte> code, int slot) {
+        int found = -1;
+        for (int ip = 0; ip < code.size(); ip += length(code, ip)) {
+            if (opAt(code, ip) == OpCode.STORE_LOCAL && operand(code, ip) == slot) {
+                if (found != -1) return -1;
+                found = ip;
+            }
+        }
+        return found;
+    }
+}
@@ -0,0 +1,24 @@
+package org.pakicek.runtime.jit;
+
+import org.pakicek.runtime.bytecode.OpCode;
+
+interface DoubleColumnOps {
+    String VECTOR_MODULE = "jdk.incubator.vector";
+
+    void apply(OpCode op, double[] a, double[] b, double[] out);
+
+    void applyScalarLeft(OpCode op, double a, double[] b, double[] out);
+
+    void applyScalarRight(OpCode op, double[] a, double b, double[] out);
+
+    static DoubleColumnOps select() {
+        if (ModuleLayer.boot().findModule(VECTOR_MODULE).isPresent()) {
+            try {
+                return new VectorDoubleColumnOps();
+            } catch (LinkageError e) {
+                // the incubator module is present but not readable: use scalar loops
+            }
+        }
+        return new ScalarDoubleColumnOps();
+    }
+}
@@ -2,50 +2,131 @@ package org.pakicek.runtime.jit;
 
 import org.pakicek.runtime.bytecode.Chunk;
 import org.pakicek.runtime.bytecode.OpCode;
+import org.pakicek.runtime.profile.Profile;
 import org.pakicek.runtime.vm.SrValue;
 import java.math.BigInteger;
 import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Queue;
 
 public class JitOptimizer {
+    private static final int MAX_FOLD_PASSES = 4;
+
+    private final LoopUnroller loopUnroller = new LoopUnroller();
+    private final RangeAnalyzer rangeAnalyzer = new RangeAnalyzer();
 
     public Chunk optimize(Chunk original) {
-        Chunk folded = optimizePass(original);
-        return deadCodeElimination(folded);
+        return optimize(original, null);
+    }
+
+    public Chunk optimize(Chunk original, Profile.FunctionProfile profile) {
+        Chunk chunk = original;
+        Map<Integer, Long> observedTrips = Map.of();
+        if (profile != null) {
+            BlockLayout layout = new BlockLayout();
+            chunk = layout.apply(original, profile);
+            observedTrips = layout.averageTrips();
+        }
+        LoopVectorizer vectorizer = new LoopVectorizer();
+        Chunk vectorized = vectorizer.vectorize(chunk);
+        Chunk unrolled = loopUnroller.unroll(vectorized, vectorizer.remap(observedTrips));
+        Chunk folded = fold(unrolled);
+        Chunk live = deadCodeElimination(folded);
+        return rangeAnalyzer.specialize(live);
+    }
+
+    public Chunk specialize(Chunk original, Map<Integer, SrValue> arguments, Profile.FunctionProfile profile) {
+        ChunkRewriter rewriter = new ChunkRewriter(original);
+        List<Byte> code = original.code;
+        boolean substituted = false;
+        for (int ip = 0; ip < code.size(); ip += ChunkRewriter.length(code, ip)) {
+            OpCode op = ChunkRewriter.opAt(code, ip);
+            int slot = op == OpCode.LOAD_LOCAL ? ChunkRewriter.operand(code, ip) : -1;
+            SrValue value = arguments.get(slot);
+            if (value != null && !CountedLoop.storesLocal(code, 0, code.size(), slot)) {
+                int idx = rewriter.constant(value);
+                if (idx != -1) {
+                    rewriter.map(ip);
+                    rewriter.emit(OpCode.LOAD_CONST, rewriter.lineAt(ip));
+                    rewriter.emitByte(idx, rewriter.lineAt(ip));
+                    substituted = true;
+                    continue;
+                }
+            }
+            rewriter.copy(ip);
+        }
+        return substituted ? optimize(rewriter.finish(), profile) : null;
+    }
+
+    public Chunk layout(Chunk original, Profile.FunctionProfile profile) {
+        return profile == null ? original : new BlockLayout().apply(original, profile);
+    }
+
+    private Chunk fold(Chunk chunk) {
+        for (int pass = 0; pass < MAX_FOLD_PASSES; pass++) {
+            Chunk next = optimizePass(chunk);
+            if (next.code.size() == chunk.code.size()) return next;
+            chunk = next;
+        }
+        return chunk;
     }
 
     private Chunk optimizePass(Chunk original) {
-        Chunk optimized = new Chunk();
-        optimized.constants.addAll(original.constants);
+        ChunkRewriter rewriter = new ChunkRewriter(original);
+        Chunk optimized = rewriter.target();
         List<Byte> code = original.code;
+        boolean[] jumpTargets = jumpTargets(code);
 
         int i = 0;
         while (i < code.size()) {
-            int opIndex = code.get(i) & 0xFF;
-            if (opIndex >= OpCode.values().length) {
-                throw new RuntimeException("Invalid OpCode " + opIndex + " at index " + i);
+            OpCode op = ChunkRewriter.opAt(code, i);
+
+            if (!jumpTargets[i + 2] && !jumpTargets[i + 4]) {
+                rewriter.map(i);
+                if (tryConstantFolding(code, i, original, rewriter)) {
+                    i += 5;
+                    continue;
+                }
             }
-            OpCode op = OpCode.values()[opIndex];
 
-            if (tryConstantFolding(code, i, original, optimized)) {
-                i += 5;
-                continue;
+            int constantLength = constantLength(code, i);
+            if (constantLength > 0 && !jumpTargets[i + constantLength]) {
+                rewriter.map(i);
+                int consumed = tryBranchFolding(code, i, constantLength, original, rewriter);
+                if (consumed > 0) {
+                    i += consumed;
+                    continue;
+                }
             }
 
-            if (tryArithmeticIdentities(code, i, original, optimized)) {
-                i += 3;
-                continue;
+            if (!jumpTargets[i + 2]) {
+                rewriter.map(i);
+                if (tryArithmeticIdentities(code, i, original, optimized)) {
+                    i += 3;
+                    continue;
+                }
             }
 
-            copyInstruction(code, i, original, optimized, op);
-            i += 1 + getOpcodeArity(op);
+            rewriter.copy(i);
+            i += 1 + op.operandBytes();
+        }
+        return rewriter.finish();
+    }
+
+    private boolean[] jumpTargets(List<Byte> code) {
+        boolean[] targets = new boolean[code.size() + 5];
+        for (int ip = 0; ip < code.size(); ip += ChunkRewriter.length(code, ip)) {
+            if (ChunkRewriter.isJump(ChunkRewriter.opAt(code, ip))) {
+                int target = ChunkRewriter.jumpTarget(code, ip);
+                if (target >= 0 && target < targets.length) targets[target] = true;
+            }
         }
-        return optimized;
+        return targets;
     }
 
-    private boolean tryConstantFolding(List<Byte> code, int i, Chunk original, Chunk optimized) {
+    private boolean tryConstantFolding(List<Byte> code, int i, Chunk original, ChunkRewriter rewriter) {
         if (i + 4 >= code.size()) return false;
 
         int op1Idx = code.get(i) & 0xFF;
@@ -58,24 +139,88 @@ public class JitOptimizer {
         OpCode op2 = OpCode.values()[op2Idx];
         OpCode mathOp = OpCode.values()[mathOpIdx];
 
-        if (op1 == OpCode.LOAD_CONST && op2 == OpCode.LOAD_CONST && isMathOp(mathOp)) {
-            int idx1 = code.get(i + 1) & 0xFF;
-            int idx2 = code.get(i + 3) & 0xFF;
+        if (op1 != OpCode.LOAD_CONST || op2 != OpCode.LOAD_CONST) return false;
 
-            SrValue v1 = original.constants.get(idx1);
-            SrValue v2 = original.constants.get(idx2);
+        int idx1 = code.get(i + 1) & 0xFF;
+        int idx2 = code.get(i + 3) & 0xFF;
 
-            if (v1.type == SrValue.Type.INT && v2.type == SrValue.Type.INT) {
-                BigInteger res = calculate(v1.asInt(), v2.asInt(), mathOp);
-                if (res != null) {
-                    int newIdx = optimized.addConstant(new SrValue(res));
-                    optimized.emit(OpCode.LOAD_CONST, 0);
-                    optimized.emitByte(newIdx, 0);
-                    return true;
-                }
+        SrValue v1 = original.constants.get(idx1);
+        SrValue v2 = original.constants.get(idx2);
+
+        if (isMathOp(mathOp) && v1.type == SrValue.Type.INT && v2.type == SrValue.Type.INT) {
+            BigInteger res = calculate(v1.asInt(), v2.asInt(), mathOp);
+            int newIdx = res == null ? -1 : rewriter.constant(new SrValue(res));
+            if (newIdx == -1) return false;
+            rewriter.emit(OpCode.LOAD_CONST, 0);
+            rewriter.emitByte(newIdx, 0);
+            return true;
+        }
+
+        Boolean res = compare(v1, v2, mathOp);
+        if (res == null) return false;
+        rewriter.emit(res ? OpCode.LOAD_TRUE : OpCode.LOAD_FALSE, 0);
+        return true;
+    }
+
+    private Boolean compare(SrValue a, SrValue b, OpCode op) {
+        if (a.type != b.type) return null;
+        if (a.type == SrValue.Type.INT) {
+            int cmp = a.asInt().compareTo(b.asInt());
+            return switch (op) {
+                case EQ -> cmp == 0;
+                case NEQ -> cmp != 0;
+                case GT -> cmp > 0;
+                case LT -> cmp < 0;
+                case GTE -> cmp >= 0;
+                case LTE -> cmp <= 0;
+                default -> null;
+            };
+        }
+        if (a.type == SrValue.Type.STRING || a.type == SrValue.Type.BOOL) {
+            boolean equal = a.asString().equals(b.asString());
+            return switch (op) {
+                case EQ -> equal;
+                case NEQ -> !equal;
+                default -> null;
+            };
+        }
+        return null;
+    }
+
+    private int constantLength(List<Byte> code, int i) {
+        OpCode op = ChunkRewriter.opAt(code, i);
+        if (op == OpCode.LOAD_TRUE || op == OpCode.LOAD_FALSE) return 1;
+        if (op == OpCode.LOAD_CONST) return 2;
+        return 0;
+    }
+
+    private Boolean constantBool(List<Byte> code, int i, Chunk original) {
+        OpCode op = ChunkRewriter.opAt(code, i);
+        if (op == OpCode.LOAD_TRUE) return true;
+        if (op == OpCode.LOAD_FALSE) return false;
+        SrValue value = original.constants.get(code.get(i + 1) & 0xFF);
+        return value.type == SrValue.Type.BOOL ? value.asBool() : null;
+    }
+
+    private int tryBranchFolding(List<Byte> code, int i, int constantLength, Chunk original, ChunkRewriter rewriter) {
+        int next = i + constantLength;
+        if (next >= code.size()) return 0;
+        Boolean value = constantBool(code, i, original);
+        if (value == null) return 0;
+        OpCode op = ChunkRewriter.opAt(code, next);
+
+        if (op == OpCode.NOT) {
+            rewriter.emit(value ? OpCode.LOAD_FALSE : OpCode.LOAD_TRUE, 0);
+            return constantLength + 1;
+        }
+        if (op == OpCode.JMP_FALSE || op == OpCode.JMP_TRUE) {
+            boolean jumps = (op == OpCode.JMP_TRUE) == value;
+            if (jumps) {
+                rewriter.emitJumpToSource(OpCode.JMP, ChunkRewriter.jumpTarget(code, next), 0);
             }
+            return constantLength + 3;
         }
-        return false;
+        return 0;
     }
 
     private boolean tryArithmeticIdentities(List<Byte> code, int i, Chunk original, Chunk optimized) {
@@ -98,7 +243,6 @@ public class JitOptimizer {
 
         BigInteger num = val.asInt();
 
-        if (mathOp == OpCode.ADD && num.equals(BigInteger.ZERO)) return true;
         if (mathOp == OpCode.SUB && num.equals(BigInteger.ZERO)) return true;
         if (mathOp == OpCode.MUL && num.equals(BigInteger.ONE)) return true;
         if (mathOp == OpCode.DIV && num.equals(BigInteger.ONE)) return true;
@@ -130,7 +274,7 @@ public class JitOptimizer {
 
             int opByte = oldCode.get(ip) & 0xFF;
             OpCode op = OpCode.values()[opByte];
-            int nextIp = ip + 1 + getOpcodeArity(op);
+            int nextIp = ip + 1 + op.operandBytes();
 
             if (op != OpCode.JMP && op != OpCode.RETURN && op != OpCode.HALT) {
                 if (nextIp < codeSize && !reachable[nextIp]) {
@@ -139,7 +283,7 @@ public class JitOptimizer {
                 }
             }
 
-            if (op == OpCode.JMP || op == OpCode.JMP_FALSE) {
+            if (ChunkRewriter.isJump(op)) {
                 int b1 = oldCode.get(ip + 1) & 0xFF;
                 int b2 = oldCode.get(ip + 2) & 0xFF;
                 short offset = (short) ((b1 << 8) | b2);
@@ -158,7 +302,7 @@ public class JitOptimizer {
         for (int i = 0; i < codeSize; ) {
             int opByte = oldCode.get(i) & 0xFF;
             OpCode op = OpCode.values()[opByte];
-            int len = 1 + getOpcodeArity(op);
+            int len = 1 + op.operandBytes();
             if (reachable[i]) {
                 oldToNewAddress[i] = cleaned.code.size();
                 copyInstruction(oldCode, i, input, cleaned, op);
@@ -173,10 +317,10 @@ public class JitOptimizer {
         for (int i = 0; i < codeSize; ) {
             int opByte = oldCode.get(i) & 0xFF;
             OpCode op = OpCode.values()[opByte];
-            int len = 1 + getOpcodeArity(op);
+            int len = 1 + op.operandBytes();
 
             if (reachable[i]) {
-                if (op == OpCode.JMP || op == OpCode.JMP_FALSE) {
+                if (ChunkRewriter.isJump(op)) {
                     int b1 = oldCode.get(i + 1) & 0xFF;
                     int b2 = oldCode.get(i + 2) & 0xFF;
                     short oldOffset = (short) ((b1 << 8) | b2);
@@ -215,7 +359,7 @@ public class JitOptimizer {
         int line = (i < original.lines.size()) ? original.lines.get(i) : 0;
         optimized.lines.add(line);
 
-        int arity = getOpcodeArity(op);
+        int arity = op.operandBytes();
         for (int k = 0; k < arity; k++) {
             if (i + 1 + k < code.size()) {
                 optimized.code.add(code.get(i + 1 + k));
@@ -227,12 +371,4 @@ public class JitOptimizer {
     private boolean isMathOp(OpCode op) {
         return op == OpCode.ADD || op == OpCode.SUB || op == OpCode.MUL;
     }
-
-    private int getOpcodeArity(OpCode op) {
-        return switch (op) {
-            case LOAD_CONST, LOAD_LOCAL, STORE_LOCAL, NEW_STRUCT, GET_FIELD, SET_FIELD -> 1;
-            case CALL, JMP, JMP_FALSE -> 2;
-            default -> 0;
-        };
-    }
 }
\ No newline at end of file
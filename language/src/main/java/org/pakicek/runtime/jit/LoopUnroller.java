@@ -0,0 +1,113 @@
+package org.pakicek.runtime.jit;
+
+import org.pakicek.runtime.bytecode.Chunk;
+import org.pakicek.runtime.bytecode.OpCode;
+import org.pakicek.runtime.vm.SrValue;
+
+import java.math.BigInteger;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.pakicek.runtime.jit.ChunkRewriter.*;
+
+class LoopUnroller {
+    static final int MAX_FULL_UNROLL_TRIPS = 16;
+    static final int FULL_UNROLL_BUDGET = 384;
+    static final int PARTIAL_UNROLL_BUDGET = 512;
+    static final int PARTIAL_UNROLL_FACTOR = 4;
+
+    Chunk unroll(Chunk original) {
+        return unroll(original, Map.of());
+    }
+
+    Chunk unroll(Chunk original, Map<Integer, Long> observedTrips) {
+        Map<Integer, CountedLoop> candidates = new HashMap<>();
+        for (CountedLoop loop : CountedLoop.find(original)) {
+            if (loop.innermost) candidates.put(loop.header, loop);
+        }
+        if (candidates.isEmpty()) return original;
+
+        ChunkRewriter rewriter = new ChunkRewriter(original);
+        List<Byte> code = original.code;
+        boolean changed = false;
+        int ip = 0;
+        while (ip < code.size()) {
+            CountedLoop loop = candidates.get(ip);
+            if (loop != null && (tryFullUnroll(original, rewriter, loop) || tryPartialUnroll(original, rewriter, loop, observedTrips.get(loop.backJump)))) {
+                changed = true;
+                ip = loop.exit;
+                continue;
+            }
+            rewriter.copy(ip);
+            ip += length(code, ip);
+        }
+        return changed ? rewriter.finish() : original;
+    }
+
+    private boolean tryFullUnroll(Chunk chunk, ChunkRewriter rewriter, CountedLoop loop) {
+        BigInteger trips = loop.tripCount();
+        if (trips == null || trips.compareTo(BigInteger.valueOf(MAX_FULL_UNROLL_TRIPS)) > 0) return false;
+        int bodyLength = loop.updateStart - loop.bodyStart;
+        int count = trips.intValue();
+        if ((long) count * bodyLength > FULL_UNROLL_BUDGET) return false;
+        if (!rewriter.hasConstantRoom(count + 1)) return false;
+
+        int line = chunk.lines.get(loop.header);
+        rewriter.map(loop.header);
+        BigInteger value = loop.initValue;
+        for (int k = 0; k < count; k++) {
+            int valueIdx = rewriter.constant(new SrValue(value));
+            copyWithInductionConstant(chunk, rewriter, loop, valueIdx);
+            value = value.add(loop.step);
+        }
+        int finalIdx = rewriter.constant(new SrValue(value));
+        rewriter.emit(OpCode.LOAD_CONST, line);
+        rewriter.emitByte(finalIdx, line);
+        rewriter.emit(OpCode.STORE_LOCAL, line);
+        rewriter.emitByte(loop.slot, line);
+        return true;
+    }
+
+    private void copyWithInductionConstant(Chunk chunk, ChunkRewriter rewriter, CountedLoop loop, int valueIdx) {
+        List<Byte> code = chunk.code;
+        for (int ip = loop.bodyStart; ip < loop.updateStart; ip += length(code, ip)) {
+            if (opAt(code, ip) == OpCode.LOAD_LOCAL && operand(code, ip) == loop.slot) {
+                int line = chunk.lines.get(ip);
+                rewriter.emit(OpCode.LOAD_CONST, line);
+                rewriter.emitByte(valueIdx, line);
+            } else {
+                rewriter.copyRaw(ip, ip + length(code, ip));
+            }
+        }
+    }
+
+    private boolean tryPartialUnroll(Chunk chunk, ChunkRewriter rewriter, CountedLoop loop, Long observedTrips) {
+        if (!loop.boundIsInt) return false;
+        BigInteger trips = loop.tripCount();
+        int factor = PARTIAL_UNROLL_FACTOR;
+        while (factor > 1 && (long) factor * loop.bodyLength() > PARTIAL_UNROLL_BUDGET) factor /= 2;
+        if (factor < 2) return false;
+        if (trips != null && trips.compareTo(BigInteger.valueOf(2L * factor)) < 0) return false;
+        if (observedTrips != null && observedTrips < 2L * factor) return false;
+        int slackIdx = rewriter.constant(new SrValue(loop.step.multiply(BigInteger.valueOf(factor - 1))));
+        if (slackIdx == -1) return false;
+
+        int line = chunk.lines.get(loop.header);
+        rewriter.map(loop.header);
+        int mainStart = rewriter.position();
+        rewriter.copyRaw(loop.header, loop.boundEnd);
+        rewriter.emit(OpCode.LOAD_CONST, line);
+        rewriter.emitByte(slackIdx, line);
+        rewriter.emit(OpCode.SUB, line);
+        rewriter.emit(loop.comparison, line);
+        int remainderJump = rewriter.emitJump(OpCode.JMP_FALSE, line);
+        for (int k = 0; k < factor; k++) {
+            rewriter.copyRaw(loop.bodyStart, loop.backJump);
+        }
+        rewriter.emitLoop(mainStart, line);
+        rewriter.patchJump(remainderJump);
+        rewriter.copyRaw(loop.header, loop.exit);
+        return true;
+    }
+}
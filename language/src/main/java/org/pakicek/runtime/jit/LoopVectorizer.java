@@ -0,0 +1,114 @@
+package org.pakicek.runtime.jit;
+
+import org.pakicek.runtime.bytecode.Chunk;
+import org.pakicek.runtime.bytecode.OpCode;
+import org.pakicek.runtime.vm.SrValue;
+
+import java.util.*;
+
+import static org.pakicek.runtime.jit.ChunkRewriter.*;
+
+class LoopVectorizer {
+    private ChunkRewriter applied;
+
+    Map<Integer, Long> remap(Map<Integer, Long> offsets) {
+        if (applied == null || offsets.isEmpty()) return offsets;
+        Map<Integer, Long> remapped = new HashMap<>();
+        offsets.forEach((ip, value) -> remapped.put(applied.resolve(ip), value));
+        return remapped;
+    }
+
+    Chunk vectorize(Chunk original) {
+        Map<Integer, CountedLoop> candidates = new HashMap<>();
+        for (CountedLoop loop : CountedLoop.find(original)) {
+            if (loop.innermost && loop.initStart != -1) candidates.put(loop.initStart, loop);
+        }
+        if (candidates.isEmpty()) return original;
+
+        ChunkRewriter rewriter = new ChunkRewriter(original);
+        List<Byte> code = original.code;
+        boolean changed = false;
+        for (int ip = 0; ip < code.size(); ip += length(code, ip)) {
+            CountedLoop loop = candidates.get(ip);
+            String descriptor = loop != null ? describe(original, loop) : null;
+            int descriptorIdx = descriptor != null ? rewriter.constant(new SrValue(descriptor)) : -1;
+            if (descriptorIdx != -1) {
+                int line = rewriter.lineAt(ip);
+                rewriter.map(ip);
+                rewriter.emit(OpCode.VECTOR_LOOP, line);
+                rewriter.emitByte(descriptorIdx, line);
+                rewriter.emitJumpToSource(OpCode.JMP_TRUE, loop.exit, line);
+                rewriter.copyRaw(ip, ip + length(code, ip));
+                changed = true;
+                continue;
+            }
+            rewriter.copy(ip);
+        }
+        if (!changed) return original;
+        applied = rewriter;
+        return rewriter.finish();
+    }
+
+    private String describe(Chunk chunk, CountedLoop loop) {
+        List<Byte> code = chunk.code;
+        String bound = describeBound(chunk, loop);
+        if (bound == null) return null;
+
+        int ip = loop.bodyStart;
+        if (opAt(code, ip) != OpCode.LOAD_LOCAL || opAt(code, ip + 2) != OpCode.LOAD_LOCAL
+                || operand(code, ip + 2) != loop.slot) {
+            return null;
+        }
+        int target = operand(code, ip);
+        if (target == loop.slot) return null;
+
+        List<String> expr = new ArrayList<>();
+        int depth = 0;
+        ip += 4;
+        while (ip < loop.updateStart) {
+            OpCode op = opAt(code, ip);
+            if (op == OpCode.SET_ARRAY) break;
+            if (op == OpCode.LOAD_LOCAL) {
+                int slot = operand(code, ip);
+                if (slot != loop.slot && ip + 5 <= loop.updateStart && opAt(code, ip + 2) == OpCode.LOAD_LOCAL
+                        && operand(code, ip + 2) == loop.slot && opAt(code, ip + 4) == OpCode.GET_ARRAY) {
+                    expr.add("A" + slot);
+                    ip += 5;
+                } else {
+                    expr.add(slot == loop.slot ? "I" : "L" + slot);
+                    ip += 2;
+                }
+                depth++;
+            } else if (op == OpCode.LOAD_CONST) {
+                SrValue value = chunk.constants.get(operand(code, ip));
+                if (value.type != SrValue.Type.INT && value.type != SrValue.Type.FLOAT) return null;
+                expr.add("C" + operand(code, ip));
+                ip += 2;
+                depth++;
+            } else if (op == OpCode.ADD || op == OpCode.SUB || op == OpCode.MUL || op == OpCode.DIV) {
+                if (depth < 2) return null;
+                expr.add(op.name());
+                ip += 1;
+                depth--;
+            } else {
+                return null;
+            }
+        }
+        if (depth != 1 || ip + 2 != loop.updateStart || opAt(code, ip) != OpCode.SET_ARRAY
+                || opAt(code, ip + 1) != OpCode.POP) {
+            return null;
+        }
+        int stepIdx = operand(code, loop.updateStart + 2);
+        return "i=" + loop.slot + " cmp=" + loop.comparison + " bound=" + bound
+                + " init=" + operand(code, loop.initStart) + " step=" + stepIdx
+                + " target=" + target + " expr=" + String.join(",", expr);
+    }
+
+    private String describeBound(Chunk chunk, CountedLoop loop) {
+        List<Byte> code = chunk.code;
+        int slotOrIdx = operand(code, loop.boundStart);
+        if (opAt(code, loop.boundStart) == OpCode.LOAD_CONST) return "C" + slotOrIdx;
+        if (slotOrIdx == loop.slot) return null;
+        return loop.boundEnd - loop.boundStart == 3 ? "N" + slotOrIdx : "L" + slotOrIdx;
+    }
+}
@@ -0,0 +1,515 @@
+package org.pakicek.runtime.jit;
+
+import org.pakicek.runtime.bytecode.Chunk;
+import org.pakicek.runtime.bytecode.OpCode;
+import org.pakicek.runtime.vm.SrValue;
+
+import java.math.BigInteger;
+import java.util.*;
+
+import static org.pakicek.runtime.jit.ChunkRewriter.*;
+
+class RangeAnalyzer {
+    private static final BigInteger LONG_MIN = BigInteger.valueOf(Long.MIN_VALUE);
+    private static final BigInteger LONG_MAX = BigInteger.valueOf(Long.MAX_VALUE);
+    private static final Range INDEX_RANGE = new Range(BigInteger.ZERO, BigInteger.valueOf(Integer.MAX_VALUE - 1));
+    private static final Range LENGTH_RANGE = new Range(BigInteger.ZERO, BigInteger.valueOf(Integer.MAX_VALUE));
+    private static final Range ANY_INT = new Range(null, null);
+    private static final int NARROWING_PASSES = 3;
+
+    record Range(BigInteger lo, BigInteger hi) {
+        boolean fitsLong() {
+            return lo != null && hi != null && lo.compareTo(LONG_MIN) >= 0 && hi.compareTo(LONG_MAX) <= 0;
+        }
+
+        boolean isEmpty() {
+            return lo != null && hi != null && lo.compareTo(hi) > 0;
+        }
+
+        Range join(Range other) {
+            return new Range(lo == null || other.lo == null ? null : lo.min(other.lo),
+                    hi == null || other.hi == null ? null : hi.max(other.hi));
+        }
+
+        Range widen(Range next) {
+            return new Range(lo == null || next.lo == null || next.lo.compareTo(lo) < 0 ? null : lo,
+                    hi == null || next.hi == null || next.hi.compareTo(hi) > 0 ? null : hi);
+        }
+
+        Range intersect(Range other) {
+            return new Range(max(lo, other.lo), min(hi, other.hi));
+        }
+
+        Range withHi(BigInteger bound) {
+            return new Range(lo, min(hi, bound));
+        }
+
+        Range withLo(BigInteger bound) {
+            return new Range(max(lo, bound), hi);
+        }
+    }
+
+    record Condition(OpCode op, Value left, Value right) {}
+
+    record Value(Range range, int slot, Condition condition) {
+        static final Value UNKNOWN = new Value(null, -1, null);
+
+        static Value of(Range range) {
+            return range == null ? UNKNOWN : new Value(range, -1, null);
+        }
+
+        Value join(Value other) {
+            Range r = range == null || other.range == null ? null : range.join(other.range);
+            return new Value(r, slot == other.slot ? slot : -1, Objects.equals(condition, other.condition) ? condition : null);
+        }
+
+        Value widen(Value next) {
+            Range r = range == null || next.range == null ? null : range.widen(next.range);
+            return new Value(r, slot == next.slot ? slot : -1, Objects.equals(condition, next.condition) ? condition : null);
+        }
+
+        boolean mentions(int local) {
+            return slot == local || (condition != null && (condition.left.mentions(local) || condition.right.mentions(local)));
+        }
+    }
+
+    private static final class State {
+        final Value[] locals;
+        final List<Value> stack;
+
+        State(Value[] locals, List<Value> stack) {
+            this.locals = locals;
+            this.stack = stack;
+        }
+
+        State copy() {
+            return new State(locals.clone(), new ArrayList<>(stack));
+        }
+
+        Value pop() {
+            return stack.isEmpty() ? Value.UNKNOWN : stack.remove(stack.size() - 1);
+        }
+
+        void push(Value value) {
+            stack.add(value);
+        }
+
+        void store(int slot, Value value) {
+            for (int i = 0; i < stack.size(); i++) {
+                if (stack.get(i).mentions(slot)) stack.set(i, Value.of(stack.get(i).range));
+            }
+            for (int i = 0; i < locals.length; i++) {
+                if (locals[i].condition != null && locals[i].mentions(slot)) locals[i] = Value.of(locals[i].range);
+            }
+            locals[slot] = new Value(value.range, -1, null);
+        }
+
+        void refine(Value value, Range range) {
+            if (value.slot < 0) return;
+            locals[value.slot] = new Value(range, -1, null);
+            for (int i = 0; i < stack.size(); i++) {
+                Value v = stack.get(i);
+                if (v.slot == value.slot) stack.set(i, new Value(range, v.slot, null));
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof State other && Arrays.equals(locals, other.locals) && stack.equals(other.stack);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(Arrays.hashCode(locals), stack);
+        }
+    }
+
+    private record Edge(int target, State state) {}
+
+    private static class AnalysisException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+    }
+
+    Chunk specialize(Chunk chunk) {
+        List<Byte> code = chunk.code;
+        if (code.isEmpty()) return chunk;
+        State[] in;
+        try {
+            in = analyze(chunk);
+        } catch (AnalysisException e) {
+            return chunk;
+        }
+
+        Chunk result = new Chunk();
+        result.code.addAll(code);
+        result.lines.addAll(chunk.lines);
+        result.constants.addAll(chunk.constants);
+        for (int ip = 0; ip < code.size(); ip += length(code, ip)) {
+            State state = in[ip];
+            if (state == null || state.stack.size() < 2) continue;
+            OpCode op = opAt(code, ip);
+            OpCode specialized = specializedOp(op);
+            if (specialized == null) continue;
+            Range b = state.stack.get(state.stack.size() - 1).range;
+            Range a = state.stack.get(state.stack.size() - 2).range;
+            if (a == null || b == null || !a.fitsLong() || !b.fitsLong()) continue;
+            if (op == OpCode.ADD || op == OpCode.SUB || op == OpCode.MUL) {
+                Range r = arithmetic(op, a, b);
+                if (r == null || !r.fitsLong()) continue;
+            }
+            result.code.set(ip, (byte) specialized.ordinal());
+        }
+        return result;
+    }
+
+    private OpCode specializedOp(OpCode op) {
+        return switch (op) {
+            case ADD -> OpCode.ADD_LONG;
+            case SUB -> OpCode.SUB_LONG;
+            case MUL -> OpCode.MUL_LONG;
+            case EQ -> OpCode.EQ_LONG;
+            case NEQ -> OpCode.NEQ_LONG;
+            case GT -> OpCode.GT_LONG;
+            case LT -> OpCode.LT_LONG;
+            case GTE -> OpCode.GTE_LONG;
+            case LTE -> OpCode.LTE_LONG;
+            default -> null;
+        };
+    }
+
+    private State[] analyze(Chunk chunk) {
+        List<Byte> code = chunk.code;
+        int size = code.size();
+        boolean[] loopHeaders = new boolean[size + 1];
+        int maxSlot = 0;
+        for (int ip = 0; ip < size; ip += length(code, ip)) {
+            OpCode op = opAt(code, ip);
+            if (isJump(op)) {
+                int target = jumpTarget(code, ip);
+                if (target < 0 || target > size) throw new AnalysisException();
+                if (target <= ip) loopHeaders[target] = true;
+            }
+            if (op == OpCode.LOAD_LOCAL || op == OpCode.STORE_LOCAL) {
+                maxSlot = Math.max(maxSlot, operand(code, ip));
+            }
+        }
+
+        Value[] entryLocals = new Value[maxSlot + 1];
+        Arrays.fill(entryLocals, Value.UNKNOWN);
+        State entry = new State(entryLocals, new ArrayList<>());
+
+        State[] in = new State[size];
+        int[] visits = new int[size];
+        in[0] = entry;
+        Deque<Integer> worklist = new ArrayDeque<>();
+        worklist.add(0);
+        while (!worklist.isEmpty()) {
+            int ip = worklist.poll();
+            for (Edge edge : transfer(chunk, ip, in[ip])) {
+                if (edge.target >= size || edge.state == null) continue;
+                State old = in[edge.target];
+                State merged;
+                if (old == null) {
+                    merged = edge.state;
+                } else if (loopHeaders[edge.target] && visits[edge.target] > 1) {
+                    merged = merge(old, edge.state, true);
+                } else {
+                    merged = merge(old, edge.state, false);
+                }
+                if (!merged.equals(old)) {
+                    in[edge.target] = merged;
+                    visits[edge.target]++;
+                    worklist.add(edge.target);
+                }
+            }
+        }
+
+        List<List<Integer>> predecessors = new ArrayList<>();
+        for (int ip = 0; ip < size; ip++) predecessors.add(new ArrayList<>());
+        for (int ip = 0; ip < size; ip += length(code, ip)) {
+            OpCode op = opAt(code, ip);
+            int next = ip + length(code, ip);
+            if (op != OpCode.JMP && op != OpCode.RETURN && op != OpCode.HALT && next < size) predecessors.get(next).add(ip);
+            if (isJump(op) && jumpTarget(code, ip) < size) predecessors.get(jumpTarget(code, ip)).add(ip);
+        }
+        for (int pass = 0; pass < NARROWING_PASSES; pass++) {
+            for (int ip = 0; ip < size; ip += length(code, ip)) {
+                State narrowed = ip == 0 ? entry : null;
+                for (int pred : predecessors.get(ip)) {
+                    if (in[pred] == null) continue;
+                    for (Edge edge : transfer(chunk, pred, in[pred])) {
+                        if (edge.target != ip || edge.state == null) continue;
+                        narrowed = narrowed == null ? edge.state : merge(narrowed, edge.state, false);
+                    }
+                }
+                in[ip] = narrowed;
+            }
+        }
+        return in;
+    }
+
+    private State merge(State old, State incoming, boolean widen) {
+        if (old.stack.size() != incoming.stack.size() || old.locals.length != incoming.locals.length) {
+            throw new AnalysisException();
+        }
+        Value[] locals = new Value[old.locals.length];
+        for (int i = 0; i < locals.length; i++) {
+            locals[i] = widen ? old.locals[i].widen(incoming.locals[i]) : old.locals[i].join(incoming.locals[i]);
+        }
+        List<Value> stack = new ArrayList<>();
+        for (int i = 0; i < old.stack.size(); i++) {
+            stack.add(widen ? old.stack.get(i).widen(incoming.stack.get(i)) : old.stack.get(i).join(incoming.stack.get(i)));
+        }
+        return new State(locals, stack);
+    }
+
+    private List<Edge> transfer(Chunk chunk, int ip, State before) {
+        List<Byte> code = chunk.code;
+        OpCode op = opAt(code, ip);
+        int next = ip + length(code, ip);
+        State s = before.copy();
+        switch (op) {
+            case LOAD_CONST -> {
+                SrValue constant = chunk.constants.get(operand(code, ip));
+                s.push(constant.type == SrValue.Type.INT ? Value.of(new Range(constant.asInt(), constant.asInt())) : Value.UNKNOWN);
+            }
+            case LOAD_TRUE, LOAD_FALSE, NEW_STRUCT -> s.push(Value.UNKNOWN);
+            case LOAD_LOCAL -> {
+                int slot = operand(code, ip);
+                s.push(new Value(s.locals[slot].range, slot, null));
+            }
+            case STORE_LOCAL -> s.store(operand(code, ip), s.pop());
+            case POP, PRINT, PRINTLN, DUMP_HEAP -> s.pop();
+            case DUP -> {
+                Value top = s.pop();
+                s.push(top);
+                s.push(top);
+            }
+            case ROT -> {
+                Value b = s.pop();
+                Value a = s.pop();
+                s.push(b);
+                s.push(a);
+            }
+            case ADD, SUB, MUL, DIV, MOD, BIT_AND, BIT_OR -> {
+                Range b = s.pop().range;
+                Range a = s.pop().range;
+                s.push(Value.of(a == null || b == null ? null : arithmetic(op, a, b)));
+            }
+            case ADD_LONG, SUB_LONG, MUL_LONG -> {
+                s.pop();
+                s.pop();
+                s.push(Value.of(ANY_INT));
+            }
+            case NOT -> {
+                Range a = s.pop().range;
+                s.push(Value.of(a == null ? null : negateBits(a)));
+            }
+            case LOGIC_AND, LOGIC_OR, RANDOM -> {
+                Range b = s.pop().range;
+                Range a = s.pop().range;
+                if (op == OpCode.RANDOM && a != null && b != null && a.lo != null && a.hi != null && b.hi != null) {
+                    s.push(Value.of(new Range(a.lo, a.hi.max(b.hi))));
+                } else {
+                    s.push(Value.UNKNOWN);
+                }
+            }
+            case EQ, NEQ, GT, LT, GTE, LTE -> {
+                Value b = s.pop();
+                Value a = s.pop();
+                s.push(new Value(null, -1, new Condition(op, a, b)));
+            }
+            case EQ_LONG, NEQ_LONG, GT_LONG, LT_LONG, GTE_LONG, LTE_LONG, EQ_FLOAT, NEQ_FLOAT, EQ_BOOL, NEQ_BOOL -> {
+                s.pop();
+                s.pop();
+                s.push(Value.UNKNOWN);
+            }
+            case JMP -> {
+                return List.of(new Edge(jumpTarget(code, ip), s));
+            }
+            case JMP_FALSE, JMP_TRUE -> {
+                Value condition = s.pop();
+                State taken = s.copy();
+                State fallthrough = s;
+                if (condition.condition != null) {
+                    boolean jumpsWhenTrue = op == OpCode.JMP_TRUE;
+                    fallthrough = refine(fallthrough, condition.condition, !jumpsWhenTrue);
+                    taken = refine(taken, condition.condition, jumpsWhenTrue);
+                }
+                List<Edge> edges = new ArrayList<>();
+                edges.add(new Edge(next, fallthrough));
+                edges.add(new Edge(jumpTarget(code, ip), taken));
+                return edges;
+            }
+            case NEW_ARRAY, NEW_STRUCT_ARRAY, SQRT, TO_INT, GET_FIELD -> {
+                s.pop();
+                s.push(op == OpCode.TO_INT ? Value.of(ANY_INT) : Value.UNKNOWN);
+            }
+            case VECTOR_LOOP -> {
+                String descriptor = chunk.constants.get(operand(code, ip)).asString();
+                s.store(VectorKernel.counterSlot(descriptor), Value.UNKNOWN);
+                s.push(Value.UNKNOWN);
+            }
+            case LEN -> {
+                s.pop();
+                s.push(Value.of(LENGTH_RANGE));
+            }
+            case GET_ARRAY -> {
+                Value index = s.pop();
+                s.pop();
+                refineIndex(s, index);
+                s.push(Value.UNKNOWN);
+            }
+            case GET_ELEMENT_FIELD -> {
+                Value index = s.pop();
+                s.pop();
+                refineIndex(s, index);
+                s.push(Value.UNKNOWN);
+            }
+            case SET_ARRAY, SET_ELEMENT_FIELD -> {
+                Value value = s.pop();
+                Value index = s.pop();
+                s.pop();
+                refineIndex(s, index);
+                s.push(new Value(value.range, -1, null));
+            }
+            case SET_FIELD -> {
+                Value value = s.pop();
+                s.pop();
+                s.push(new Value(value.range, -1, null));
+            }
+            case CONCAT -> {
+                int count = operand(code, ip);
+                for (int i = 0; i < count; i++) s.pop();
+                s.push(Value.UNKNOWN);
+            }
+            case CALL -> {
+                int argCount = code.get(ip + 2) & 0xFF;
+                for (int i = 0; i < argCount; i++) s.pop();
+                s.push(Value.UNKNOWN);
+            }
+            case RETURN, HALT -> {
+                return List.of();
+            }
+        }
+        return List.of(new Edge(next, s));
+    }
+
+    private void refineIndex(State s, Value index) {
+        Range current = index.slot >= 0 ? s.locals[index.slot].range : null;
+        s.refine(index, current == null ? INDEX_RANGE : current.intersect(INDEX_RANGE));
+    }
+
+    private State refine(State s, Condition condition, boolean holds) {
+        Range a = condition.left.range;
+        Range b = condition.right.range;
+        if (a == null || b == null) return s;
+        OpCode op = holds ? condition.op : negate(condition.op);
+        Range newA = a;
+        Range newB = b;
+        switch (op) {
+            case LT -> {
+                newA = a.withHi(b.hi == null ? null : b.hi.subtract(BigInteger.ONE));
+                newB = b.withLo(a.lo == null ? null : a.lo.add(BigInteger.ONE));
+            }
+            case LTE -> {
+                newA = a.withHi(b.hi);
+                newB = b.withLo(a.lo);
+            }
+            case GT -> {
+                newA = a.withLo(b.lo == null ? null : b.lo.add(BigInteger.ONE));
+                newB = b.withHi(a.hi == null ? null : a.hi.subtract(BigInteger.ONE));
+            }
+            case GTE -> {
+                newA = a.withLo(b.lo);
+                newB = b.withHi(a.hi);
+            }
+            case EQ -> {
+                newA = a.intersect(b);
+                newB = newA;
+            }
+            default -> {
+                return s;
+            }
+        }
+        if (newA.isEmpty() || newB.isEmpty()) return null;
+        s.refine(condition.left, newA);
+        s.refine(condition.right, newB);
+        return s;
+    }
+
+    private OpCode negate(OpCode op) {
+        return switch (op) {
+            case LT -> OpCode.GTE;
+            case GTE -> OpCode.LT;
+            case GT -> OpCode.LTE;
+            case LTE -> OpCode.GT;
+            case EQ -> OpCode.NEQ;
+            case NEQ -> OpCode.EQ;
+            default -> op;
+        };
+    }
+
+    private Range arithmetic(OpCode op, Range a, Range b) {
+        return switch (op) {
+            case ADD -> new Range(a.lo == null || b.lo == null ? null : a.lo.add(b.lo),
+                    a.hi == null || b.hi == null ? null : a.hi.add(b.hi));
+            case SUB -> new Range(a.lo == null || b.hi == null ? null : a.lo.subtract(b.hi),
+                    a.hi == null || b.lo == null ? null : a.hi.subtract(b.lo));
+            case MUL -> {
+                if (a.lo == null || a.hi == null || b.lo == null || b.hi == null) yield ANY_INT;
+                BigInteger[] products = {a.lo.multiply(b.lo), a.lo.multiply(b.hi), a.hi.multiply(b.lo), a.hi.multiply(b.hi)};
+                yield new Range(Arrays.stream(products).min(BigInteger::compareTo).orElseThrow(),
+                        Arrays.stream(products).max(BigInteger::compareTo).orElseThrow());
+            }
+            case DIV -> {
+                BigInteger m = magnitude(a);
+                yield m == null ? ANY_INT : new Range(m.negate(), m);
+            }
+            case MOD -> {
+                BigInteger ma = magnitude(a);
+                BigInteger mb = magnitude(b);
+                BigInteger bound = mb == null ? ma : (ma == null ? mb.subtract(BigInteger.ONE) : ma.min(mb.subtract(BigInteger.ONE)));
+                if (bound == null) yield ANY_INT;
+                bound = bound.max(BigInteger.ZERO);
+                yield new Range(a.lo != null && a.lo.signum() >= 0 ? BigInteger.ZERO : bound.negate(),
+                        a.hi != null && a.hi.signum() <= 0 ? BigInteger.ZERO : bound);
+            }
+            case BIT_AND -> {
+                boolean aNonNegative = a.lo != null && a.lo.signum() >= 0;
+                boolean bNonNegative = b.lo != null && b.lo.signum() >= 0;
+                if (aNonNegative && bNonNegative) yield new Range(BigInteger.ZERO, min(a.hi, b.hi));
+                if (aNonNegative && a.hi != null) yield new Range(BigInteger.ZERO, a.hi);
+                if (bNonNegative && b.hi != null) yield new Range(BigInteger.ZERO, b.hi);
+                yield ANY_INT;
+            }
+            case BIT_OR -> {
+                if (a.lo == null || b.lo == null || a.hi == null || b.hi == null || a.lo.signum() < 0 || b.lo.signum() < 0) yield ANY_INT;
+                int bits = Math.max(a.hi.bitLength(), b.hi.bitLength());
+                yield new Range(BigInteger.ZERO, BigInteger.ONE.shiftLeft(bits).subtract(BigInteger.ONE));
+            }
+            default -> ANY_INT;
+        };
+    }
+
+    private Range negateBits(Range a) {
+        return new Range(a.hi == null ? null : a.hi.not(), a.lo == null ? null : a.lo.not());
+    }
+
+    private static BigInteger magnitude(Range r) {
+        if (r.lo == null || r.hi == null) return null;
+        return r.lo.abs().max(r.hi.abs());
+    }
+
+    private static BigInteger min(BigInteger a, BigInteger b) {
+        if (a == null) return b;
+        if (b == null) return a;
+        return a.min(b);
+    }
+
+    private static BigInteger max(BigInteger a, BigInteger b) {
+        if (a == null) return b;
+        if (b == null) return a;
+        return a.max(b);
+    }
+}
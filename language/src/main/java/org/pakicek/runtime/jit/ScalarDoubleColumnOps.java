@@ -0,0 +1,20 @@
+package org.pakicek.runtime.jit;
+
+import org.pakicek.runtime.bytecode.OpCode;
+
+class ScalarDoubleColumnOps implements DoubleColumnOps {
+    @Override
+    public void apply(OpCode op, double[] a, double[] b, double[] out) {
+        for (int i = 0; i < out.length; i++) out[i] = VectorKernel.applyDouble(op, a[i], b[i]);
+    }
+
+    @Override
+    public void applyScalarLeft(OpCode op, double a, double[] b, double[] out) {
+        for (int i = 0; i < out.length; i++) out[i] = VectorKernel.applyDouble(op, a, b[i]);
+    }
+
+    @Override
+    public void applyScalarRight(OpCode op, double[] a, double b, double[] out) {
+        for (int i = 0; i < out.length; i++) out[i] = VectorKernel.applyDouble(op, a[i], b);
+    }
+}
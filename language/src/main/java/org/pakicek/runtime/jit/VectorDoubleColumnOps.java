@@ -0,0 +1,52 @@
+package org.pakicek.runtime.jit;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+import org.pakicek.runtime.bytecode.OpCode;
+
+class VectorDoubleColumnOps implements DoubleColumnOps {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    @Override
+    public void apply(OpCode op, double[] a, double[] b, double[] out) {
+        VectorOperators.Binary vop = operator(op);
+        int i = 0;
+        for (int upper = SPECIES.loopBound(out.length); i < upper; i += SPECIES.length()) {
+            DoubleVector va = DoubleVector.fromArray(SPECIES, a, i);
+            DoubleVector vb = DoubleVector.fromArray(SPECIES, b, i);
+            va.lanewise(vop, vb).intoArray(out, i);
+        }
+        for (; i < out.length; i++) out[i] = VectorKernel.applyDouble(op, a[i], b[i]);
+    }
+
+    @Override
+    public void applyScalarLeft(OpCode op, double a, double[] b, double[] out) {
+        VectorOperators.Binary vop = operator(op);
+        DoubleVector va = DoubleVector.broadcast(SPECIES, a);
+        int i = 0;
+        for (int upper = SPECIES.loopBound(out.length); i < upper; i += SPECIES.length()) {
+            va.lanewise(vop, DoubleVector.fromArray(SPECIES, b, i)).intoArray(out, i);
+        }
+        for (; i < out.length; i++) out[i] = VectorKernel.applyDouble(op, a, b[i]);
+    }
+
+    @Override
+    public void applyScalarRight(OpCode op, double[] a, double b, double[] out) {
+        VectorOperators.Binary vop = operator(op);
+        int i = 0;
+        for (int upper = SPECIES.loopBound(out.length); i < upper; i += SPECIES.length()) {
+            DoubleVector.fromArray(SPECIES, a, i).lanewise(vop, b).intoArray(out, i);
+        }
+        for (; i < out.length; i++) out[i] = VectorKernel.applyDouble(op, a[i], b);
+    }
+
+    private static VectorOperators.Binary operator(OpCode op) {
+        return switch (op) {
+            case ADD -> VectorOperators.ADD;
+            case SUB -> VectorOperators.SUB;
+            case MUL -> VectorOperators.MUL;
+            default -> VectorOperators.DIV;
+        };
+    }
+}
@@ -0,0 +1,290 @@
+package org.pakicek.runtime.jit;
+
+import org.pakicek.runtime.bytecode.OpCode;
+import org.pakicek.runtime.vm.SrArray;
+import org.pakicek.runtime.vm.SrValue;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class VectorKernel {
+    private static final DoubleColumnOps DOUBLE_OPS = DoubleColumnOps.select();
+
+    private final int counter;
+    private final OpCode comparison;
+    private final String bound;
+    private final int initIdx;
+    private final int stepIdx;
+    private final int target;
+    private final Node expr;
+    private final DoubleColumnOps doubleOps;
+
+    private static final class Fallback extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        Fallback() {
+            super(null, null, false, false);
+        }
+    }
+
+    private static final Fallback FALLBACK = new Fallback();
+
+    private sealed interface Node permits ArrayRead, Scalar, Index, Binary {}
+    private record ArrayRead(int slot) implements Node {}
+    private record Scalar(char source, int index) implements Node {}
+    private record Index() implements Node {}
+    private record Binary(OpCode op, Node left, Node right) implements Node {}
+
+    private static final class Column {
+        final long[] longs;
+        final double[] doubles;
+        final SrValue scalar;
+
+        Column(long[] longs, double[] doubles, SrValue scalar) {
+            this.longs = longs;
+            this.doubles = doubles;
+            this.scalar = scalar;
+        }
+
+        boolean isFloat() {
+            return doubles != null || (scalar != null && scalar.type == SrValue.Type.FLOAT);
+        }
+    }
+
+    VectorKernel(String descriptor, DoubleColumnOps doubleOps) {
+        Map<String, String> parts = new HashMap<>();
+        for (String part : descriptor.split(" ")) {
+            int eq = part.indexOf('=');
+            parts.put(part.substring(0, eq), part.substring(eq + 1));
+        }
+        this.counter = Integer.parseInt(parts.get("i"));
+        this.comparison = OpCode.valueOf(parts.get("cmp"));
+        this.bound = parts.get("bound");
+        this.initIdx = Integer.parseInt(parts.get("init"));
+        this.stepIdx = Integer.parseInt(parts.get("step"));
+        this.target = Integer.parseInt(parts.get("target"));
+        this.expr = parseExpression(parts.get("expr"));
+        this.doubleOps = doubleOps;
+    }
+
+    public static VectorKernel parse(String descriptor) {
+        return new VectorKernel(descriptor, DOUBLE_OPS);
+    }
+
+    public static int counterSlot(String descriptor) {
+        return Integer.parseInt(descriptor.substring(2, descriptor.indexOf(' ')));
+    }
+
+    public static boolean isVectorized() {
+        return !(DOUBLE_OPS instanceof ScalarDoubleColumnOps);
+    }
+
+    private static Node parseExpression(String text) {
+        Deque<Node> stack = new ArrayDeque<>();
+        for (String token : text.split(",")) {
+            if (token.equals("I")) {
+                stack.push(new Index());
+            } else if (Character.isDigit(token.charAt(token.length() - 1))) {
+                int index = Integer.parseInt(token.substring(1));
+                stack.push(token.charAt(0) == 'A' ? new ArrayRead(index) : new Scalar(token.charAt(0), index));
+            } else {
+                Node right = stack.pop();
+                Node left = stack.pop();
+                stack.push(new Binary(OpCode.valueOf(token), left, right));
+            }
+        }
+        return stack.pop();
+    }
+
+    public boolean run(SrValue[] locals, List<SrValue> constants) {
+        try {
+            execute(locals, constants);
+            return true;
+        } catch (Fallback | ArithmeticException e) {
+            return false;
+        }
+    }
+
+    private void execute(SrValue[] locals, List<SrValue> constants) {
+        long start = smallInt(constants.get(initIdx));
+        long step = smallInt(constants.get(stepIdx));
+        if (step <= 0) throw FALLBACK;
+        long limit = smallInt(boundValue(locals, constants));
+        if (comparison == OpCode.LTE) limit = Math.addExact(limit, 1);
+
+        long count = start < limit ? Math.addExact(Math.subtractExact(limit, start), step - 1) / step : 0;
+        if (count > Integer.MAX_VALUE) throw FALLBACK;
+        int n = (int) count;
+        long end = Math.addExact(start, Math.multiplyExact(count, step));
+        if (n > 0) {
+            SrArray out = array(locals[target], start, step, n);
+            store(out, evaluate(expr, locals, constants, start, step, n), start, step, n);
+        }
+        locals[counter] = SrValue.valueOf(end);
+    }
+
+    private static void store(SrArray out, Column result, long start, long step, int n) {
+        if (out.doubles != null) {
+            if (!result.isFloat()) throw FALLBACK;
+            for (int k = 0; k < n; k++) {
+                out.doubles[(int) (start + k * step)] = result.scalar != null ? result.scalar.asFloat() : result.doubles[k];
+            }
+        } else if (out.longs != null) {
+            if (result.isFloat()) throw FALLBACK;
+            for (int k = 0; k < n; k++) {
+                int index = (int) (start + k * step);
+                out.longs[index] = result.scalar != null ? result.scalar.asLong() : result.longs[k];
+                if (out.bigs != null) out.bigs[index] = null;
+            }
+        } else {
+            for (int k = 0; k < n; k++) {
+                int index = (int) (start + k * step);
+                if (result.scalar != null) {
+                    out.elements[index] = result.scalar;
+                } else if (result.doubles != null) {
+                    out.elements[index] = new SrValue(result.doubles[k]);
+                } else {
+                    out.elements[index] = SrValue.valueOf(result.longs[k]);
+                }
+            }
+        }
+    }
+
+    private SrValue boundValue(SrValue[] locals, List<SrValue> constants) {
+        int index = Integer.parseInt(bound.substring(1));
+        return switch (bound.charAt(0)) {
+            case 'C' -> constants.get(index);
+            case 'L' -> locals[index];
+            default -> {
+                SrValue arr = locals[index];
+                if (arr == null || arr.type != SrValue.Type.OBJECT || !(arr.asObject() instanceof SrArray array)) {
+                    throw FALLBACK;
+                }
+                yield SrValue.valueOf(array.getSize());
+            }
+        };
+    }
+
+    private static long smallInt(SrValue value) {
+        if (value == null || !value.isSmallInt()) throw FALLBACK;
+        return value.asLong();
+    }
+
+    private static SrArray array(SrValue value, long start, long step, int n) {
+        if (value == null || value.type != SrValue.Type.OBJECT || !(value.asObject() instanceof SrArray array)) {
+            throw FALLBACK;
+        }
+        if (array.columns != null || array.elements == null && array.longs == null && array.doubles == null) throw FALLBACK;
+        long last = start + (n - 1) * step;
+        if (start < 0 || last >= array.getSize()) throw FALLBACK;
+        return array;
+    }
+
+    private Column evaluate(Node node, SrValue[] locals, List<SrValue> constants, long start, long step, int n) {
+        return switch (node) {
+            case ArrayRead read -> gather(array(locals[read.slot()], start, step, n), start, step, n);
+            case Scalar scalar -> {
+                SrValue value = scalar.source() == 'C' ? constants.get(scalar.index()) : locals[scalar.index()];
+                if (value == null || !(value.isSmallInt() || value.type == SrValue.Type.FLOAT)) throw FALLBACK;
+                yield new Column(null, null, value);
+            }
+            case Index index -> {
+                long[] values = new long[n];
+                for (int k = 0; k < n; k++) values[k] = start + k * step;
+                yield new Column(values, null, null);
+            }
+            case Binary binary -> combine(binary.op(),
+                    evaluate(binary.left(), locals, constants, start, step, n),
+                    evaluate(binary.right(), locals, constants, start, step, n), n);
+        };
+    }
+
+    private Column gather(SrArray array, long start, long step, int n) {
+        if (array.doubles != null) {
+            double[] values = new double[n];
+            for (int k = 0; k < n; k++) values[k] = array.doubles[(int) (start + k * step)];
+            return new Column(null, values, null);
+        }
+        if (array.longs != null) {
+            if (array.bigs != null) throw FALLBACK;
+            long[] values = new long[n];
+            for (int k = 0; k < n; k++) values[k] = array.longs[(int) (start + k * step)];
+            return new Column(values, null, null);
+        }
+        SrValue first = array.elements[(int) start];
+        if (first != null && first.type == SrValue.Type.FLOAT) {
+            double[] values = new double[n];
+            for (int k = 0; k < n; k++) {
+                SrValue v = array.elements[(int) (start + k * step)];
+                if (v == null || v.type != SrValue.Type.FLOAT) throw FALLBACK;
+                values[k] = v.asFloat();
+            }
+            return new Column(null, values, null);
+        }
+        long[] values = new long[n];
+        for (int k = 0; k < n; k++) {
+            SrValue v = array.elements[(int) (start + k * step)];
+            if (v == null || !v.isSmallInt()) throw FALLBACK;
+            values[k] = v.asLong();
+        }
+        return new Column(values, null, null);
+    }
+
+    private Column combine(OpCode op, Column a, Column b, int n) {
+        if (a.isFloat() || b.isFloat()) {
+            if (a.scalar != null && b.scalar != null) {
+                return new Column(null, null, new SrValue(applyDouble(op, a.scalar.asFloat(), b.scalar.asFloat())));
+            }
+            double[] out = new double[n];
+            if (a.scalar != null) {
+                doubleOps.applyScalarLeft(op, a.scalar.asFloat(), toDoubles(b, n), out);
+            } else if (b.scalar != null) {
+                doubleOps.applyScalarRight(op, toDoubles(a, n), b.scalar.asFloat(), out);
+            } else {
+                doubleOps.apply(op, toDoubles(a, n), toDoubles(b, n), out);
+            }
+            return new Column(null, out, null);
+        }
+        if (a.scalar != null && b.scalar != null) {
+            return new Column(null, null, SrValue.valueOf(applyLong(op, a.scalar.asLong(), b.scalar.asLong())));
+        }
+        long[] out = new long[n];
+        for (int k = 0; k < n; k++) {
+            long x = a.scalar != null ? a.scalar.asLong() : a.longs[k];
+            long y = b.scalar != null ? b.scalar.asLong() : b.longs[k];
+            out[k] = applyLong(op, x, y);
+        }
+        return new Column(out, null, null);
+    }
+
+    private static double[] toDoubles(Column column, int n) {
+        if (column.doubles != null) return column.doubles;
+        double[] values = new double[n];
+        for (int k = 0; k < n; k++) values[k] = column.longs[k];
+        return values;
+    }
+
+    static double applyDouble(OpCode op, double a, double b) {
+        return switch (op) {
+            case ADD -> a + b;
+            case SUB -> a - b;
+            case MUL -> a * b;
+            default -> a / b;
+        };
+    }
+
+    private static long applyLong(OpCode op, long a, long b) {
+        return switch (op) {
+            case ADD -> Math.addExact(a, b);
+            case SUB -> Math.subtractExact(a, b);
+            case MUL -> Math.multiplyExact(a, b);
+            default -> {
+                if (b == 0 || (a == Long.MIN_VALUE && b == -1)) throw FALLBACK;
+                yield a / b;
+            }
+        };
+    }
+}
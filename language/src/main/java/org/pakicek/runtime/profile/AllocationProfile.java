@@ -0,0 +1,134 @@
+package org.pakicek.runtime.profile;
+
+import org.pakicek.runtime.gc.Heap;
+import org.pakicek.runtime.vm.SrArray;
+import org.pakicek.runtime.vm.SrObject;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+public class AllocationProfile {
+    private static final String HEADER = "# Slowrace allocation profile v1";
+
+    private final Map<String, Site> sites = new HashMap<>();
+    private final Map<SrObject, Allocation> objects = new WeakHashMap<>();
+    private int collections = 0;
+
+    public static class Site {
+        private final String function;
+        private final int offset;
+        private final int line;
+        private final String kind;
+        private long allocations;
+        private long bytes;
+        private long survivors;
+        private long survivals;
+
+        private Site(String function, int offset, int line, String kind) {
+            this.function = function;
+            this.offset = offset;
+            this.line = line;
+            this.kind = kind;
+        }
+
+        public String getFunction() {
+            return function;
+        }
+
+        public int getOffset() {
+            return offset;
+        }
+
+        public int getLine() {
+            return line;
+        }
+
+        public long getAllocations() {
+            return allocations;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public long getSurvivors() {
+            return survivors;
+        }
+
+        public long getSurvivals() {
+            return survivals;
+        }
+    }
+
+    private static class Allocation {
+        final Site site;
+        boolean survived;
+
+        Allocation(Site site) {
+            this.site = site;
+        }
+    }
+
+    public void recordAllocation(String function, int offset, int line, SrObject obj) {
+        String kind = obj instanceof SrArray ? "array" : "struct";
+        Site site = sites.computeIfAbsent(function + " " + offset,
+                k -> new Site(function, offset, line, kind));
+        site.allocations++;
+        site.bytes += Heap.estimateBytes(obj);
+        objects.put(obj, new Allocation(site));
+    }
+
+    public void afterCollections(Heap heap) {
+        int total = heap.getMinorCollections() + heap.getMajorCollections();
+        if (total == collections) return;
+        collections = total;
+        Iterator<Map.Entry<SrObject, Allocation>> it = objects.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<SrObject, Allocation> entry = it.next();
+            if (!heap.isLive(entry.getKey())) {
+                it.remove();
+                continue;
+            }
+            Allocation allocation = entry.getValue();
+            allocation.site.survivals++;
+            if (!allocation.survived) {
+                allocation.survived = true;
+                allocation.site.survivors++;
+            }
+        }
+    }
+
+    public List<Site> sites() {
+        List<Site> sorted = new ArrayList<>(sites.values());
+        sorted.sort(Comparator.comparingLong(Site::getBytes).reversed()
+                .thenComparing(Site::getFunction).thenComparingInt(Site::getOffset));
+        return sorted;
+    }
+
+    public void save(Path path) throws IOException {
+        try (Writer out = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            write(out);
+        }
+    }
+
+    public void write(Writer writer) throws IOException {
+        PrintWriter out = new PrintWriter(writer);
+        out.println(HEADER);
+        out.println("# collections " + collections);
+        out.printf("# %-20s %8s %6s %-6s %12s %14s %10s %10s%n",
+                "function", "offset", "line", "kind", "allocations", "bytes", "survivors", "survivals");
+        for (Site site : sites()) {
+            out.printf("  %-20s %8d %6d %-6s %12d %14d %10d %10d%n", site.function, site.offset, site.line,
+                    site.kind, site.allocations, site.bytes, site.survivors, site.survivals);
+        }
+        out.flush();
+        if (out.checkError()) {
+            throw new IOException("Failed to write allocation profile");
+        }
+    }
+}
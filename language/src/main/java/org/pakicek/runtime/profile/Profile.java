@@ -0,0 +1,149 @@
+package org.pakicek.runtime.profile;
+
+import org.pakicek.runtime.vm.SrValue;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+public class Profile {
+    public static final String MAIN = "main";
+    private static final String HEADER = "# Slowrace profile v1";
+
+    private final Map<String, FunctionProfile> functions = new HashMap<>();
+
+    public static class FunctionProfile {
+        private long calls;
+        private final Map<Integer, long[]> branches = new HashMap<>();
+        private final Map<Integer, Long> loops = new HashMap<>();
+        private final Map<Integer, EnumSet<SrValue.Type>> operandTypes = new HashMap<>();
+
+        public long getCalls() {
+            return calls;
+        }
+
+        public void recordCall() {
+            calls++;
+        }
+
+        public void recordBranch(int offset, boolean taken) {
+            long[] counts = branches.computeIfAbsent(offset, k -> new long[2]);
+            counts[taken ? 0 : 1]++;
+        }
+
+        public void recordLoopIteration(int offset) {
+            loops.merge(offset, 1L, Long::sum);
+        }
+
+        public void recordOperands(int offset, SrValue a, SrValue b) {
+            EnumSet<SrValue.Type> types = operandTypes.computeIfAbsent(offset, k -> EnumSet.noneOf(SrValue.Type.class));
+            types.add(a.type);
+            types.add(b.type);
+        }
+
+        public long branchTaken(int offset) {
+            long[] counts = branches.get(offset);
+            return counts == null ? 0 : counts[0];
+        }
+
+        public long branchSamples(int offset) {
+            long[] counts = branches.get(offset);
+            return counts == null ? 0 : counts[0] + counts[1];
+        }
+
+        public double takenRatio(int offset) {
+            long samples = branchSamples(offset);
+            return samples == 0 ? -1 : (double) branchTaken(offset) / samples;
+        }
+
+        public long loopIterations(int offset) {
+            return loops.getOrDefault(offset, 0L);
+        }
+
+        public Set<SrValue.Type> operandTypes(int offset) {
+            EnumSet<SrValue.Type> types = operandTypes.get(offset);
+            return types == null ? Set.of() : Collections.unmodifiableSet(types);
+        }
+    }
+
+    public FunctionProfile function(String name) {
+        return functions.computeIfAbsent(name, k -> new FunctionProfile());
+    }
+
+    public FunctionProfile get(String name) {
+        return functions.get(name);
+    }
+
+    public Set<String> functionNames() {
+        return Collections.unmodifiableSet(functions.keySet());
+    }
+
+    public void save(Path path) throws IOException {
+        try (Writer out = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            write(out);
+        }
+    }
+
+    public static Profile load(Path path) throws IOException {
+        try (Reader in = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            return read(in);
+        }
+    }
+
+    public void write(Writer writer) throws IOException {
+        PrintWriter out = new PrintWriter(writer);
+        out.println(HEADER);
+        for (String name : new TreeSet<>(functions.keySet())) {
+            FunctionProfile fp = functions.get(name);
+            out.println("function " + name + " " + fp.calls);
+            for (Map.Entry<Integer, long[]> e : new TreeMap<>(fp.branches).entrySet()) {
+                out.println("branch " + name + " " + e.getKey() + " " + e.getValue()[0] + " " + e.getValue()[1]);
+            }
+            for (Map.Entry<Integer, Long> e : new TreeMap<>(fp.loops).entrySet()) {
+                out.println("loop " + name + " " + e.getKey() + " " + e.getValue());
+            }
+            for (Map.Entry<Integer, EnumSet<SrValue.Type>> e : new TreeMap<>(fp.operandTypes).entrySet()) {
+                StringJoiner types = new StringJoiner(",");
+                for (SrValue.Type type : e.getValue()) types.add(type.name());
+                out.println("types " + name + " " + e.getKey() + " " + types);
+            }
+        }
+        out.flush();
+        if (out.checkError()) {
+            throw new IOException("Failed to write profile");
+        }
+    }
+
+    public static Profile read(Reader reader) throws IOException {
+        Profile profile = new Profile();
+        BufferedReader in = new BufferedReader(reader);
+        String line;
+        int lineNumber = 0;
+        while ((line = in.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            String[] parts = line.split("\\s+");
+            try {
+                FunctionProfile fp = profile.function(parts[1]);
+                switch (parts[0]) {
+                    case "function" -> fp.calls = Long.parseLong(parts[2]);
+                    case "branch" -> fp.branches.put(Integer.parseInt(parts[2]),
+                            new long[]{Long.parseLong(parts[3]), Long.parseLong(parts[4])});
+                    case "loop" -> fp.loops.put(Integer.parseInt(parts[2]), Long.parseLong(parts[3]));
+                    case "types" -> {
+                        EnumSet<SrValue.Type> types = EnumSet.noneOf(SrValue.Type.class);
+                        for (String type : parts[3].split(",")) types.add(SrValue.Type.valueOf(type));
+                        fp.operandTypes.put(Integer.parseInt(parts[2]), types);
+                    }
+                    default -> throw new IOException("Invalid profile line " + lineNumber + ": " + line);
+                }
+            } catch (IndexOutOfBoundsException | IllegalArgumentException e) {
+                throw new IOException("Invalid profile line " + lineNumber + ": " + line);
+            }
+        }
+        return profile;
+    }
+}
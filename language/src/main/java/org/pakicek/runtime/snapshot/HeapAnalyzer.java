@@ -0,0 +1,189 @@
+package org.pakicek.runtime.snapshot;
+
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.IntStream;
+
+public class HeapAnalyzer {
+    public static final int DEFAULT_DOMINATORS = 10;
+
+    private final HeapSnapshot snapshot;
+    private final int[] idom;
+    private final long[] retained;
+    private final long[] typeCounts;
+    private final long[] typeShallow;
+    private final long[] typeRetained;
+
+    public HeapAnalyzer(HeapSnapshot snapshot) {
+        this.snapshot = snapshot;
+        int n = snapshot.objectCount() + 1;
+        int[] order = reversePostorder(n);
+        this.idom = dominators(n, order);
+        this.retained = new long[n];
+        for (int i = order.length - 1; i >= 1; i--) {
+            int node = order[i];
+            retained[node] += snapshot.bytes(node);
+            retained[idom[node]] += retained[node];
+        }
+        int types = snapshot.typeNames().size();
+        typeCounts = new long[types];
+        typeShallow = new long[types];
+        typeRetained = new long[types];
+        for (int id = 1; id < n; id++) {
+            typeCounts[snapshot.type(id)]++;
+            typeShallow[snapshot.type(id)] += snapshot.bytes(id);
+        }
+        retainedByType(n);
+    }
+
+    private int[] successors(int node) {
+        return node == 0 ? snapshot.roots() : snapshot.refs(node);
+    }
+
+    private int[] reversePostorder(int n) {
+        int[] post = new int[n];
+        int postCount = 0;
+        boolean[] visited = new boolean[n];
+        int[] stack = new int[n];
+        int[] next = new int[n];
+        int depth = 0;
+        stack[depth++] = 0;
+        visited[0] = true;
+        while (depth > 0) {
+            int node = stack[depth - 1];
+            int[] succ = successors(node);
+            if (next[node] < succ.length) {
+                int child = succ[next[node]++];
+                if (!visited[child]) {
+                    visited[child] = true;
+                    stack[depth++] = child;
+                }
+            } else {
+                depth--;
+                post[postCount++] = node;
+            }
+        }
+        int[] order = new int[postCount];
+        for (int i = 0; i < postCount; i++) order[i] = post[postCount - 1 - i];
+        return order;
+    }
+
+    private int[] dominators(int n, int[] order) {
+        int[] rank = new int[n];
+        for (int i = 0; i < order.length; i++) rank[order[i]] = i;
+        int[] predCount = new int[n + 1];
+        for (int node = 0; node < n; node++) {
+            for (int succ : successors(node)) predCount[succ + 1]++;
+        }
+        for (int i = 0; i < n; i++) predCount[i + 1] += predCount[i];
+        int[] preds = new int[predCount[n]];
+        int[] fill = Arrays.copyOf(predCount, n);
+        for (int node = 0; node < n; node++) {
+            for (int succ : successors(node)) preds[fill[succ]++] = node;
+        }
+
+        int[] dom = new int[n];
+        Arrays.fill(dom, -1);
+        dom[0] = 0;
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = 1; i < order.length; i++) {
+                int node = order[i];
+                int candidate = -1;
+                for (int p = predCount[node]; p < predCount[node + 1]; p++) {
+                    int pred = preds[p];
+                    if (dom[pred] == -1) continue;
+                    candidate = candidate == -1 ? pred : intersect(dom, rank, pred, candidate);
+                }
+                if (candidate != dom[node]) {
+                    dom[node] = candidate;
+                    changed = true;
+                }
+            }
+        }
+        return dom;
+    }
+
+    private static int intersect(int[] dom, int[] rank, int a, int b) {
+        while (a != b) {
+            while (rank[a] > rank[b]) a = dom[a];
+            while (rank[b] > rank[a]) b = dom[b];
+        }
+        return a;
+    }
+
+    private void retainedByType(int n) {
+        int[] childCount = new int[n + 1];
+        for (int node = 1; node < n; node++) childCount[idom[node] + 1]++;
+        for (int i = 0; i < n; i++) childCount[i + 1] += childCount[i];
+        int[] children = new int[Math.max(0, n - 1)];
+        int[] fill = Arrays.copyOf(childCount, n);
+        for (int node = 1; node < n; node++) children[fill[idom[node]]++] = node;
+
+        int[] onPath = new int[typeCounts.length];
+        ArrayDeque<Integer> stack = new ArrayDeque<>();
+        stack.push(0);
+        while (!stack.isEmpty()) {
+            int entry = stack.pop();
+            if (entry < 0) {
+                onPath[snapshot.type(~entry)]--;
+                continue;
+            }
+            if (entry != 0) {
+                int type = snapshot.type(entry);
+                if (onPath[type]++ == 0) typeRetained[type] += retained[entry];
+                stack.push(~entry);
+            }
+            for (int c = childCount[entry]; c < childCount[entry + 1]; c++) {
+                stack.push(children[c]);
+            }
+        }
+    }
+
+    public long retainedSize(int id) {
+        return retained[id];
+    }
+
+    public int immediateDominator(int id) {
+        return idom[id];
+    }
+
+    public long totalBytes() {
+        return retained[0];
+    }
+
+    public long retainedByType(String name) {
+        int type = snapshot.typeNames().indexOf(name);
+        return type < 0 ? 0 : typeRetained[type];
+    }
+
+    public int[] largestDominators(int limit) {
+        return IntStream.rangeClosed(1, snapshot.objectCount()).boxed()
+                .sorted(Comparator.comparingLong((Integer id) -> retained[id]).reversed())
+                .limit(limit).mapToInt(Integer::intValue).toArray();
+    }
+
+    public void report(PrintStream out, int dominators) {
+        out.println("Heap snapshot: " + snapshot.objectCount() + " objects, " + totalBytes() + " bytes, "
+                + snapshot.roots().length + " roots");
+        out.println();
+        out.printf("%-24s %10s %14s %14s%n", "Type", "Count", "Shallow", "Retained");
+        Integer[] order = IntStream.range(0, typeCounts.length).boxed()
+                .filter(t -> typeCounts[t] > 0)
+                .sorted(Comparator.comparingLong((Integer t) -> typeRetained[t]).reversed())
+                .toArray(Integer[]::new);
+        for (int type : order) {
+            out.printf("%-24s %10d %14d %14d%n", snapshot.typeNames().get(type), typeCounts[type],
+                    typeShallow[type], typeRetained[type]);
+        }
+        out.println();
+        out.println("Largest dominators:");
+        out.printf("%-10s %-24s %14s %14s%n", "Id", "Type", "Shallow", "Retained");
+        for (int id : largestDominators(dominators)) {
+            out.printf("%-10s %-24s %14d %14d%n", "#" + id, snapshot.typeName(id), snapshot.bytes(id), retained[id]);
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package org.pakicek.runtime.snapshot;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class HeapSnapshot {
+    public static final String ARRAY_TYPE = "<array>";
+
+    private final List<String> typeNames = new ArrayList<>();
+    private int[] types = new int[16];
+    private long[] bytes = new long[16];
+    private int[][] refs = new int[16][];
+    private int[] roots = new int[16];
+    private int count = 0;
+    private int rootCount = 0;
+
+    public static HeapSnapshot read(Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 64 << 10))) {
+            return read(in);
+        }
+    }
+
+    private static HeapSnapshot read(DataInputStream in) throws IOException {
+        byte[] magic = new byte[HeapSnapshotWriter.MAGIC.length];
+        in.readFully(magic);
+        if (!Arrays.equals(magic, HeapSnapshotWriter.MAGIC) || in.readShort() != HeapSnapshotWriter.VERSION) {
+            throw new IOException("Not a Slowrace heap snapshot");
+        }
+        HeapSnapshot snapshot = new HeapSnapshot();
+        while (true) {
+            byte tag = in.readByte();
+            switch (tag) {
+                case HeapSnapshotWriter.TAG_END -> {
+                    snapshot.typeNames.add(ARRAY_TYPE);
+                    for (int i = 1; i <= snapshot.count; i++) {
+                        if (snapshot.types[i] == -1) snapshot.types[i] = snapshot.typeNames.size() - 1;
+                    }
+                    return snapshot;
+                }
+                case HeapSnapshotWriter.TAG_TYPE -> {
+                    int type = in.readInt();
+                    byte[] name = new byte[in.readShort()];
+                    in.readFully(name);
+                    if (type != snapshot.typeNames.size()) throw new IOException("Invalid type record " + type);
+                    snapshot.typeNames.add(new String(name, StandardCharsets.UTF_8));
+                }
+                case HeapSnapshotWriter.TAG_ROOT -> {
+                    if (snapshot.rootCount == snapshot.roots.length) {
+                        snapshot.roots = Arrays.copyOf(snapshot.roots, snapshot.rootCount * 2);
+                    }
+                    snapshot.roots[snapshot.rootCount++] = in.readInt();
+                }
+                case HeapSnapshotWriter.TAG_ARRAY -> {
+                    int id = in.readInt();
+                    long size = in.readLong();
+                    in.readInt();
+                    snapshot.add(id, -1, size, readRefs(in));
+                }
+                case HeapSnapshotWriter.TAG_STRUCT -> {
+                    int id = in.readInt();
+                    int type = in.readInt();
+                    long size = in.readLong();
+                    snapshot.add(id, type, size, readRefs(in));
+                }
+                default -> throw new IOException("Invalid snapshot record tag " + tag);
+            }
+        }
+    }
+
+    private static int[] readRefs(DataInputStream in) throws IOException {
+        int[] out = new int[in.readInt()];
+        for (int i = 0; i < out.length; i++) out[i] = in.readInt();
+        return out;
+    }
+
+    private void add(int id, int type, long size, int[] outgoing) throws IOException {
+        if (id != count + 1) throw new IOException("Out of order object record " + id);
+        count = id;
+        if (id >= types.length) {
+            int capacity = types.length * 2;
+            types = Arrays.copyOf(types, capacity);
+            bytes = Arrays.copyOf(bytes, capacity);
+            refs = Arrays.copyOf(refs, capacity);
+        }
+        types[id] = type;
+        bytes[id] = size;
+        refs[id] = outgoing;
+    }
+
+    public int objectCount() {
+        return count;
+    }
+
+    public int[] roots() {
+        return Arrays.copyOf(roots, rootCount);
+    }
+
+    public List<String> typeNames() {
+        return typeNames;
+    }
+
+    public String typeName(int id) {
+        return typeNames.get(types[id]);
+    }
+
+    public int type(int id) {
+        return types[id];
+    }
+
+    public long bytes(int id) {
+        return bytes[id];
+    }
+
+    public int[] refs(int id) {
+        return refs[id];
+    }
+}
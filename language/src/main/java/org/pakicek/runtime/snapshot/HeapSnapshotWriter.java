@@ -0,0 +1,142 @@
+package org.pakicek.runtime.snapshot;
+
+import org.pakicek.runtime.VirtualMachine;
+import org.pakicek.runtime.gc.Heap;
+import org.pakicek.runtime.vm.SrArray;
+import org.pakicek.runtime.vm.SrObject;
+import org.pakicek.runtime.vm.SrStruct;
+import org.pakicek.runtime.vm.SrValue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+public class HeapSnapshotWriter implements AutoCloseable {
+    static final byte[] MAGIC = "SRHEAP".getBytes(StandardCharsets.US_ASCII);
+    static final short VERSION = 1;
+
+    static final byte TAG_END = 0;
+    static final byte TAG_TYPE = 1;
+    static final byte TAG_ROOT = 2;
+    static final byte TAG_ARRAY = 3;
+    static final byte TAG_STRUCT = 4;
+
+    private static final int BUFFER_BYTES = 64 << 10;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_BYTES);
+    private final Map<SrObject, Integer> ids = new IdentityHashMap<>();
+    private final Map<String, Integer> types = new HashMap<>();
+    private final ArrayDeque<SrObject> pending = new ArrayDeque<>();
+    private final List<Integer> refs = new ArrayList<>();
+    private int objects = 0;
+
+    private HeapSnapshotWriter(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        buffer.put(MAGIC).putShort(VERSION);
+    }
+
+    public static int write(VirtualMachine vm, Path path) throws IOException {
+        try (HeapSnapshotWriter writer = new HeapSnapshotWriter(path)) {
+            return writer.writeHeap(vm);
+        }
+    }
+
+    private int writeHeap(VirtualMachine vm) throws IOException {
+        Heap heap = vm.getHeap();
+        Set<SrObject> roots = Collections.newSetFromMap(new IdentityHashMap<>());
+        vm.scanRoots(val -> {
+            if (val.type != SrValue.Type.OBJECT || val.asObject() == null) return;
+            SrObject obj = val.asObject();
+            if (obj.heapSpace < 0 || heap.isLive(obj)) roots.add(obj);
+        });
+        for (SrObject root : roots) {
+            ensure(5);
+            buffer.put(TAG_ROOT).putInt(idOf(root));
+        }
+        while (!pending.isEmpty()) {
+            writeObject(pending.poll());
+        }
+        ensure(1);
+        buffer.put(TAG_END);
+        return objects;
+    }
+
+    private int idOf(SrObject obj) {
+        Integer id = ids.get(obj);
+        if (id == null) {
+            id = ids.size() + 1;
+            ids.put(obj, id);
+            pending.add(obj);
+        }
+        return id;
+    }
+
+    private void writeObject(SrObject obj) throws IOException {
+        objects++;
+        refs.clear();
+        int id = ids.get(obj);
+        if (obj instanceof SrArray array) {
+            if (array.elements != null) {
+                for (SrValue el : array.elements) addRef(el);
+            }
+            ensure(21);
+            buffer.put(TAG_ARRAY).putInt(id).putLong(Heap.estimateBytes(obj)).putInt(array.getSize());
+        } else {
+            SrStruct struct = (SrStruct) obj;
+            for (SrValue val : struct.fields) addRef(val);
+            int type = typeOf(struct.name);
+            ensure(17);
+            buffer.put(TAG_STRUCT).putInt(id).putInt(type).putLong(Heap.estimateBytes(obj));
+        }
+        ensure(4);
+        buffer.putInt(refs.size());
+        for (int ref : refs) {
+            ensure(4);
+            buffer.putInt(ref);
+        }
+    }
+
+    private void addRef(SrValue val) {
+        if (val != null && val.type == SrValue.Type.OBJECT && val.asObject() != null) {
+            refs.add(idOf(val.asObject()));
+        }
+    }
+
+    private int typeOf(String name) throws IOException {
+        Integer type = types.get(name);
+        if (type != null) return type;
+        type = types.size();
+        types.put(name, type);
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        ensure(7 + bytes.length);
+        buffer.put(TAG_TYPE).putInt(type).putShort((short) bytes.length).put(bytes);
+        return type;
+    }
+
+    private void ensure(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) flush();
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+}
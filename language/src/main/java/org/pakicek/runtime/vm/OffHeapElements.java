@@ -0,0 +1,75 @@
+package org.pakicek.runtime.vm;
+
+import java.nio.ByteBuffer;
+
+public final class OffHeapElements {
+    private final ByteBuffer buffer;
+    private final int length;
+    private final SrArray.ElementType type;
+
+    public OffHeapElements(ByteBuffer buffer, int length, SrArray.ElementType type) {
+        if (!supports(type)) {
+            throw new RuntimeException("Memory Error: " + type + " arrays cannot be stored off-heap");
+        }
+        if (buffer.capacity() < bytesFor(length, type)) {
+            throw new RuntimeException("Memory Error: off-heap buffer too small for " + length + " elements");
+        }
+        this.buffer = buffer;
+        this.length = length;
+        this.type = type;
+    }
+
+    public static boolean supports(SrArray.ElementType type) {
+        return type == SrArray.ElementType.INT || type == SrArray.ElementType.FLOAT || type == SrArray.ElementType.BOOL;
+    }
+
+    public static long bytesFor(int length, SrArray.ElementType type) {
+        if (type == SrArray.ElementType.BOOL) return (long) ((length + 63) >>> 6) * Long.BYTES;
+        return (long) length * Long.BYTES;
+    }
+
+    public ByteBuffer buffer() {
+        return buffer;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public SrArray.ElementType type() {
+        return type;
+    }
+
+    public boolean accepts(SrValue value) {
+        return switch (type) {
+            case INT -> value.isSmallInt();
+            case FLOAT -> value.type == SrValue.Type.FLOAT;
+            default -> value.type == SrValue.Type.BOOL;
+        };
+    }
+
+    public SrValue get(int index) {
+        if (type == SrArray.ElementType.BOOL) {
+            return SrValue.valueOf((buffer.getLong((index >>> 6) * Long.BYTES) & (1L << index)) != 0);
+        }
+        int offset = index * Long.BYTES;
+        return type == SrArray.ElementType.FLOAT
+                ? new SrValue(buffer.getDouble(offset))
+                : SrValue.valueOf(buffer.getLong(offset));
+    }
+
+    public void set(int index, SrValue value) {
+        if (type == SrArray.ElementType.BOOL) {
+            int offset = (index >>> 6) * Long.BYTES;
+            long word = buffer.getLong(offset);
+            buffer.putLong(offset, value.asBool() ? word | (1L << index) : word & ~(1L << index));
+            return;
+        }
+        int offset = index * Long.BYTES;
+        if (type == SrArray.ElementType.FLOAT) {
+            buffer.putDouble(offset, value.asFloat());
+        } else {
+            buffer.putLong(offset, value.asLong());
+        }
+    }
+}
@@ -1,13 +1,151 @@
 package org.pakicek.runtime.vm;
 
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.BitSet;
+
 public class SrArray extends SrObject {
-    public final SrValue[] elements;
+    public enum ElementType { ANY, INT, FLOAT, BOOL }
+
+    private static final SrValue ZERO = SrValue.valueOf(0);
+
+    public ElementType elementType;
+    public SrValue[] elements;
+    public long[] longs;
+    public BigInteger[] bigs;
+    public double[] doubles;
+    public long[] bits;
+    public OffHeapElements offHeap;
+    public StructColumns columns;
+    public BitSet dirtyCards;
+    private final int length;
 
     public SrArray(int size) {
-        this.elements = new SrValue[size];
-        for(int i = 0; i < size; i++) elements[i] = new SrValue(java.math.BigInteger.ZERO);
+        this(size, ElementType.ANY);
+    }
+
+    public SrArray(int size, ElementType elementType) {
+        this.elementType = elementType;
+        this.length = size;
+        switch (elementType) {
+            case INT -> longs = new long[size];
+            case FLOAT -> doubles = new double[size];
+            case BOOL -> bits = new long[(size + 63) >>> 6];
+            default -> {
+                elements = new SrValue[size];
+                Arrays.fill(elements, ZERO);
+            }
+        }
+    }
+
+    private SrArray(int size, StructShape shape) {
+        this.elementType = ElementType.ANY;
+        this.length = size;
+    }
+
+    public static SrArray columnar(int size, StructShape shape) {
+        SrArray array = new SrArray(size, shape);
+        array.columns = new StructColumns(shape, size, array);
+        return array;
+    }
+
+    public SrArray(OffHeapElements offHeap) {
+        this.elementType = offHeap.type();
+        this.offHeap = offHeap;
+        this.length = offHeap.length();
+    }
+
+    public SrValue get(int index) {
+        if (columns != null) return isPresent(index) ? elements[index] : ZERO;
+        if (elements != null) return elements[index];
+        if (longs != null) {
+            return bigs != null && bigs[index] != null ? new SrValue(bigs[index]) : SrValue.valueOf(longs[index]);
+        }
+        if (doubles != null) return new SrValue(doubles[index]);
+        if (bits != null) return SrValue.valueOf((bits[index >>> 6] & (1L << index)) != 0);
+        return offHeap.get(index);
+    }
+
+    public boolean isPresent(int index) {
+        return columns == null || elements != null && elements[index] != null;
+    }
+
+    public boolean accepts(int index, SrValue value) {
+        if (columns == null) return accepts(value);
+        if (!(value.type == SrValue.Type.OBJECT && value.asObject() instanceof SrStruct struct)) return false;
+        return struct.columns == columns ? struct.index == index : struct.canJoin(columns);
+    }
+
+    public boolean accepts(SrValue value) {
+        if (columns != null) return false;
+        if (elements != null) return true;
+        if (longs != null) return value.type == SrValue.Type.INT;
+        if (doubles != null) return value.type == SrValue.Type.FLOAT;
+        if (bits != null) return value.type == SrValue.Type.BOOL;
+        return offHeap.accepts(value);
+    }
+
+    public void set(int index, SrValue value) {
+        if (columns != null) {
+            if (!accepts(index, value)) throw new RuntimeException("Type Error: Cannot store " + value + " in a columnar struct array");
+            SrStruct struct = (SrStruct) value.asObject();
+            if (elements == null) elements = new SrValue[length];
+            if (struct.columns != columns) {
+                if (elements[index] != null) ((SrStruct) elements[index].asObject()).detach();
+                struct.attach(columns, index);
+            }
+            elements[index] = value;
+            mayContainRefs = true;
+            return;
+        }
+        if (elements == null && !accepts(value)) generalize();
+        if (elements != null) {
+            if (value.type == SrValue.Type.OBJECT) mayContainRefs = true;
+            elements[index] = value;
+        } else if (longs != null) {
+            if (value.isSmallInt()) {
+                longs[index] = value.asLong();
+                if (bigs != null) bigs[index] = null;
+            } else {
+                if (bigs == null) bigs = new BigInteger[length];
+                bigs[index] = value.asInt();
+            }
+        } else if (doubles != null) {
+            doubles[index] = value.asFloat();
+        } else if (bits != null) {
+            if (value.asBool()) {
+                bits[index >>> 6] |= 1L << index;
+            } else {
+                bits[index >>> 6] &= ~(1L << index);
+            }
+        } else {
+            offHeap.set(index, value);
+        }
+    }
+
+    public void generalize() {
+        if (columns != null) {
+            if (elements == null) elements = new SrValue[length];
+            for (int i = 0; i < length; i++) {
+                if (elements[i] == null) elements[i] = ZERO;
+            }
+            columns = null;
+            return;
+        }
+        if (elements != null) return;
+        SrValue[] values = new SrValue[length];
+        for (int i = 0; i < length; i++) {
+            values[i] = get(i);
+        }
+        elements = values;
+        elementType = ElementType.ANY;
+        longs = null;
+        bigs = null;
+        doubles = null;
+        bits = null;
+        offHeap = null;
     }
 
     @Override
-    public int getSize() { return elements.length; }
-}
\ No newline at end of file
+    public int getSize() { return length; }
+}
@@ -1,7 +1,11 @@
 package org.pakicek.runtime.vm;
 
 public abstract class SrObject {
-    public boolean isMarked = false;
+    public int heapSpace = -1;
+    public int heapSlot = -1;
+    public boolean isOld = false;
+    public boolean isRemembered = false;
+    public boolean mayContainRefs = false;
 
     public abstract int getSize();
-}
\ No newline at end of file
+}
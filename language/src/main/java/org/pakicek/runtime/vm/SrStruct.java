@@ -1,16 +1,134 @@
 package org.pakicek.runtime.vm;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.math.BigInteger;
 
 public class SrStruct extends SrObject {
     public final String name;
-    public final Map<String, SrValue> fields = new HashMap<>();
+    public final StructShape shape;
+    public SrValue[] fields;
+    public long[] longs;
+    public BigInteger[] bigs;
+    public double[] doubles;
+    public StructColumns columns;
+    public int index;
+    private boolean boxed;
 
-    public SrStruct(String name) {
-        this.name = name;
+    public SrStruct(StructShape shape) {
+        this.name = shape.name;
+        this.shape = shape;
+        this.fields = shape.refDefaults.clone();
+        this.boxed = shape.primitiveFields() == 0;
+        if (!boxed) {
+            longs = shape.longDefaults.clone();
+            doubles = shape.doubleDefaults.clone();
+        }
+    }
+
+    public SrValue get(int slot) {
+        if (columns != null) return columns.get(index, slot);
+        if (boxed) return fields[slot];
+        int at = shape.offsets[slot];
+        return switch (shape.kinds[slot]) {
+            case INT -> bigs != null && bigs[at] != null ? new SrValue(bigs[at]) : SrValue.valueOf(longs[at]);
+            case FLOAT -> new SrValue(doubles[at]);
+            case BOOL -> SrValue.valueOf(longs[at] != 0);
+            default -> fields[at];
+        };
+    }
+
+    public SrValue getField(String field) {
+        return get(shape.resolve(field));
+    }
+
+    public boolean accepts(int slot, SrValue value) {
+        if (columns != null) return columns.accepts(slot, value);
+        if (boxed) return true;
+        return switch (shape.kinds[slot]) {
+            case INT -> value.type == SrValue.Type.INT;
+            case FLOAT -> value.type == SrValue.Type.FLOAT;
+            case BOOL -> value.type == SrValue.Type.BOOL;
+            default -> true;
+        };
+    }
+
+    public void setField(int slot, SrValue value) {
+        if (!accepts(slot, value)) generalize();
+        if (columns != null) {
+            columns.set(index, slot, value);
+            return;
+        }
+        if (boxed) {
+            if (value.type == SrValue.Type.OBJECT) mayContainRefs = true;
+            fields[slot] = value;
+            return;
+        }
+        int at = shape.offsets[slot];
+        switch (shape.kinds[slot]) {
+            case INT -> {
+                if (value.isSmallInt()) {
+                    longs[at] = value.asLong();
+                    if (bigs != null) bigs[at] = null;
+                } else {
+                    if (bigs == null) bigs = new BigInteger[longs.length];
+                    bigs[at] = value.asInt();
+                }
+            }
+            case FLOAT -> doubles[at] = value.asFloat();
+            case BOOL -> longs[at] = value.asBool() ? 1 : 0;
+            default -> {
+                if (value.type == SrValue.Type.OBJECT) mayContainRefs = true;
+                fields[at] = value;
+            }
+        }
+    }
+
+    public void setField(String field, SrValue value) {
+        setField(shape.resolve(field), value);
+    }
+
+    public boolean isBoxed() { return boxed; }
+
+    public boolean isView() { return columns != null; }
+
+    public boolean canJoin(StructColumns target) {
+        return columns == null && !boxed && bigs == null && shape == target.shape;
+    }
+
+    public void attach(StructColumns target, int position) {
+        for (int slot = 0; slot < shape.size(); slot++) {
+            target.set(position, slot, get(slot));
+        }
+        longs = null;
+        doubles = null;
+        columns = target;
+        index = position;
+    }
+
+    public void detach() {
+        if (columns == null) return;
+        longs = new long[shape.longDefaults.length];
+        doubles = new double[shape.doubleDefaults.length];
+        StructColumns source = columns;
+        columns = null;
+        for (int slot = 0; slot < shape.size(); slot++) {
+            setField(slot, source.get(index, slot));
+        }
+    }
+
+    public void generalize() {
+        if (boxed) return;
+        detach();
+        SrValue[] values = new SrValue[shape.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = get(i);
+        }
+        fields = values;
+        longs = null;
+        bigs = null;
+        doubles = null;
+        boxed = true;
     }
 
     @Override
-    public int getSize() { return fields.size(); }
-}
\ No newline at end of file
+    public int getSize() { return shape.size(); }
+}
@@ -5,24 +5,72 @@ import java.math.BigInteger;
 public class SrValue {
     public enum Type { INT, FLOAT, BOOL, STRING, OBJECT, VOID }
 
+    private static final int CACHE_LOW = -128;
+    private static final int CACHE_HIGH = 1024;
+    private static final SrValue[] SMALL_INTS = new SrValue[CACHE_HIGH - CACHE_LOW];
+
+    static {
+        for (int i = 0; i < SMALL_INTS.length; i++) {
+            SMALL_INTS[i] = new SrValue(Type.INT, null, CACHE_LOW + i);
+        }
+    }
+
     public final Type type;
     private final Object value;
+    private final long small;
 
-    public SrValue(BigInteger val) { type = Type.INT; value = val; }
-    public SrValue(double val) { type = Type.FLOAT; value = val; }
-    public SrValue(boolean val) { type = Type.BOOL; value = val; }
-    public SrValue(String val) { type = Type.STRING; value = val; }
-    public SrValue(SrObject val) { type = Type.OBJECT; value = val; }
-    private SrValue() { type = Type.VOID; value = null; }
+    public SrValue(BigInteger val) {
+        type = Type.INT;
+        if (val.bitLength() < Long.SIZE) {
+            value = null;
+            small = val.longValue();
+        } else {
+            value = val;
+            small = 0;
+        }
+    }
+    public SrValue(double val) { type = Type.FLOAT; value = null; small = Double.doubleToRawLongBits(val); }
+    public SrValue(boolean val) { type = Type.BOOL; value = val; small = 0; }
+    public SrValue(String val) { type = Type.STRING; value = val; small = 0; }
+    public SrValue(SrObject val) { type = Type.OBJECT; value = val; small = 0; }
+    private SrValue() { type = Type.VOID; value = null; small = 0; }
+    private SrValue(Type type, Object value, long small) {
+        this.type = type;
+        this.value = value;
+        this.small = small;
+    }
 
     public static final SrValue VOID = new SrValue();
+    public static final SrValue TRUE = new SrValue(true);
+    public static final SrValue FALSE = new SrValue(false);
+
+    public static SrValue valueOf(long val) {
+        if (val >= CACHE_LOW && val < CACHE_HIGH) {
+            return SMALL_INTS[(int) val - CACHE_LOW];
+        }
+        return new SrValue(Type.INT, null, val);
+    }
+
+    public static SrValue valueOf(boolean val) {
+        return val ? TRUE : FALSE;
+    }
+
+    public boolean isSmallInt() {
+        return type == Type.INT && value == null;
+    }
+
+    public long asLong() {
+        return small;
+    }
 
     public BigInteger asInt() {
+        if (isSmallInt()) return BigInteger.valueOf(small);
         return (BigInteger) value;
     }
 
     public double asFloat() {
-        return value != null ? (Double) value : 0.0;
+        if (type == Type.INT) return isSmallInt() ? (double) small : ((BigInteger) value).doubleValue();
+        return type == Type.FLOAT ? Double.longBitsToDouble(small) : 0.0;
     }
 
     public boolean asBool() {
@@ -30,7 +78,7 @@ public class SrValue {
     }
 
     public String asString() {
-        return value == null ? "void" : value.toString();
+        return toString();
     }
 
     public SrObject asObject() {
@@ -39,6 +87,8 @@ public class SrValue {
 
     @Override
     public String toString() {
+        if (isSmallInt()) return Long.toString(small);
+        if (type == Type.FLOAT) return Double.toString(Double.longBitsToDouble(small));
         return value == null ? "void" : value.toString();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,45 @@
+package org.pakicek.runtime.vm;
+
+public class StructColumns {
+    public final StructShape shape;
+    public final SrArray owner;
+    public final long[][] longs;
+    public final double[][] doubles;
+
+    public StructColumns(StructShape shape, int length, SrArray owner) {
+        this.shape = shape;
+        this.owner = owner;
+        this.longs = new long[shape.longDefaults.length][length];
+        this.doubles = new double[shape.doubleDefaults.length][length];
+    }
+
+    public static boolean supports(StructShape shape) {
+        return shape.referenceFields() == 0 && shape.primitiveFields() > 0;
+    }
+
+    public SrValue get(int index, int slot) {
+        int at = shape.offsets[slot];
+        return switch (shape.kinds[slot]) {
+            case INT -> SrValue.valueOf(longs[at][index]);
+            case FLOAT -> new SrValue(doubles[at][index]);
+            default -> SrValue.valueOf(longs[at][index] != 0);
+        };
+    }
+
+    public boolean accepts(int slot, SrValue value) {
+        return switch (shape.kinds[slot]) {
+            case INT -> value.isSmallInt();
+            case FLOAT -> value.type == SrValue.Type.FLOAT;
+            default -> value.type == SrValue.Type.BOOL;
+        };
+    }
+
+    public void set(int index, int slot, SrValue value) {
+        int at = shape.offsets[slot];
+        switch (shape.kinds[slot]) {
+            case INT -> longs[at][index] = value.asLong();
+            case FLOAT -> doubles[at][index] = value.asFloat();
+            default -> longs[at][index] = value.asBool() ? 1 : 0;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package org.pakicek.runtime.vm;
+
+import java.util.Arrays;
+
+public class StructShape {
+    public final String name;
+    public final String[] fieldNames;
+    public final SrValue[] defaults;
+    public final SrArray.ElementType[] kinds;
+    public final int[] offsets;
+    final SrValue[] refDefaults;
+    final long[] longDefaults;
+    final double[] doubleDefaults;
+
+    public StructShape(String name, String[] fieldNames, SrValue[] defaults) {
+        this.name = name;
+        this.fieldNames = fieldNames;
+        this.defaults = defaults;
+        this.kinds = new SrArray.ElementType[defaults.length];
+        this.offsets = new int[defaults.length];
+        int refs = 0, longs = 0, doubles = 0;
+        for (int i = 0; i < defaults.length; i++) {
+            kinds[i] = kindOf(defaults[i]);
+            offsets[i] = switch (kinds[i]) {
+                case INT, BOOL -> longs++;
+                case FLOAT -> doubles++;
+                default -> refs++;
+            };
+        }
+        this.refDefaults = new SrValue[refs];
+        this.longDefaults = new long[longs];
+        this.doubleDefaults = new double[doubles];
+        for (int i = 0; i < defaults.length; i++) {
+            switch (kinds[i]) {
+                case INT -> longDefaults[offsets[i]] = defaults[i].asLong();
+                case BOOL -> longDefaults[offsets[i]] = defaults[i].asBool() ? 1 : 0;
+                case FLOAT -> doubleDefaults[offsets[i]] = defaults[i].asFloat();
+                default -> refDefaults[offsets[i]] = defaults[i];
+            }
+        }
+    }
+
+    public StructShape(String name, String... fieldNames) {
+        this(name, fieldNames, filled(fieldNames.length));
+    }
+
+    public int size() { return fieldNames.length; }
+
+    public int referenceFields() { return refDefaults.length; }
+
+    public int primitiveFields() { return longDefaults.length + doubleDefaults.length; }
+
+    public int slotOf(String field) {
+        for (int i = 0; i < fieldNames.length; i++) {
+            if (fieldNames[i].equals(field)) return i;
+        }
+        return -1;
+    }
+
+    public int resolve(String field) {
+        int slot = slotOf(field);
+        if (slot == -1) throw new RuntimeException("Type Error: Struct " + name + " has no field '" + field + "'");
+        return slot;
+    }
+
+    private static SrArray.ElementType kindOf(SrValue value) {
+        return switch (value.type) {
+            case INT -> value.isSmallInt() ? SrArray.ElementType.INT : SrArray.ElementType.ANY;
+            case FLOAT -> SrArray.ElementType.FLOAT;
+            case BOOL -> SrArray.ElementType.BOOL;
+            default -> SrArray.ElementType.ANY;
+        };
+    }
+
+    private static SrValue[] filled(int size) {
+        SrValue[] values = new SrValue[size];
+        Arrays.fill(values, SrValue.VOID);
+        return values;
+    }
+}
@@ -10,7 +10,10 @@ import org.pakicek.parser.lexer.Token;
 import org.pakicek.runtime.ProgramImage;
 import org.pakicek.runtime.bytecode.Chunk;
 import org.pakicek.runtime.bytecode.OpCode;
+import org.pakicek.runtime.vm.SrArray;
 
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
 
 public class BytecodeCompilerTest {
@@ -92,4 +95,134 @@ public class BytecodeCompilerTest {
         assertTrue(hasOpCode(chunk, OpCode.SET_ARRAY));
         assertTrue(hasOpCode(chunk, OpCode.GET_ARRAY));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testLivenessMapExcludesDeadLocalsAtAllocation() {
+        String code = """
+            struct Point {
+                int x;
+            }
+
+            main (int argc, array string argv[]) {
+                array int tmp[10];
+                int s = len(tmp);
+                Point p;
+                p.x = s;
+                print(p.x + argc);
+            }
+        """;
+        Chunk chunk = compileSource(code);
+        int newStruct = chunk.code.indexOf((byte) OpCode.NEW_STRUCT.ordinal());
+        BitSet live = chunk.liveLocalsAt(newStruct + 2);
+        assertNotNull(live);
+        assertEquals(BitSet.valueOf(new long[] { 0b1001 }), live);
+    }
+
+    @Test
+    public void testNewArrayCarriesDeclaredElementType() {
+        String code = """
+            main (int argc, array string argv[]) {
+                array float xs[4];
+                array bool flags[3] = [true, false, true];
+                array string names[2];
+                array int counts[argc];
+            }
+        """;
+        Chunk chunk = compileSource(code);
+        List<SrArray.ElementType> types = new ArrayList<>();
+        for (int ip = 0; ip < chunk.code.size(); ) {
+            OpCode op = OpCode.values()[chunk.code.get(ip)];
+            if (op == OpCode.NEW_ARRAY) types.add(SrArray.ElementType.values()[chunk.code.get(ip + 1)]);
+            ip += 1 + op.operandBytes();
+        }
+        assertEquals(List.of(SrArray.ElementType.FLOAT, SrArray.ElementType.BOOL, SrArray.ElementType.ANY,
+                SrArray.ElementType.INT), types);
+    }
+
+    @Test
+    public void testFieldAccessResolvesShapeSlots() {
+        String code = """
+            struct Point { float x; float y; }
+            struct Segment { Point from; Point to; }
+            main (int argc, array string argv[]) {
+                Segment s;
+                float val = s.to.y;
+            }
+        """;
+        ProgramImage image = new BytecodeCompiler().compile(new Parser(new Lexer(code).scanTokens()).parse());
+        assertEquals(List.of("Point", "Segment"), image.shapes.stream().map(shape -> shape.name).toList());
+        assertEquals(0.0, image.shapes.getFirst().defaults[1].asFloat());
+
+        Chunk chunk = image.mainChunk;
+        List<int[]> operands = new ArrayList<>();
+        for (int ip = 0; ip < chunk.code.size(); ) {
+            OpCode op = OpCode.values()[chunk.code.get(ip)];
+            if (op == OpCode.NEW_STRUCT) operands.add(new int[] { chunk.code.get(ip + 1) });
+            if (op == OpCode.GET_FIELD) operands.add(new int[] { chunk.code.get(ip + 1), chunk.code.get(ip + 2) });
+            ip += 1 + op.operandBytes();
+        }
+        assertEquals(3, operands.size());
+        assertArrayEquals(new int[] { 1 }, operands.get(0));
+        assertArrayEquals(new int[] { 1, 1 }, operands.get(1));
+        assertArrayEquals(new int[] { 0, 1 }, operands.get(2));
+    }
+
+    @Test
+    public void testElementFieldAccessIsFused() {
+        String code = """
+            struct Point { int x; float y; }
+            main (int argc, array string argv[]) {
+                array Point ps[4];
+                ps[1].y = 2.5;
+                print(ps[1].x);
+            }
+        """;
+        Chunk chunk = compileSource(code);
+        assertTrue(hasOpCode(chunk, OpCode.NEW_STRUCT_ARRAY));
+        assertTrue(hasOpCode(chunk, OpCode.SET_ELEMENT_FIELD));
+        assertTrue(hasOpCode(chunk, OpCode.GET_ELEMENT_FIELD));
+        assertFalse(hasOpCode(chunk, OpCode.GET_ARRAY));
+        assertFalse(hasOpCode(chunk, OpCode.NEW_ARRAY));
+    }
+
+    @Test
+    public void testEqualityUsesTypedVariantsForKnownTypes() {
+        String code = """
+            main (int argc, array string argv[]) {
+                float a = 1.5;
+                array bool flags[2];
+                bool same = a != 2.0;
+                bool set = flags[0] == true;
+                bool args = argc == 1;
+            }
+        """;
+        Chunk chunk = compileSource(code);
+        assertTrue(hasOpCode(chunk, OpCode.NEQ_FLOAT));
+        assertTrue(hasOpCode(chunk, OpCode.EQ_BOOL));
+        assertTrue(hasOpCode(chunk, OpCode.EQ));
+        assertFalse(hasOpCode(chunk, OpCode.NEQ));
+    }
+
+    @Test
+    public void testStringConcatenationChainsAreFused() {
+        String code = """
+            main (int argc, array string argv[]) {
+                float avg = 2.5;
+                string report = "n=" + argc + ", avg=" + avg + "!";
+                string total = argc + 1 + " args";
+                int sum = argc + 2 + 3;
+            }
+        """;
+        Chunk chunk = compileSource(code);
+        List<Integer> concatCounts = new ArrayList<>();
+        int adds = 0;
+        for (int ip = 0; ip < chunk.code.size(); ) {
+            OpCode op = OpCode.values()[chunk.code.get(ip)];
+            if (op == OpCode.CONCAT) concatCounts.add((int) chunk.code.get(ip + 1));
+            if (op == OpCode.ADD) adds++;
+            ip += 1 + op.operandBytes();
+        }
+        assertEquals(List.of(5, 2), concatCounts);
+        assertEquals(3, adds);
+    }
+}
@@ -6,12 +6,17 @@ import static org.junit.jupiter.api.Assertions.*;
 import org.pakicek.runtime.ProgramImage;
 import org.pakicek.runtime.bytecode.Chunk;
 import org.pakicek.runtime.bytecode.OpCode;
+import org.pakicek.runtime.profile.Profile;
 import org.pakicek.runtime.vm.SrValue;
+import org.pakicek.runtime.vm.StructShape;
 
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.math.BigInteger;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 public class BytecodeIOTest {
@@ -52,4 +57,67 @@ public class BytecodeIOTest {
 
         assertTrue(tempFile.delete(), "Could not delete temp file");
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testProfileIsEmbedded() throws IOException {
+        Chunk mainChunk = new Chunk();
+        mainChunk.emit(OpCode.HALT, 1);
+        ProgramImage original = new ProgramImage(mainChunk, new HashMap<>());
+        original.profile = new Profile();
+        Profile.FunctionProfile fp = original.profile.function("hot");
+        for (int i = 0; i < 12; i++) fp.recordCall();
+        fp.recordBranch(7, true);
+        fp.recordBranch(7, false);
+        fp.recordBranch(7, true);
+        fp.recordLoopIteration(20);
+        fp.recordOperands(4, new SrValue(BigInteger.ONE), new SrValue(1.5));
+
+        File tempFile = File.createTempFile("test_profile", ".srbyte");
+        BytecodeIO.write(original, tempFile.getAbsolutePath());
+        ProgramImage loaded = BytecodeIO.read(tempFile.getAbsolutePath());
+
+        Profile.FunctionProfile restored = loaded.profile.get("hot");
+        assertEquals(12, restored.getCalls());
+        assertEquals(3, restored.branchSamples(7));
+        assertEquals(2, restored.branchTaken(7));
+        assertEquals(1, restored.loopIterations(20));
+        assertEquals(2, restored.operandTypes(4).size());
+
+        assertTrue(tempFile.delete(), "Could not delete temp file");
+    }
+
+    @Test
+    public void testStructShapesAreEmbedded() throws IOException {
+        Chunk mainChunk = new Chunk();
+        mainChunk.emit(OpCode.HALT, 1);
+        StructShape body = new StructShape("Body", new String[] { "x", "name", "next" },
+                new SrValue[] { new SrValue(0.0), new SrValue(""), SrValue.VOID });
+        ProgramImage original = new ProgramImage(mainChunk, new HashMap<>(), List.of(body));
+
+        File tempFile = File.createTempFile("test_shapes", ".srbyte");
+        BytecodeIO.write(original, tempFile.getAbsolutePath());
+        ProgramImage loaded = BytecodeIO.read(tempFile.getAbsolutePath());
+
+        assertEquals(1, loaded.shapes.size());
+        StructShape restored = loaded.shapes.getFirst();
+        assertEquals("Body", restored.name);
+        assertArrayEquals(body.fieldNames, restored.fieldNames);
+        assertEquals(SrValue.Type.FLOAT, restored.defaults[0].type);
+        assertEquals("", restored.defaults[1].asString());
+        assertEquals(SrValue.Type.VOID, restored.defaults[2].type);
+
+        assertTrue(tempFile.delete(), "Could not delete temp file");
+    }
+
+    @Test
+    public void testRejectsImagesWithoutStructShapes() throws IOException {
+        File tempFile = File.createTempFile("old_program", ".srbyte");
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(tempFile))) {
+            out.writeBytes("SLOW");
+            out.writeInt(3);
+        }
+        IOException error = assertThrows(IOException.class, () -> BytecodeIO.read(tempFile.getAbsolutePath()));
+        assertTrue(error.getMessage().contains("recompile"));
+        assertTrue(tempFile.delete(), "Could not delete temp file");
+    }
+}
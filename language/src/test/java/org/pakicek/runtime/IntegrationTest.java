@@ -10,9 +10,16 @@ import org.pakicek.parser.Parser;
 import org.pakicek.parser.ast.node.ProgramNode;
 import org.pakicek.parser.lexer.Lexer;
 import org.pakicek.parser.lexer.Token;
+import org.pakicek.runtime.gc.GcTelemetry;
+import org.pakicek.runtime.gc.Heap;
+import org.pakicek.runtime.profile.AllocationProfile;
+import org.pakicek.runtime.profile.Profile;
 
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.List;
 
 public class IntegrationTest {
@@ -43,6 +50,22 @@ public class IntegrationTest {
         vm.run(image, args);
     }
 
+    private GcTelemetry runGcBenchmark(String example, String... args) throws IOException {
+        String code = Files.readString(Path.of("..", "examples", example));
+        ProgramImage image = new BytecodeCompiler().compile(new Parser(new Lexer(code).scanTokens()).parse());
+        VirtualMachine vm = new VirtualMachine();
+        vm.setGcMode(Heap.Mode.GENERATIONAL);
+        vm.run(image, args);
+        assertTrue(outContent.toString().contains("Result matches expected value"), outContent.toString());
+        return vm.getGarbageCollector().getTelemetry();
+    }
+
+    private void assertWithinGcBudget(GcTelemetry telemetry, long maxCollections, long maxPeakLiveObjects) {
+        assertTrue(telemetry.getCollectionCount() > 0);
+        assertTrue(telemetry.getCollectionCount() <= maxCollections, "collections: " + telemetry.getCollectionCount());
+        assertTrue(telemetry.getPeakLiveObjects() <= maxPeakLiveObjects, "peak live: " + telemetry.getPeakLiveObjects());
+    }
+
     @Test
     public void testArithmeticAndPrint() {
         String code = """
@@ -227,4 +250,586 @@ public class IntegrationTest {
         runCode(code, new String[]{"Hello"});
         assertEquals("Hello", outContent.toString().trim());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testUnrolledLoopsMatchInterpreter() {
+        String code = """
+            func int fixed_sum(int x) {
+                array int values[5];
+                for (int i = 0; i < len(values); i++) {
+                    values[i] = x + i;
+                }
+                int s = 0;
+                for (int i = 0; i < 5; i++) {
+                    if (values[i] > x + 2) {
+                        s = s + values[i];
+                    }
+                }
+                return s;
+            }
+
+            func int prefix_sum(array int values) {
+                int s = 0;
+                for (int i = 0; i < len(values); i++) {
+                    s = s * 2 + values[i];
+                }
+                return s;
+            }
+
+            main (int argc, array string argv[]) {
+                array int data[7];
+                for (int i = 0; i < 7; i++) {
+                    data[i] = i + 1;
+                }
+                int total = 0;
+                for (int n = 0; n < 20; n++) {
+                    total = total + fixed_sum(n) + prefix_sum(data);
+                }
+                print(total);
+            }
+        """;
+        runCode(code);
+        assertEquals("5460", outContent.toString().trim());
+    }
+
+    @Test
+    public void testSmallIntsPromoteOnOverflow() {
+        String code = """
+            func int factorial(int n) {
+                int r = 1;
+                for (int i = 2; i <= n; i++) {
+                    r = r * i;
+                }
+                return r;
+            }
+
+            func int steps(int n) {
+                int s = 0;
+                for (int i = 0; i < 100; i++) {
+                    s = s + i * i;
+                }
+                return s + n;
+            }
+
+            main (int argc, array string argv[]) {
+                int total = 0;
+                for (int k = 0; k < 15; k++) {
+                    total = total + steps(k);
+                }
+                println(total);
+                int f = 0;
+                for (int k = 0; k <= 25; k++) {
+                    f = factorial(k);
+                }
+                println(f);
+                println(9223372036854775807 + 1);
+                println(0 - 9223372036854775807 - 2);
+            }
+        """;
+        runCode(code);
+        String[] lines = outContent.toString().trim().split("\\R");
+        assertEquals("4925355", lines[0].trim());
+        assertEquals("15511210043330985984000000", lines[1].trim());
+        assertEquals("9223372036854775808", lines[2].trim());
+        assertEquals("-9223372036854775809", lines[3].trim());
+    }
+
+    @Test
+    public void testProfileGuidedRunMatchesRecordedRun() {
+        String code = """
+            func int classify(int x) {
+                if (x % 50 == 0) {
+                    return 0 - x;
+                }
+                int s = 0;
+                for (int i = 0; i < x % 7; i++) {
+                    s = s + i;
+                }
+                return s;
+            }
+
+            main (int argc, array string argv[]) {
+                int total = 0;
+                for (int n = 1; n <= 200; n++) {
+                    total = total + classify(n);
+                }
+                print(total);
+            }
+        """;
+        ProgramImage image = new BytecodeCompiler().compile(new Parser(new Lexer(code).scanTokens()).parse());
+        Profile profile = new Profile();
+        VirtualMachine recorder = new VirtualMachine();
+        recorder.setRecordedProfile(profile);
+        recorder.run(image, new String[0]);
+        String recorded = outContent.toString().trim();
+        assertEquals(200, profile.get("classify").getCalls());
+
+        outContent.reset();
+        VirtualMachine optimized = new VirtualMachine();
+        optimized.setProfile(profile);
+        optimized.run(image, new String[0]);
+        assertEquals(recorded, outContent.toString().trim());
+    }
+
+    @Test
+    public void testAllocationProfileAttributesSitesAndSurvivors() {
+        String code = """
+            struct Point {
+                int x;
+            }
+
+            main (int argc, array string argv[]) {
+                array Point keep[10];
+                for (int i = 0; i < 5000; i++) {
+                    Point p;
+                    p.x = i;
+                    if (i % 500 == 0) {
+                        keep[i / 500] = p;
+                    }
+                }
+                print(len(keep));
+            }
+        """;
+        ProgramImage image = new BytecodeCompiler().compile(new Parser(new Lexer(code).scanTokens()).parse());
+        AllocationProfile allocations = new AllocationProfile();
+        VirtualMachine vm = new VirtualMachine();
+        vm.setGcMode(Heap.Mode.GENERATIONAL);
+        vm.setGcTuning(64 << 10, Heap.DEFAULT_GROWTH_FACTOR, Long.MAX_VALUE);
+        vm.setAllocationProfile(allocations);
+        vm.run(image, new String[0]);
+        assertEquals("10", outContent.toString().trim());
+
+        List<AllocationProfile.Site> sites = allocations.sites();
+        assertEquals(2, sites.size());
+        AllocationProfile.Site points = sites.get(0);
+        assertEquals("main", points.getFunction());
+        assertEquals(8, points.getLine());
+        assertEquals(5000, points.getAllocations());
+        assertEquals(5000 * Heap.structBytes(0, 1), points.getBytes());
+        assertTrue(points.getSurvivors() > 0 && points.getSurvivors() <= 10);
+        assertEquals(6, sites.get(1).getLine());
+        assertEquals(1, sites.get(1).getSurvivors());
+    }
+
+    @Test
+    public void testSpecializedCallFallsBackWhenArgumentChanges() {
+        String code = """
+            func int scale(int mode, int x) {
+                if (mode == 1) {
+                    return x * 10;
+                }
+                return x + 1;
+            }
+
+            main (int argc, array string argv[]) {
+                int total = 0;
+                for (int i = 0; i < 30; i++) {
+                    int mode = 1;
+                    if (i > 20) {
+                        mode = 2;
+                    }
+                    total = total + scale(mode, i);
+                }
+                print(total);
+            }
+        """;
+        runCode(code);
+        assertEquals("2334", outContent.toString().trim());
+    }
+
+    @Test
+    public void testVectorizedLoopsMatchInterpreter() {
+        String code = """
+            func void fill(array int a, int k) {
+                for (int i = 0; i < len(a); i++) {
+                    a[i] = i * k + 1;
+                }
+            }
+
+            func void scale(array float out, array float x, float f) {
+                for (int i = 0; i < len(out); i++) {
+                    out[i] = x[i] * f - 1.0;
+                }
+            }
+
+            main (int argc, array string argv[]) {
+                array int a[50];
+                array float x[50];
+                array float y[50];
+                for (int i = 0; i < 50; i++) {
+                    x[i] = i * 0.5;
+                }
+                int total = 0;
+                for (int r = 0; r < 20; r++) {
+                    fill(a, r);
+                    scale(y, x, 2.0);
+                    total = total + a[49];
+                }
+                fill(a, 4611686018427387904);
+                println(total);
+                println(a[49]);
+                println(y[10]);
+            }
+        """;
+        runCode(code);
+        String[] lines = outContent.toString().trim().split("\\R");
+        assertEquals("9330", lines[0].trim());
+        assertEquals("225972614902942007297", lines[1].trim());
+        assertEquals("9.0", lines[2].trim());
+    }
+
+    @Test
+    public void testBinaryTreesStayWithinGcBudget() throws IOException {
+        assertWithinGcBudget(runGcBenchmark("binary_trees.sr", "8"), 8, 2048);
+    }
+
+    @Test
+    public void testLinkedListsStayWithinGcBudget() throws IOException {
+        assertWithinGcBudget(runGcBenchmark("linked_list.sr", "2000", "10"), 20, 24000);
+    }
+
+    @Test
+    public void testStructChurnStaysWithinGcBudget() throws IOException {
+        assertWithinGcBudget(runGcBenchmark("struct_churn.sr", "500", "40"), 12, 4000);
+    }
+
+    @Test
+    public void testLongLivedArrayStaysWithinGcBudget() throws IOException {
+        assertWithinGcBudget(runGcBenchmark("long_lived_array.sr", "20000", "50000"), 25, 1500);
+    }
+
+    @Test
+    public void testTypedArraysKeepValueSemantics() {
+        String code = """
+            main (int argc, array string argv[]) {
+                array int big[3];
+                big[0] = 9223372036854775807;
+                big[0] = big[0] + 1;
+                big[1] = -3;
+                array float xs[2];
+                xs[1] = 1.5;
+                array bool flags[70];
+                flags[69] = true;
+                array int mixed[2];
+                mixed[1] = "text";
+                println(big[0]);
+                println(big[1] + big[2]);
+                println(xs[0] + xs[1]);
+                println(flags[69]);
+                println(flags[3]);
+                println(mixed[1]);
+                println(len(flags));
+            }
+        """;
+        runCode(code);
+        String[] lines = outContent.toString().trim().split("\\R");
+        assertArrayEquals(new String[] { "9223372036854775808", "-3", "1.5", "true", "false", "text", "70" }, lines);
+    }
+
+    @Test
+    public void testOffHeapArraysKeepTypedDefaults() {
+        String code = """
+            main (int argc, array string argv[]) {
+                array bool b[10];
+                array float f[10];
+                array int n[10];
+                array string s[10];
+                println(b[0]);
+                println(f[0]);
+                println(f[1] / 2);
+                b[3] = true;
+                f[2] = 2.5;
+                n[4] = 7;
+                n[5] = "text";
+                s[0] = "x";
+                println(b[3]);
+                println(f[2] + f[1]);
+                println(n[4] + n[0]);
+                println(n[5]);
+                println(s[0]);
+            }
+        """;
+        ProgramImage image = new BytecodeCompiler().compile(new Parser(new Lexer(code).scanTokens()).parse());
+        String[] expected = { "false", "0.0", "0.0", "true", "2.5", "7", "text", "x" };
+        for (int threshold : new int[] { Integer.MAX_VALUE, 4 }) {
+            outContent.reset();
+            VirtualMachine vm = new VirtualMachine();
+            vm.setOffHeapThreshold(threshold);
+            vm.run(image, new String[0]);
+            assertArrayEquals(expected, outContent.toString().trim().split("\\R"), "threshold=" + threshold);
+        }
+    }
+
+    @Test
+    public void testStructFieldsUseShapeSlotsAndDefaults() {
+        String code = """
+            struct Point {
+                float x;
+                float y;
+            }
+
+            struct Label {
+                string text;
+                int count;
+                float y;
+                Point at;
+            }
+
+            func float read_y(Point p) {
+                return p.y;
+            }
+
+            main (int argc, array string argv[]) {
+                Label label;
+                println(label.count);
+                println(len(label.text));
+                label.y = 2.5;
+                Point p;
+                p.y = 4.0;
+                label.at = p;
+                label.at.x = 1.5;
+                println(read_y(p) + read_y(label));
+                println(p.x);
+            }
+        """;
+        runCode(code);
+        String[] lines = outContent.toString().trim().split("\\R");
+        assertArrayEquals(new String[] { "0", "0", "6.5", "1.5" }, lines);
+    }
+
+    @Test
+    public void testPrimitiveStructFieldsKeepValueSemantics() {
+        String code = """
+            struct Particle {
+                int id;
+                float x;
+                bool alive;
+            }
+
+            main (int argc, array string argv[]) {
+                Particle p;
+                p.id = 9223372036854775807;
+                p.id = p.id + 1;
+                p.x = 0.25;
+                p.x = p.x * 4.0;
+                p.alive = !p.alive;
+                Particle q;
+                q.x = "moved";
+                println(p.id);
+                println(p.x);
+                println(p.alive);
+                println(q.x);
+                println(q.id + 1);
+            }
+        """;
+        runCode(code);
+        String[] lines = outContent.toString().trim().split("\\R");
+        assertArrayEquals(new String[] { "9223372036854775808", "1.0", "true", "moved", "1" }, lines);
+    }
+
+    @Test
+    public void testColumnarStructArraysMatchBoxedArrays() {
+        String code = """
+            struct Point {
+                int x;
+                float y;
+                bool on;
+            }
+
+            main (int argc, array string argv[]) {
+                array Point ps[3];
+                array Point rs[2];
+                for (int i = 0; i < 3; i++) {
+                    Point fresh;
+                    ps[i] = fresh;
+                    if (i < 2) {
+                        rs[i] = ps[i];
+                    }
+                }
+                Point p;
+                p.x = 4;
+                ps[0] = p;
+                p.x = 5;
+                println(ps[0].x);
+                Point q = ps[1];
+                q.y = 2.5;
+                println(ps[1].y);
+                ps[2] = q;
+                q.on = true;
+                println(ps[2].on);
+                ps[0].x = 9223372036854775807;
+                ps[0].x = ps[0].x + 1;
+                println(p.x);
+                println(ps[1].y + ps[2].y);
+
+                rs[1].y = 0.5;
+                rs[1].x = "label";
+                println(rs[1].x);
+                println(rs[1].y + rs[0].y);
+            }
+        """;
+        ProgramImage image = new BytecodeCompiler().compile(new Parser(new Lexer(code).scanTokens()).parse());
+        String[] expected = { "5", "2.5", "true", "9223372036854775808", "5.0", "label", "0.5" };
+        for (boolean columnar : new boolean[] { false, true }) {
+            outContent.reset();
+            VirtualMachine vm = new VirtualMachine();
+            vm.setColumnarStructs(columnar);
+            vm.setGcTuning(4 << 10, Heap.DEFAULT_GROWTH_FACTOR, Long.MAX_VALUE);
+            vm.run(image, new String[0]);
+            assertArrayEquals(expected, outContent.toString().trim().split("\\R"), "columnar=" + columnar);
+        }
+    }
+
+    @Test
+    public void testViewOutlivingItsColumnarArrayDetachesAlone() {
+        String code = """
+            struct Point {
+                int x;
+                float y;
+            }
+
+            func Point grab() {
+                array Point ps[4];
+                Point fresh;
+                ps[2] = fresh;
+                return ps[2];
+            }
+
+            main (int argc, array string argv[]) {
+                Point p = grab();
+                for (int i = 0; i < 2000; i++) {
+                    array int junk[64];
+                    junk[0] = i;
+                }
+                p.x = "moved";
+                println(p.x);
+                println(p.y);
+            }
+        """;
+        ProgramImage image = new BytecodeCompiler().compile(new Parser(new Lexer(code).scanTokens()).parse());
+        AllocationProfile allocations = new AllocationProfile();
+        VirtualMachine vm = new VirtualMachine();
+        vm.setGcMode(Heap.Mode.GENERATIONAL);
+        vm.setColumnarStructs(true);
+        vm.setGcTuning(4 << 10, Heap.DEFAULT_GROWTH_FACTOR, Long.MAX_VALUE);
+        vm.setAllocationProfile(allocations);
+        vm.run(image, new String[0]);
+        assertArrayEquals(new String[] { "moved", "0.0" }, outContent.toString().trim().split("\\R"));
+        assertTrue(vm.getHeap().getMinorCollections() > 0);
+        int storeLine = (int) code.lines().takeWhile(line -> !line.contains("p.x = \"moved\"")).count() + 1;
+        assertTrue(allocations.sites().stream().noneMatch(site -> site.getLine() == storeLine));
+    }
+
+    @Test
+    public void testColumnarStructArraysKeepUnsetElementsAsZero() {
+        String code = """
+            struct Point {
+                int x;
+                float y;
+            }
+
+            main (int argc, array string argv[]) {
+                array Point ps[3];
+                println(ps[0]);
+                Point p;
+                p.x = 3;
+                ps[1] = p;
+                println(ps[1].x);
+                println(ps[2] == 0);
+                ps[2] = 7;
+                println(ps[2]);
+                println(ps[1].x + ps[0]);
+            }
+        """;
+        String failing = """
+            struct Point {
+                int x;
+            }
+
+            main (int argc, array string argv[]) {
+                array Point ps[2];
+                ps[1].x = 3;
+            }
+        """;
+        ProgramImage image = new BytecodeCompiler().compile(new Parser(new Lexer(code).scanTokens()).parse());
+        ProgramImage failingImage = new BytecodeCompiler().compile(new Parser(new Lexer(failing).scanTokens()).parse());
+        String[] expected = { "0", "3", "true", "7", "3" };
+        for (boolean columnar : new boolean[] { false, true }) {
+            outContent.reset();
+            VirtualMachine vm = new VirtualMachine();
+            vm.setColumnarStructs(columnar);
+            vm.run(image, new String[0]);
+            assertArrayEquals(expected, outContent.toString().trim().split("\\R"), "columnar=" + columnar);
+
+            VirtualMachine failingVm = new VirtualMachine();
+            failingVm.setColumnarStructs(columnar);
+            RuntimeException error = assertThrows(RuntimeException.class, () -> failingVm.run(failingImage, new String[0]));
+            assertEquals("Type Error: Setting field on non-struct", error.getMessage(), "columnar=" + columnar);
+        }
+    }
+
+    @Test
+    public void testEqualityComparesByType() {
+        String code = """
+            struct Point {
+                int x;
+            }
+
+            func float half(float v) {
+                return v / 2;
+            }
+
+            main (int argc, array string argv[]) {
+                Point p;
+                Point q;
+                Point r = p;
+                array int xs[2];
+                float f = 2.0;
+                println(2 == 2.0);
+                println(half(3.0) != 1.5);
+                println(f == 2);
+                println(true == true);
+                println("1" == 1);
+                println(argv[0] == "ab");
+                println(p == q);
+                println(p == r);
+                println(xs != xs);
+                println(9223372036854775807 + 1 == 9223372036854775807 + 1);
+            }
+        """;
+        runCode(code, new String[] { "ab" });
+        String[] lines = outContent.toString().trim().split("\\R");
+        assertArrayEquals(new String[] { "true", "false", "true", "true", "false", "true", "false", "true", "false", "true" }, lines);
+    }
+
+    @Test
+    public void testStringConcatenation() {
+        String code = """
+            struct Label {
+                string text;
+            }
+
+            func string name(int i) {
+                return "item" + i;
+            }
+
+            main (int argc, array string argv[]) {
+                Label label;
+                label.text = "total";
+                float avg = 2.5;
+                println("n=" + argc + ", avg=" + avg + ", ok=" + (argc == 1));
+                println(argc + 1 + " args");
+                println(label.text + ": " + 9223372036854775807 * 2);
+                println(name(3) + "/" + argv[0]);
+                string s = "";
+                for (int i = 0; i < 3; i++) {
+                    s = s + i;
+                }
+                println(s);
+            }
+        """;
+        runCode(code, new String[] { "x" });
+        String[] lines = outContent.toString().trim().split("\\R");
+        assertArrayEquals(new String[] { "n=1, avg=2.5, ok=true", "2 args", "total: 18446744073709551614", "item3/x", "012" }, lines);
+    }
+}
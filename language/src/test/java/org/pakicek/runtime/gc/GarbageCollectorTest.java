@@ -0,0 +1,776 @@
+package org.pakicek.runtime.gc;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.pakicek.compiler.BytecodeCompiler;
+import org.pakicek.parser.Parser;
+import org.pakicek.parser.lexer.Lexer;
+import org.pakicek.runtime.VirtualMachine;
+import org.pakicek.runtime.profile.AllocationProfile;
+import org.pakicek.runtime.vm.OffHeapElements;
+import org.pakicek.runtime.vm.SrArray;
+import org.pakicek.runtime.vm.SrStruct;
+import org.pakicek.runtime.vm.SrValue;
+import org.pakicek.runtime.vm.StructShape;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+
+public class GarbageCollectorTest {
+    private final List<SrValue> roots = new ArrayList<>();
+    private final Heap heap = new Heap();
+    private final VirtualMachine mutator = new VirtualMachine() {
+        @Override
+        public void scanRoots(Consumer<SrValue> visitor) {
+            roots.forEach(visitor);
+        }
+    };
+    private final GarbageCollector gc = new GarbageCollector(heap, mutator);
+
+    private static final String CHURN_PROGRAM = """
+        struct Point {
+            int x;
+            int y;
+        }
+
+        main (int argc, array string argv[]) {
+            array Point keep[2000];
+            for (int i = 0; i < 2000; i++) {
+                Point p;
+                p.x = i;
+                keep[i] = p;
+            }
+            int total = 0;
+            for (int i = 0; i < 50000; i++) {
+                Point t;
+                t.x = i;
+                total = total + t.x;
+                if (i % 10 == 0) {
+                    keep[i % 2000] = t;
+                }
+            }
+            int check = 0;
+            for (int i = 0; i < 2000; i++) {
+                Point q = keep[i];
+                check = check + q.x;
+            }
+            print(total);
+            print(" ");
+            print(check);
+        }
+    """;
+    private static final String CHURN_OUTPUT = "1249975000 11599000";
+
+    private String runProgram(VirtualMachine vm, String code) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PrintStream original = System.out;
+        System.setOut(new PrintStream(out));
+        try {
+            vm.run(new BytecodeCompiler().compile(new Parser(new Lexer(code).scanTokens()).parse()), new String[0]);
+        } finally {
+            System.setOut(original);
+        }
+        return out.toString().trim();
+    }
+
+    private static final StructShape BOX = new StructShape("Box", "x", "next");
+    private static final long BOX_BYTES = Heap.structBytes(BOX.size());
+
+    private SrStruct newStruct() {
+        SrStruct struct = new SrStruct(BOX);
+        heap.register(struct);
+        return struct;
+    }
+
+    @Test
+    public void testMinorCollectionPromotesSurvivors() {
+        heap.setMode(Heap.Mode.GENERATIONAL);
+        SrStruct live = newStruct();
+        newStruct();
+        newStruct();
+        roots.add(new SrValue(live));
+
+        gc.collectMinor();
+
+        assertEquals(0, heap.getNurserySize());
+        assertEquals(1, heap.getOldSize());
+        assertTrue(live.isOld);
+        assertFalse(heap.isMarked(live));
+        assertEquals(1, heap.getMinorCollections());
+    }
+
+    @Test
+    public void testRememberedArrayKeepsYoungObjectAlive() {
+        heap.setMode(Heap.Mode.GENERATIONAL);
+        SrArray holder = new SrArray(1000);
+        heap.register(holder);
+        roots.add(new SrValue(holder));
+        gc.collectMinor();
+        assertTrue(holder.isOld);
+
+        SrStruct young = newStruct();
+        SrValue ref = new SrValue(young);
+        holder.set(700, ref);
+        heap.arrayWriteBarrier(holder, 700, ref);
+        assertEquals(List.of(holder), heap.getRememberedSet());
+        assertEquals(700 / Heap.CARD_SIZE, holder.dirtyCards.nextSetBit(0));
+
+        gc.collectMinor();
+
+        assertTrue(young.isOld);
+        assertEquals(2, heap.getOldSize());
+        assertTrue(heap.getRememberedSet().isEmpty());
+        assertNull(holder.dirtyCards);
+    }
+
+    @Test
+    public void testRememberedStructKeepsYoungObjectAlive() {
+        SrStruct holder = newStruct();
+        roots.add(new SrValue(holder));
+        gc.collectMinor();
+
+        SrStruct young = newStruct();
+        SrValue ref = new SrValue(young);
+        holder.setField("next", ref);
+        heap.writeBarrier(holder, ref);
+        gc.collectMinor();
+
+        assertTrue(young.isOld);
+        assertEquals(2, heap.getOldSize());
+    }
+
+    @Test
+    public void testOnlyMajorCollectionFreesOldObjects() {
+        SrStruct tenured = newStruct();
+        roots.add(new SrValue(tenured));
+        gc.collectMinor();
+        roots.clear();
+
+        gc.collectMinor();
+        assertEquals(1, heap.getOldSize());
+
+        gc.collectMajor();
+        assertEquals(0, heap.getOldSize());
+        assertEquals(1, heap.getMajorCollections());
+    }
+
+    @Test
+    public void testShortLivedObjectsAreCollectedByMinorCollections() {
+        VirtualMachine vm = new VirtualMachine();
+        vm.setGcMode(Heap.Mode.GENERATIONAL);
+        vm.getHeap().setNurseryBytes(16 * 1024);
+        String code = """
+            struct Point {
+                int x;
+                int y;
+            }
+
+            main (int argc, array string argv[]) {
+                array Point keep[2000];
+                for (int i = 0; i < 2000; i++) {
+                    Point p;
+                    p.x = i;
+                    keep[i] = p;
+                }
+                int total = 0;
+                for (int i = 0; i < 20000; i++) {
+                    Point t;
+                    t.x = i;
+                    total = total + t.x;
+                    if (i % 10 == 0) {
+                        keep[i % 2000] = t;
+                    }
+                }
+                int check = 0;
+                for (int i = 0; i < 2000; i++) {
+                    Point q = keep[i];
+                    check = check + q.x;
+                }
+                print(total);
+                print(" ");
+                print(check);
+            }
+        """;
+        assertEquals("199990000 5599000", runProgram(vm, code));
+        assertTrue(vm.getHeap().getMinorCollections() >= 20);
+        assertEquals(0, vm.getHeap().getMajorCollections());
+    }
+
+    @Test
+    public void testLargeAllocationTriggersCollectionEarly() {
+        newStruct();
+        assertFalse(heap.shouldCollect(Heap.structBytes(2)));
+        assertTrue(heap.shouldCollect(Heap.arrayBytes(1_000_000)));
+    }
+
+    @Test
+    public void testNextCollectionScalesWithLiveSize() {
+        heap.setMode(Heap.Mode.MARK_SWEEP);
+        heap.setGrowthFactor(3.0);
+        SrArray big = new SrArray(1_000_000);
+        heap.register(big);
+        roots.add(new SrValue(big));
+
+        gc.collect();
+
+        assertEquals(Heap.arrayBytes(1_000_000), heap.getHeapBytes());
+        assertEquals(3 * Heap.arrayBytes(1_000_000), heap.getCollectionThreshold());
+        assertFalse(heap.shouldCollect(Heap.arrayBytes(1_000_000)));
+        assertTrue(heap.shouldCollect(Heap.arrayBytes(2_100_000)));
+    }
+
+    @Test
+    public void testMaxHeapLimitRaisesMemoryError() {
+        String code = """
+            main (int argc, array string argv[]) {
+                array int small[10];
+                array int huge[1000000];
+                print(len(huge));
+            }
+        """;
+        VirtualMachine vm = new VirtualMachine();
+        vm.setGcTuning(Heap.DEFAULT_NURSERY_BYTES, Heap.DEFAULT_GROWTH_FACTOR, 1L << 20);
+        RuntimeException error = assertThrows(RuntimeException.class, () ->
+                vm.run(new BytecodeCompiler().compile(new Parser(new Lexer(code).scanTokens()).parse()), new String[0]));
+        assertTrue(error.getMessage().startsWith("Memory Error"));
+    }
+
+    @Test
+    public void testIncrementalMarkingRunsInBoundedSlices() {
+        heap.setMode(Heap.Mode.INCREMENTAL);
+        gc.setSliceBudget(100);
+        SrArray array = new SrArray(5000);
+        heap.register(array);
+        for (int i = 0; i < array.elements.length; i++) {
+            SrStruct struct = newStruct();
+            struct.setField("x", SrValue.valueOf(i));
+            array.set(i, new SrValue(struct));
+        }
+        newStruct();
+        roots.add(new SrValue(array));
+
+        gc.collect();
+        assertTrue(gc.isMarking());
+        while (gc.isMarking()) gc.markSlice();
+
+        assertTrue(gc.getMarkSlices() >= array.elements.length / 100);
+        assertEquals(5001, heap.getOldSize());
+        assertEquals(1, heap.getMajorCollections());
+    }
+
+    @Test
+    public void testWriteBarrierKeepsMovedObjectAlive() {
+        heap.setMode(Heap.Mode.INCREMENTAL);
+        gc.setSliceBudget(10);
+        SrArray array = new SrArray(5000);
+        heap.register(array);
+        SrStruct moved = newStruct();
+        array.set(4999, new SrValue(moved));
+        SrStruct holder = newStruct();
+        roots.add(new SrValue(array));
+        roots.add(new SrValue(holder));
+
+        gc.startMarking();
+        gc.markSlice();
+        assertTrue(heap.isMarked(holder));
+        assertFalse(heap.isMarked(moved));
+
+        SrValue ref = new SrValue(moved);
+        holder.setField("next", ref);
+        gc.shade(ref);
+        array.elements[4999] = SrValue.valueOf(0);
+        while (gc.isMarking()) gc.markSlice();
+
+        assertEquals(3, heap.getOldSize());
+    }
+
+    @Test
+    public void testIncrementalModeMatchesStopTheWorldResult() {
+        VirtualMachine vm = new VirtualMachine();
+        vm.setGcMode(Heap.Mode.INCREMENTAL);
+        vm.setGcSliceBudget(50);
+        assertEquals(CHURN_OUTPUT, runProgram(vm, CHURN_PROGRAM));
+        assertTrue(vm.getGarbageCollector().getMarkSlices() > 1);
+        assertTrue(vm.getHeap().getMajorCollections() >= 1);
+    }
+
+    private SrArray buildLinkedGraph(int length) {
+        SrArray array = new SrArray(length);
+        heap.register(array);
+        SrStruct shared = newStruct();
+        for (int i = 0; i < length; i++) {
+            SrStruct head = newStruct();
+            SrStruct tail = newStruct();
+            head.setField("next", new SrValue(tail));
+            tail.setField("next", new SrValue(shared));
+            array.set(i, new SrValue(head));
+            newStruct();
+        }
+        return array;
+    }
+
+    @Test
+    public void testParallelMarkReachesWholeGraph() {
+        SrArray array = buildLinkedGraph(3 * ParallelMarker.CHUNK_SIZE + 7);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            roots.add(new SrValue(array));
+            new ParallelMarker(pool, heap).mark(mutator);
+        } finally {
+            pool.shutdown();
+        }
+        int marked = 0;
+        for (SrValue val : array.elements) {
+            SrStruct head = (SrStruct) val.asObject();
+            SrStruct tail = (SrStruct) head.getField("next").asObject();
+            assertTrue(heap.isMarked(head) && heap.isMarked(tail) && heap.isMarked(tail.getField("next").asObject()));
+            marked += 2;
+        }
+        assertTrue(heap.isMarked(array));
+        assertEquals(2 * array.elements.length, marked);
+    }
+
+    @Test
+    public void testLargeHeapUsesParallelMark() {
+        heap.setMode(Heap.Mode.MARK_SWEEP);
+        SrArray array = buildLinkedGraph(10000);
+        roots.add(new SrValue(array));
+        gc.setParallelThreshold(0);
+
+        gc.collectMajor();
+
+        assertEquals(1, gc.getParallelMarks());
+        assertEquals(2 + 2 * 10000, heap.getOldSize());
+        assertFalse(heap.isMarked(array));
+    }
+
+    @Test
+    public void testDeadLocalDoesNotKeepArrayAlive() {
+        String code = """
+            struct Point {
+                int x;
+            }
+
+            main (int argc, array string argv[]) {
+                array int big[800000];
+                big[0] = 7;
+                int total = big[0];
+                for (int i = 0; i < 1000; i++) {
+                    Point p;
+                    p.x = i;
+                    total = total + p.x;
+                }
+                print(total);
+            }
+        """;
+        VirtualMachine vm = new VirtualMachine();
+        vm.setGcMode(Heap.Mode.MARK_SWEEP);
+        assertEquals("499507", runProgram(vm, code));
+        assertTrue(vm.getHeap().getMajorCollections() >= 1);
+        assertTrue(vm.getHeap().getHeapBytes() < Heap.arrayBytes(800000, SrArray.ElementType.INT));
+    }
+
+    @Test
+    public void testObjectsAreSegregatedBySizeClass() {
+        SrStruct struct = newStruct();
+        SrArray small = new SrArray(8);
+        SrArray medium = new SrArray(200);
+        SrArray large = new SrArray(100_000);
+        heap.register(small);
+        heap.register(medium);
+        heap.register(large);
+
+        assertEquals(Heap.STRUCT_SPACE, struct.heapSpace);
+        assertEquals(Heap.LARGE_SPACE, large.heapSpace);
+        assertNotEquals(small.heapSpace, medium.heapSpace);
+        assertEquals(1, heap.getSpaceCount(Heap.LARGE_SPACE));
+    }
+
+    @Test
+    public void testPointerFreeLargeArrayIsNotScanned() {
+        heap.setMode(Heap.Mode.MARK_SWEEP);
+        SrArray large = new SrArray(100_000);
+        heap.register(large);
+        roots.add(new SrValue(large));
+        SrStruct unseen = newStruct();
+        large.elements[5] = new SrValue(unseen);
+        assertEquals(Heap.LARGE_SPACE, large.heapSpace);
+        assertFalse(large.mayContainRefs);
+
+        gc.collectMajor();
+        assertEquals(1, heap.getObjectCount());
+
+        SrStruct kept = newStruct();
+        large.set(6, new SrValue(kept));
+        large.set(6, SrValue.valueOf(1));
+        large.set(7, new SrValue(kept));
+        assertTrue(large.mayContainRefs);
+
+        gc.collectMajor();
+        assertEquals(2, heap.getObjectCount());
+        assertTrue(heap.isLive(kept));
+    }
+
+    @Test
+    public void testFieldStoresFlagStructsThatMayContainRefs() {
+        heap.setMode(Heap.Mode.INCREMENTAL);
+        SrStruct holder = newStruct();
+        holder.setField("x", SrValue.valueOf(1));
+        assertFalse(holder.mayContainRefs);
+        roots.add(new SrValue(holder));
+
+        gc.startMarking();
+        SrStruct child = newStruct();
+        SrValue ref = new SrValue(child);
+        holder.setField("next", ref);
+        gc.shade(ref);
+        while (gc.isMarking()) gc.markSlice();
+
+        assertTrue(holder.mayContainRefs);
+        assertTrue(heap.isLive(child));
+        assertEquals(2, heap.getObjectCount());
+    }
+
+    @Test
+    public void testSweepFlipsMarksAndReusesFreedSlots() {
+        heap.setMode(Heap.Mode.MARK_SWEEP);
+        SrStruct live = newStruct();
+        SrStruct dead = newStruct();
+        roots.add(new SrValue(live));
+
+        gc.collectMajor();
+        assertFalse(heap.isMarked(live));
+        assertEquals(1, heap.getObjectCount());
+
+        SrStruct reused = newStruct();
+        assertEquals(dead.heapSlot, reused.heapSlot);
+
+        gc.collectMajor();
+        assertEquals(1, heap.getObjectCount());
+        assertEquals(BOX_BYTES, heap.getHeapBytes());
+    }
+
+    @Test
+    public void testStaleRootToFreedObjectIsNotMarked() {
+        heap.setMode(Heap.Mode.MARK_SWEEP);
+        SrStruct live = newStruct();
+        SrStruct dead = newStruct();
+        roots.add(new SrValue(live));
+        gc.collectMajor();
+        heap.finishSweep();
+        assertFalse(heap.isLive(dead));
+        assertFalse(heap.mark(dead));
+
+        roots.add(new SrValue(dead));
+        gc.collectMajor();
+        heap.finishSweep();
+        SrStruct first = newStruct();
+        SrStruct second = newStruct();
+        assertNotEquals(first.heapSlot, second.heapSlot);
+        assertEquals(3, heap.getObjectCount());
+    }
+
+    @Test
+    public void testSweepIsDeferredToAllocations() {
+        heap.setMode(Heap.Mode.MARK_SWEEP);
+        SrStruct live = newStruct();
+        List<SrStruct> dead = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) dead.add(newStruct());
+        roots.add(new SrValue(live));
+
+        gc.collectMajor();
+        assertEquals(1, heap.getObjectCount());
+        assertEquals(BOX_BYTES, heap.getHeapBytes());
+        assertTrue(heap.isSweeping());
+        assertTrue(heap.isLive(live));
+        assertFalse(heap.isLive(dead.get(999)));
+
+        SrStruct fresh = newStruct();
+        assertTrue(dead.stream().anyMatch(d -> d.heapSlot == fresh.heapSlot));
+        while (heap.isSweeping()) newStruct();
+        assertTrue(heap.getObjectCount() < dead.size());
+    }
+
+    @Test
+    public void testTelemetryRecordsPausesAndReclaimedObjects() {
+        heap.setMode(Heap.Mode.GENERATIONAL);
+        SrStruct live = newStruct();
+        newStruct();
+        newStruct();
+        roots.add(new SrValue(live));
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        GcTelemetry telemetry = gc.getTelemetry();
+        telemetry.setLog(new PrintStream(log));
+
+        gc.collect();
+        gc.collectMajor();
+
+        assertEquals(2, telemetry.getCollectionCount());
+        assertEquals(1, telemetry.getMinorCollectionCount());
+        assertEquals(1, telemetry.getMajorCollectionCount());
+        assertEquals(2, telemetry.getPauseCount());
+        assertEquals(2, Arrays.stream(telemetry.getPauseHistogram()).sum());
+        assertTrue(telemetry.getMaxPauseNanos() <= telemetry.getTotalPauseNanos());
+        assertEquals(2, telemetry.getObjectsReclaimed());
+        assertEquals(2 * BOX_BYTES, telemetry.getBytesReclaimed());
+        assertEquals(1, telemetry.getLiveObjects());
+        assertArrayEquals(new long[] { BOX_BYTES, BOX_BYTES }, telemetry.getLiveBytesHistory());
+        assertTrue(log.toString().startsWith("[gc minor] pause "));
+        assertTrue(log.toString().contains("[gc major] pause "));
+        assertTrue(telemetry.summary().startsWith("[GC: 2 collections (1 minor, 1 major), 2 pauses"));
+    }
+
+    @Test
+    public void testTelemetryReportsHeapSeparatelyFromLiveData() {
+        heap.setMode(Heap.Mode.MARK_SWEEP);
+        SrStruct live = newStruct();
+        newStruct();
+        roots.add(new SrValue(live));
+
+        GcTelemetry telemetry = gc.getTelemetry();
+        assertEquals(0, telemetry.getHeapObjects());
+        assertTrue(telemetry.summary().endsWith("peak live 0 objects / 0B, heap 2 objects / " + 2 * BOX_BYTES + "B]"));
+        assertEquals(2, telemetry.getHeapObjects());
+        assertEquals(0, telemetry.getLiveObjects());
+
+        gc.collectMajor();
+        newStruct();
+        newStruct();
+        assertEquals(1, telemetry.getLiveObjects());
+        assertEquals(1, telemetry.getPeakLiveObjects());
+        assertEquals(1, telemetry.getHeapObjects());
+        telemetry.sampleHeap();
+        assertEquals(3, telemetry.getHeapObjects());
+        assertEquals(1, telemetry.getPeakLiveObjects());
+    }
+
+    @Test
+    public void testCollectorRecordsAllocationSurvivorsAtTheEndOfACollection() {
+        heap.setMode(Heap.Mode.MARK_SWEEP);
+        AllocationProfile allocations = new AllocationProfile();
+        gc.setAllocationProfile(allocations);
+        SrStruct live = newStruct();
+        SrStruct dead = newStruct();
+        allocations.recordAllocation("main", 0, 1, live);
+        allocations.recordAllocation("main", 4, 2, dead);
+        roots.add(new SrValue(live));
+
+        gc.collectMajor();
+        allocations.afterCollections(heap);
+
+        AllocationProfile.Site site = allocations.sites().stream().filter(s -> s.getOffset() == 0).findFirst().orElseThrow();
+        assertEquals(1, site.getSurvivors());
+        assertEquals(1, site.getSurvivals());
+    }
+
+    @Test
+    public void testTelemetryCountsIncrementalSlicesAsPauses() {
+        heap.setMode(Heap.Mode.INCREMENTAL);
+        roots.add(new SrValue(buildLinkedGraph(10)));
+        gc.setSliceBudget(2);
+
+        gc.collect();
+        while (gc.isMarking()) gc.markSlice();
+
+        GcTelemetry telemetry = gc.getTelemetry();
+        assertEquals(1, telemetry.getMajorCollectionCount());
+        assertEquals(gc.getMarkSlices(), telemetry.getPauseCount());
+        assertTrue(telemetry.getPauseCount() > 1);
+    }
+
+    @Test
+    public void testLargeNumericArrayIsReleasedOffHeapBySweep() {
+        heap.setMode(Heap.Mode.MARK_SWEEP);
+        heap.setOffHeapThreshold(1000);
+        SrArray array = heap.newArray(5000, SrArray.ElementType.INT);
+        heap.register(array);
+        assertNull(array.elements);
+        assertEquals(SrArray.ElementType.INT, array.elementType);
+        assertTrue(heap.getOffHeapBytes() >= OffHeapElements.bytesFor(5000, SrArray.ElementType.INT));
+
+        array.set(0, SrValue.valueOf(42));
+        array.set(1, SrValue.valueOf(-7));
+        assertEquals(42, array.get(0).asLong());
+        assertEquals(-7, array.get(1).asLong());
+        assertEquals(0, array.get(4999).asLong());
+
+        gc.collectMajor();
+        assertEquals(0, heap.getOffHeapBytes());
+        assertNull(array.offHeap);
+        assertTrue(heap.getPooledOffHeapBytes() > 0);
+
+        SrArray reused = heap.newArray(5000, SrArray.ElementType.FLOAT);
+        assertEquals(0, heap.getPooledOffHeapBytes());
+        assertEquals(SrValue.Type.FLOAT, reused.get(0).type);
+        assertEquals(0.0, reused.get(0).asFloat());
+    }
+
+    @Test
+    public void testOffHeapBoolArrayPacksOneBitPerElement() {
+        heap.setMode(Heap.Mode.MARK_SWEEP);
+        heap.setOffHeapThreshold(1000);
+        SrArray array = heap.newArray(10000, SrArray.ElementType.BOOL);
+        heap.register(array);
+        assertNotNull(array.offHeap);
+        assertEquals((10000 + 63) / 64 * Long.BYTES, OffHeapElements.bytesFor(10000, SrArray.ElementType.BOOL));
+        assertEquals(heap.allocationBytes(10000, SrArray.ElementType.BOOL), Heap.arrayBytes(10000, SrArray.ElementType.BOOL));
+
+        array.set(0, SrValue.valueOf(true));
+        array.set(63, SrValue.valueOf(true));
+        array.set(64, SrValue.valueOf(true));
+        array.set(9999, SrValue.valueOf(true));
+        array.set(64, SrValue.valueOf(false));
+        assertTrue(array.get(0).asBool());
+        assertFalse(array.get(1).asBool());
+        assertTrue(array.get(63).asBool());
+        assertFalse(array.get(64).asBool());
+        assertTrue(array.get(9999).asBool());
+    }
+
+    @Test
+    public void testSweepReleasesOffHeapArraysOfLazilySweptSpaces() {
+        heap.setMode(Heap.Mode.MARK_SWEEP);
+        heap.setOffHeapThreshold(1000);
+        SrArray array = heap.newArray(2000, SrArray.ElementType.BOOL);
+        heap.register(array);
+        assertTrue(heap.getOffHeapBytes() > 0);
+
+        gc.collectMajor();
+
+        assertTrue(heap.isSweeping());
+        assertNull(array.offHeap);
+        assertEquals(0, heap.getOffHeapBytes());
+        assertEquals(0, heap.getHeapBytes());
+    }
+
+    @Test
+    public void testOnlyPrimitiveArraysAreStoredOffHeap() {
+        heap.setOffHeapThreshold(1000);
+        SrArray untyped = heap.newArray(2000);
+        assertNull(untyped.offHeap);
+        assertEquals(Heap.arrayBytes(2000), heap.allocationBytes(2000, SrArray.ElementType.ANY));
+
+        SrArray bools = heap.newArray(2000, SrArray.ElementType.BOOL);
+        assertNotNull(bools.offHeap);
+        assertFalse(bools.get(0).asBool());
+        assertFalse(bools.accepts(SrValue.valueOf(1)));
+    }
+
+    @Test
+    public void testObjectWriteMovesOffHeapArrayOnHeap() {
+        heap.setOffHeapThreshold(1000);
+        SrArray array = heap.newArray(2000, SrArray.ElementType.INT);
+        heap.register(array);
+        array.set(7, SrValue.valueOf(7));
+
+        heap.generalize(array);
+
+        assertNotNull(array.elements);
+        assertNull(array.offHeap);
+        assertEquals(7, array.get(7).asLong());
+        assertEquals(0, heap.getOffHeapBytes());
+        assertEquals(Heap.arrayBytes(2000), heap.getHeapBytes());
+
+        assertTrue(heap.getPooledOffHeapBytes() > 0);
+        assertNotNull(heap.newArray(2000, SrArray.ElementType.INT).offHeap);
+        assertEquals(7, array.get(7).asLong());
+    }
+
+    @Test
+    public void testGeneralizedTypedOffHeapArraysKeepTheirElements() {
+        heap.setOffHeapThreshold(1000);
+        SrArray bools = heap.newArray(2000, SrArray.ElementType.BOOL);
+        SrArray floats = heap.newArray(2000, SrArray.ElementType.FLOAT);
+        heap.register(bools);
+        heap.register(floats);
+        bools.set(65, SrValue.valueOf(true));
+        floats.set(3, new SrValue(2.5));
+
+        heap.generalize(bools);
+        heap.generalize(floats);
+        heap.newArray(2000, SrArray.ElementType.BOOL);
+        heap.newArray(2000, SrArray.ElementType.FLOAT);
+
+        assertEquals(SrArray.ElementType.ANY, bools.elementType);
+        assertTrue(bools.get(65).asBool());
+        assertFalse(bools.get(64).asBool());
+        assertEquals(2.5, floats.get(3).asFloat());
+        assertEquals(0.0, floats.get(4).asFloat());
+    }
+
+    @Test
+    public void testOffHeapArraysMatchOnHeapResult() {
+        String program = """
+            struct Point {
+                int x;
+            }
+
+            main (int argc, array string argv[]) {
+                array bool flags[3000];
+                array float values[3000];
+                array Point points[3000];
+                for (int i = 0; i < 3000; i++) {
+                    flags[i] = i % 3 == 0;
+                    values[i] = i * 0.5;
+                    Point p;
+                    p.x = i;
+                    points[i] = p;
+                }
+                float sum = 0.0;
+                int count = 0;
+                for (int i = 0; i < 3000; i++) {
+                    if (flags[i]) {
+                        count = count + 1;
+                        sum = sum + values[i];
+                    }
+                    Point q = points[i];
+                    count = count + q.x;
+                }
+                print(count);
+                print(" ");
+                print(sum);
+            }
+        """;
+        VirtualMachine offHeap = new VirtualMachine();
+        offHeap.setOffHeapThreshold(1000);
+        assertEquals(runProgram(new VirtualMachine(), program), runProgram(offHeap, program));
+        assertEquals(2 * OffHeapArena.PAGE_BYTES, offHeap.getHeap().getOffHeapBytes());
+    }
+
+    @Test
+    public void testHostModeKeepsOnlyStatistics() {
+        heap.setMode(Heap.Mode.HOST);
+        heap.setOffHeapThreshold(10);
+        SrStruct struct = newStruct();
+        SrArray array = heap.newArray(100);
+        heap.register(array);
+
+        assertNotNull(array.elements);
+        assertEquals(0, heap.getObjectCount());
+        assertEquals(0, heap.getHeapBytes());
+        assertEquals(2, heap.getAllocatedObjects());
+        assertEquals(BOX_BYTES + Heap.arrayBytes(100), heap.getAllocatedBytes());
+        assertFalse(heap.shouldCollect(Long.MAX_VALUE / 2));
+
+        gc.collect();
+        gc.collectMajor();
+        assertEquals(0, gc.getTelemetry().getPauseCount());
+        assertEquals(-1, struct.heapSlot);
+        assertTrue(gc.getTelemetry().summary().startsWith("[GC: host, allocated 2 objects"));
+    }
+
+    @Test
+    public void testHostModeMatchesCollectedResult() {
+        VirtualMachine vm = new VirtualMachine();
+        vm.setGcMode(Heap.Mode.HOST);
+        assertEquals(CHURN_OUTPUT, runProgram(vm, CHURN_PROGRAM));
+        assertEquals(0, vm.getHeap().getObjectCount());
+        assertTrue(vm.getHeap().getAllocatedObjects() > 50000);
+    }
+}
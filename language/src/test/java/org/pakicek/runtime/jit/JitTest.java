@@ -3,14 +3,45 @@ package org.pakicek.runtime.jit;
 import org.junit.jupiter.api.Test;
 import static org.junit.jupiter.api.Assertions.*;
 
+import org.pakicek.compiler.BytecodeCompiler;
+import org.pakicek.parser.Parser;
+import org.pakicek.parser.lexer.Lexer;
+import org.pakicek.runtime.ProgramImage;
 import org.pakicek.runtime.bytecode.Chunk;
 import org.pakicek.runtime.bytecode.OpCode;
+import org.pakicek.runtime.profile.Profile;
+import org.pakicek.runtime.vm.SrArray;
 import org.pakicek.runtime.vm.SrValue;
 
 import java.math.BigInteger;
+import java.util.List;
+import java.util.Map;
 
 public class JitTest {
 
+    private Chunk compileFunction(String code, String name) {
+        Parser parser = new Parser(new Lexer(code).scanTokens());
+        ProgramImage image = new BytecodeCompiler().compile(parser.parse());
+        return image.functions.get(name);
+    }
+
+    private int findOpCode(Chunk chunk, OpCode target) {
+        for (int ip = 0; ip < chunk.code.size(); ip += ChunkRewriter.length(chunk.code, ip)) {
+            if (ChunkRewriter.opAt(chunk.code, ip) == target) return ip;
+        }
+        return -1;
+    }
+
+    private int countOpCode(Chunk chunk, OpCode target) {
+        int count = 0;
+        for (int ip = 0; ip < chunk.code.size(); ) {
+            OpCode op = OpCode.values()[chunk.code.get(ip)];
+            if (op == target) count++;
+            ip += 1 + op.operandBytes();
+        }
+        return count;
+    }
+
     @Test
     public void testConstantFolding() {
         Chunk chunk = new Chunk();
@@ -32,7 +63,7 @@ public class JitTest {
     }
 
     @Test
-    public void testIdentityAddZero() {
+    public void testAddZeroIsKeptForStringOperands() {
         Chunk chunk = new Chunk();
         int idx0 = chunk.addConstant(new SrValue(BigInteger.ZERO));
 
@@ -43,9 +74,8 @@ public class JitTest {
 
         JitOptimizer jit = new JitOptimizer();
         Chunk optimized = jit.optimize(chunk);
-        assertEquals(3, optimized.code.size());
-        assertEquals(OpCode.LOAD_LOCAL, OpCode.values()[optimized.code.get(0)]);
-        assertEquals(OpCode.HALT, OpCode.values()[optimized.code.get(2)]);
+        assertEquals(6, optimized.code.size());
+        assertEquals(OpCode.ADD, OpCode.values()[optimized.code.get(4)]);
     }
 
     @Test
@@ -99,4 +129,332 @@ public class JitTest {
         assertEquals(1, optimized.code.size());
         assertEquals(OpCode.RETURN, OpCode.values()[optimized.code.getFirst()]);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testFullUnrollOfConstantLoop() {
+        String code = """
+            func int weighted(int x) {
+                int s = 0;
+                for (int i = 0; i < 4; i++) {
+                    s = s + x * i;
+                }
+                return s;
+            }
+            main (int argc, array string argv[]) { }
+        """;
+        Chunk chunk = compileFunction(code, "weighted");
+        assertEquals(1, countOpCode(chunk, OpCode.JMP_FALSE));
+
+        Chunk optimized = new JitOptimizer().optimize(chunk);
+        assertEquals(0, countOpCode(optimized, OpCode.JMP));
+        assertEquals(0, countOpCode(optimized, OpCode.JMP_FALSE));
+        // x * 0 and x * 1 in the first two copies are removed by the identity pass
+        assertEquals(2, countOpCode(optimized, OpCode.MUL));
+    }
+
+    @Test
+    public void testFullUnrollOfFixedArrayLength() {
+        String code = """
+            func int total() {
+                array int values[5];
+                int s = 0;
+                for (int i = 0; i < len(values); i++) {
+                    s = s + values[i];
+                }
+                return s;
+            }
+            main (int argc, array string argv[]) { }
+        """;
+        Chunk optimized = new JitOptimizer().optimize(compileFunction(code, "total"));
+        assertEquals(0, countOpCode(optimized, OpCode.JMP_FALSE));
+        assertEquals(5, countOpCode(optimized, OpCode.GET_ARRAY));
+    }
+
+    @Test
+    public void testPartialUnrollOfLengthBoundLoop() {
+        String code = """
+            func int total(array int values) {
+                int s = 0;
+                for (int i = 0; i < len(values); i++) {
+                    s = s + values[i];
+                }
+                return s;
+            }
+            main (int argc, array string argv[]) { }
+        """;
+        Chunk optimized = new JitOptimizer().optimize(compileFunction(code, "total"));
+        assertEquals(2, countOpCode(optimized, OpCode.JMP_FALSE));
+        assertEquals(LoopUnroller.PARTIAL_UNROLL_FACTOR + 1, countOpCode(optimized, OpCode.GET_ARRAY));
+    }
+
+    @Test
+    public void testLoopWritingInductionVariableIsNotUnrolled() {
+        String code = """
+            func int skip() {
+                int s = 0;
+                for (int i = 0; i < 4; i++) {
+                    i = i + 1;
+                    s = s + 1;
+                }
+                return s;
+            }
+            main (int argc, array string argv[]) { }
+        """;
+        Chunk chunk = compileFunction(code, "skip");
+        Chunk optimized = new JitOptimizer().optimize(chunk);
+        assertEquals(chunk.code.size(), optimized.code.size());
+    }
+
+    @Test
+    public void testRangeAnalysisUsesLongOpsForIndexLoop() {
+        String code = """
+            func int total(array int values) {
+                int s = 0;
+                for (int i = 0; i < len(values); i++) {
+                    s = s + values[i];
+                }
+                return s;
+            }
+            main (int argc, array string argv[]) { }
+        """;
+        Chunk optimized = new JitOptimizer().optimize(compileFunction(code, "total"));
+        assertEquals(0, countOpCode(optimized, OpCode.LT));
+        assertEquals(2, countOpCode(optimized, OpCode.LT_LONG));
+        assertEquals(LoopUnroller.PARTIAL_UNROLL_FACTOR + 1, countOpCode(optimized, OpCode.ADD_LONG));
+        // s accumulates array elements of unknown magnitude and must stay generic.
+        assertEquals(LoopUnroller.PARTIAL_UNROLL_FACTOR + 1, countOpCode(optimized, OpCode.ADD));
+    }
+
+    @Test
+    public void testRangeAnalysisKeepsUnknownOperandsGeneric() {
+        String code = """
+            func int grow(int n) {
+                int x = 1;
+                for (int i = 0; i < n; i++) {
+                    x = x * 2;
+                }
+                return x + n;
+            }
+            main (int argc, array string argv[]) { }
+        """;
+        Chunk optimized = new JitOptimizer().optimize(compileFunction(code, "grow"));
+        assertEquals(0, countOpCode(optimized, OpCode.MUL_LONG));
+        assertEquals(0, countOpCode(optimized, OpCode.ADD_LONG));
+        assertEquals(0, countOpCode(optimized, OpCode.LT_LONG));
+    }
+
+    @Test
+    public void testRangeAnalysisSpecializesConstantBoundLoop() {
+        String code = """
+            func int count(int n) {
+                int c = 0;
+                for (int i = 0; i < 1000; i++) {
+                    if (i > 500) {
+                        c = c + i * 3;
+                    }
+                }
+                return c;
+            }
+            main (int argc, array string argv[]) { }
+        """;
+        Chunk optimized = new JitOptimizer().optimize(compileFunction(code, "count"));
+        assertEquals(0, countOpCode(optimized, OpCode.GT));
+        assertTrue(countOpCode(optimized, OpCode.GT_LONG) > 0);
+        assertTrue(countOpCode(optimized, OpCode.MUL_LONG) > 0);
+        assertEquals(0, countOpCode(optimized, OpCode.MUL));
+    }
+
+    @Test
+    public void testProfileMovesColdBranchOutOfLine() {
+        String code = """
+            func int clamp(int x) {
+                if (x > 1000) {
+                    x = 1000;
+                }
+                return x * 2;
+            }
+            main (int argc, array string argv[]) { }
+        """;
+        Chunk chunk = compileFunction(code, "clamp");
+        Profile.FunctionProfile profile = new Profile().function("clamp");
+        int branch = findOpCode(chunk, OpCode.JMP_FALSE);
+        for (int i = 0; i < 100; i++) profile.recordBranch(branch, true);
+
+        Chunk optimized = new JitOptimizer().optimize(chunk, profile);
+        assertEquals(0, countOpCode(optimized, OpCode.JMP_FALSE));
+        assertEquals(1, countOpCode(optimized, OpCode.JMP_TRUE));
+        assertTrue(findOpCode(optimized, OpCode.RETURN) < findOpCode(optimized, OpCode.STORE_LOCAL));
+    }
+
+    @Test
+    public void testBalancedBranchKeepsLayout() {
+        String code = """
+            func int clamp(int x) {
+                if (x > 1000) {
+                    x = 1000;
+                }
+                return x * 2;
+            }
+            main (int argc, array string argv[]) { }
+        """;
+        Chunk chunk = compileFunction(code, "clamp");
+        Profile.FunctionProfile profile = new Profile().function("clamp");
+        int branch = findOpCode(chunk, OpCode.JMP_FALSE);
+        for (int i = 0; i < 100; i++) profile.recordBranch(branch, i % 2 == 0);
+
+        Chunk optimized = new JitOptimizer().optimize(chunk, profile);
+        assertEquals(1, countOpCode(optimized, OpCode.JMP_FALSE));
+        assertEquals(0, countOpCode(optimized, OpCode.JMP_TRUE));
+    }
+
+    @Test
+    public void testShortObservedLoopIsNotPartiallyUnrolled() {
+        String code = """
+            func int total(array int values) {
+                int s = 0;
+                for (int i = 0; i < len(values); i++) {
+                    s = s + values[i];
+                }
+                return s;
+            }
+            main (int argc, array string argv[]) { }
+        """;
+        Chunk chunk = compileFunction(code, "total");
+        Profile.FunctionProfile profile = new Profile().function("total");
+        int exit = findOpCode(chunk, OpCode.JMP_FALSE);
+        int backJump = ChunkRewriter.jumpTarget(chunk.code, exit) - 3;
+        for (int call = 0; call < 20; call++) {
+            for (int i = 0; i < 3; i++) {
+                profile.recordLoopIteration(backJump);
+                profile.recordBranch(exit, false);
+            }
+            profile.recordBranch(exit, true);
+        }
+
+        Chunk optimized = new JitOptimizer().optimize(chunk, profile);
+        assertEquals(1, countOpCode(optimized, OpCode.GET_ARRAY));
+    }
+
+    @Test
+    public void testArgumentSpecializationCollapsesModeBranches() {
+        String code = """
+            func int apply(int mode, int x) {
+                if (mode == 1) {
+                    return x + 1;
+                }
+                if (mode == 2) {
+                    return x * 2;
+                }
+                return x;
+            }
+            main (int argc, array string argv[]) { }
+        """;
+        Chunk chunk = compileFunction(code, "apply");
+        Chunk specialized = new JitOptimizer().specialize(chunk, Map.of(0, new SrValue(BigInteger.TWO)), null);
+        assertEquals(0, countOpCode(specialized, OpCode.JMP_FALSE));
+        assertEquals(0, countOpCode(specialized, OpCode.EQ));
+        assertEquals(0, countOpCode(specialized, OpCode.ADD));
+        assertEquals(1, countOpCode(specialized, OpCode.MUL));
+    }
+
+    @Test
+    public void testArgumentSpecializationFoldsBoolFlag() {
+        String code = """
+            func int pick(bool verbose, int x) {
+                if (!verbose) {
+                    return x;
+                }
+                return x * x;
+            }
+            main (int argc, array string argv[]) { }
+        """;
+        Chunk chunk = compileFunction(code, "pick");
+        Chunk specialized = new JitOptimizer().specialize(chunk, Map.of(0, new SrValue(false)), null);
+        assertEquals(0, countOpCode(specialized, OpCode.JMP_FALSE));
+        assertEquals(0, countOpCode(specialized, OpCode.MUL));
+    }
+
+    @Test
+    public void testReassignedParameterIsNotSpecialized() {
+        String code = """
+            func int bump(int x) {
+                x = x + 1;
+                return x;
+            }
+            main (int argc, array string argv[]) { }
+        """;
+        Chunk chunk = compileFunction(code, "bump");
+        assertNull(new JitOptimizer().specialize(chunk, Map.of(0, new SrValue(BigInteger.ONE)), null));
+    }
+
+    @Test
+    public void testElementWiseLoopIsVectorized() {
+        String code = """
+            func void mix(array float a, array float b, array float c, float d) {
+                for (int i = 0; i < len(a); i++) {
+                    a[i] = b[i] * c[i] + d;
+                }
+            }
+            main (int argc, array string argv[]) { }
+        """;
+        Chunk optimized = new JitOptimizer().optimize(compileFunction(code, "mix"));
+        assertEquals(1, countOpCode(optimized, OpCode.VECTOR_LOOP));
+        assertTrue(findOpCode(optimized, OpCode.VECTOR_LOOP) < findOpCode(optimized, OpCode.GET_ARRAY));
+    }
+
+    @Test
+    public void testLoopWithReductionIsNotVectorized() {
+        String code = """
+            func int total(array int values) {
+                int s = 0;
+                for (int i = 0; i < len(values); i++) {
+                    s = s + values[i];
+                }
+                return s;
+            }
+            main (int argc, array string argv[]) { }
+        """;
+        Chunk optimized = new JitOptimizer().optimize(compileFunction(code, "total"));
+        assertEquals(0, countOpCode(optimized, OpCode.VECTOR_LOOP));
+    }
+
+    @Test
+    public void testVectorKernelMatchesScalarKernel() {
+        int n = 37;
+        List<SrValue> constants = List.of(SrValue.valueOf(0), SrValue.valueOf(1), new SrValue(0.5));
+        String descriptor = "i=0 cmp=LT bound=N1 init=0 step=1 target=1 expr=A2,A3,MUL,C2,ADD";
+
+        SrValue[][] results = new SrValue[2][];
+        DoubleColumnOps[] ops = { new ScalarDoubleColumnOps(), DoubleColumnOps.select() };
+        for (int r = 0; r < ops.length; r++) {
+            SrArray a = new SrArray(n);
+            SrArray b = new SrArray(n);
+            SrArray c = new SrArray(n);
+            for (int k = 0; k < n; k++) {
+                a.elements[k] = new SrValue(0.0);
+                b.elements[k] = new SrValue(k * 1.5);
+                c.elements[k] = new SrValue(k - 3.25);
+            }
+            SrValue[] locals = { null, new SrValue(a), new SrValue(b), new SrValue(c) };
+            assertTrue(new VectorKernel(descriptor, ops[r]).run(locals, constants));
+            assertEquals(n, locals[0].asLong());
+            results[r] = a.elements;
+        }
+        for (int k = 0; k < n; k++) {
+            assertEquals(k * 1.5 * (k - 3.25) + 0.5, results[0][k].asFloat());
+            assertEquals(results[0][k].asFloat(), results[1][k].asFloat());
+        }
+    }
+
+    @Test
+    public void testVectorKernelFallsBackOnIntOverflow() {
+        SrArray a = new SrArray(4);
+        for (int k = 0; k < 4; k++) a.elements[k] = SrValue.valueOf(Long.MAX_VALUE - k);
+        SrValue[] locals = { null, new SrValue(a) };
+        List<SrValue> constants = List.of(SrValue.valueOf(0), SrValue.valueOf(1), SrValue.valueOf(2));
+        VectorKernel kernel = VectorKernel.parse("i=0 cmp=LT bound=N1 init=0 step=1 target=1 expr=A1,C2,MUL");
+        assertFalse(kernel.run(locals, constants));
+        assertEquals(Long.MAX_VALUE, a.elements[0].asLong());
+        assertNull(locals[0]);
+    }
+}
@@ -0,0 +1,172 @@
+package org.pakicek.runtime.snapshot;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.pakicek.compiler.BytecodeCompiler;
+import org.pakicek.parser.Parser;
+import org.pakicek.parser.lexer.Lexer;
+import org.pakicek.runtime.VirtualMachine;
+import org.pakicek.runtime.gc.Heap;
+import org.pakicek.runtime.vm.SrArray;
+import org.pakicek.runtime.vm.SrStruct;
+import org.pakicek.runtime.vm.StructShape;
+import org.pakicek.runtime.vm.SrValue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+public class HeapSnapshotTest {
+    @TempDir
+    Path dir;
+
+    private final List<SrValue> roots = new ArrayList<>();
+    private final VirtualMachine mutator = new VirtualMachine() {
+        @Override
+        public void scanRoots(Consumer<SrValue> visitor) {
+            roots.forEach(visitor);
+        }
+    };
+
+    private static final StructShape NODE = new StructShape("Node", "v", "next");
+    private static final StructShape LEAF = new StructShape("Leaf", "v");
+    private static final StructShape BRANCH = new StructShape("Branch", "v", "next", "own");
+    private static final StructShape ROOT = new StructShape("Root", "v", "next", "other");
+
+    private SrStruct node(StructShape shape, SrStruct next) {
+        SrStruct struct = new SrStruct(shape);
+        struct.setField("v", SrValue.valueOf(1));
+        if (next != null) struct.setField("next", new SrValue(next));
+        return struct;
+    }
+
+    @Test
+    public void testSnapshotRoundTripsObjectsAndReferences() throws IOException {
+        SrStruct tail = node(NODE, null);
+        SrStruct head = node(NODE, tail);
+        SrArray array = new SrArray(3);
+        array.elements[0] = new SrValue(head);
+        array.elements[2] = new SrValue(head);
+        roots.add(new SrValue(array));
+        roots.add(new SrValue(array));
+        roots.add(SrValue.valueOf(7));
+
+        Path file = dir.resolve("heap.srheap");
+        assertEquals(3, HeapSnapshotWriter.write(mutator, file));
+        HeapSnapshot snapshot = HeapSnapshot.read(file);
+
+        assertEquals(3, snapshot.objectCount());
+        assertArrayEquals(new int[] { 1 }, snapshot.roots());
+        assertEquals(HeapSnapshot.ARRAY_TYPE, snapshot.typeName(1));
+        assertEquals(Heap.arrayBytes(3), snapshot.bytes(1));
+        assertArrayEquals(new int[] { 2, 2 }, snapshot.refs(1));
+        assertEquals("Node", snapshot.typeName(2));
+        assertEquals(Heap.structBytes(2), snapshot.bytes(2));
+        assertArrayEquals(new int[] { 3 }, snapshot.refs(2));
+        assertEquals(0, snapshot.refs(3).length);
+    }
+
+    @Test
+    public void testAnalyzerComputesDominatorsAndRetainedSizes() throws IOException {
+        SrStruct shared = node(LEAF, null);
+        SrStruct left = node(BRANCH, shared);
+        SrStruct right = node(BRANCH, shared);
+        SrStruct owned = node(LEAF, null);
+        right.setField("own", new SrValue(owned));
+        SrStruct root = node(ROOT, left);
+        root.setField("other", new SrValue(right));
+        roots.add(new SrValue(root));
+
+        Path file = dir.resolve("tree.srheap");
+        HeapSnapshotWriter.write(mutator, file);
+        HeapSnapshot snapshot = HeapSnapshot.read(file);
+        HeapAnalyzer analyzer = new HeapAnalyzer(snapshot);
+
+        long leaf = Heap.structBytes(1);
+        long branch = Heap.structBytes(3);
+        long total = Heap.structBytes(3) + 2 * branch + 2 * leaf;
+        assertEquals(total, analyzer.totalBytes());
+        assertEquals(1, analyzer.largestDominators(1)[0]);
+        assertEquals(total, analyzer.retainedSize(1));
+        assertEquals(2 * leaf, analyzer.retainedByType("Leaf"));
+        assertEquals(2 * branch + leaf, analyzer.retainedByType("Branch"));
+        assertEquals(total, analyzer.retainedByType("Root"));
+
+        for (int id = 2; id <= snapshot.objectCount(); id++) {
+            if (snapshot.typeName(id).equals("Leaf") && snapshot.refs(id).length == 0
+                    && analyzer.immediateDominator(id) == 1) {
+                return;
+            }
+        }
+        fail("Shared leaf should be dominated by the root");
+    }
+
+    @Test
+    public void testDumpHeapBuiltinWritesReachableObjects() throws IOException {
+        Path file = dir.resolve("builtin.srheap");
+        String code = """
+            struct Node {
+                int v;
+            }
+
+            main (int argc, array string argv[]) {
+                array Node nodes[50];
+                for (int i = 0; i < 50; i++) {
+                    Node n;
+                    n.v = i;
+                    nodes[i] = n;
+                }
+                dump_heap("%s");
+                println(len(nodes));
+            }
+        """.formatted(file.toString().replace("\\\\", "/"));
+        PrintStream original = System.out;
+        System.setOut(new PrintStream(new ByteArrayOutputStream()));
+        try {
+            new VirtualMachine().run(new BytecodeCompiler().compile(new Parser(new Lexer(code).scanTokens()).parse()),
+                    new String[0]);
+        } finally {
+            System.setOut(original);
+        }
+
+        HeapAnalyzer analyzer = new HeapAnalyzer(HeapSnapshot.read(file));
+        assertEquals(50 * Heap.structBytes(0, 1), analyzer.retainedByType("Node"));
+        assertEquals(Heap.arrayBytes(50) + 50 * Heap.structBytes(0, 1), analyzer.retainedByType(HeapSnapshot.ARRAY_TYPE));
+
+        ByteArrayOutputStream report = new ByteArrayOutputStream();
+        analyzer.report(new PrintStream(report), 3);
+        assertTrue(report.toString().contains("Largest dominators:"));
+    }
+
+    @Test
+    public void testDumpHeapSkipsDeadLocals() throws IOException {
+        Path file = dir.resolve("dead.srheap");
+        String code = """
+            main (int argc, array string argv[]) {
+                array int tmp[1000];
+                tmp[0] = 1;
+                array int keep[10];
+                dump_heap("%s");
+                println(keep[0]);
+            }
+        """.formatted(file.toString().replace("\\\\", "/"));
+        PrintStream original = System.out;
+        System.setOut(new PrintStream(new ByteArrayOutputStream()));
+        try {
+            new VirtualMachine().run(new BytecodeCompiler().compile(new Parser(new Lexer(code).scanTokens()).parse()),
+                    new String[0]);
+        } finally {
+            System.setOut(original);
+        }
+
+        HeapSnapshot snapshot = HeapSnapshot.read(file);
+        assertEquals(1, snapshot.objectCount());
+        assertEquals(Heap.arrayBytes(10, SrArray.ElementType.INT), snapshot.bytes(1));
+    }
+}
@@ -29,4 +29,81 @@ public class SrArrayTest {
         assertTrue(array.elements[1].asBool());
         assertEquals(3.14, array.elements[2].asFloat(), 0.0001);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testIntArrayStoresLongsAndBigIntegers() {
+        SrArray array = new SrArray(4, SrArray.ElementType.INT);
+        assertNull(array.elements);
+        assertEquals(0, array.get(3).asLong());
+        BigInteger big = BigInteger.TWO.pow(80);
+        array.set(1, new SrValue(big));
+        array.set(2, SrValue.valueOf(-5));
+        assertEquals(big, array.get(1).asInt());
+        assertEquals(-5, array.get(2).asLong());
+        array.set(1, SrValue.valueOf(7));
+        assertEquals(7, array.get(1).asLong());
+        assertTrue(array.get(1).isSmallInt());
+    }
+
+    @Test
+    public void testFloatAndBoolArraysUsePrimitiveBackings() {
+        SrArray floats = new SrArray(3, SrArray.ElementType.FLOAT);
+        floats.set(2, new SrValue(2.5));
+        assertEquals(SrValue.Type.FLOAT, floats.get(0).type);
+        assertEquals(2.5, floats.doubles[2]);
+
+        SrArray flags = new SrArray(130, SrArray.ElementType.BOOL);
+        assertEquals(3, flags.bits.length);
+        flags.set(129, SrValue.TRUE);
+        flags.set(64, SrValue.TRUE);
+        flags.set(64, SrValue.FALSE);
+        assertTrue(flags.get(129).asBool());
+        assertFalse(flags.get(64).asBool());
+        assertEquals(SrValue.Type.BOOL, flags.get(0).type);
+    }
+
+    @Test
+    public void testMismatchedWriteGeneralizesArray() {
+        SrArray array = new SrArray(3, SrArray.ElementType.INT);
+        array.set(0, SrValue.valueOf(4));
+        assertFalse(array.accepts(new SrValue("x")));
+        array.set(1, new SrValue("x"));
+        assertEquals(SrArray.ElementType.ANY, array.elementType);
+        assertNull(array.longs);
+        assertEquals(4, array.elements[0].asLong());
+        assertEquals("x", array.elements[1].asString());
+        assertEquals(0, array.elements[2].asLong());
+    }
+
+    @Test
+    public void testColumnarStructArrayAdoptsElements() {
+        StructShape shape = new StructShape("Point", new String[] { "x", "y" },
+                new SrValue[] { SrValue.valueOf(0), new SrValue(0.0) });
+        SrArray array = SrArray.columnar(3, shape);
+        assertNull(array.elements);
+        assertFalse(array.isPresent(1));
+        assertEquals(0, array.get(1).asLong());
+
+        SrStruct point = new SrStruct(shape);
+        point.setField("x", SrValue.valueOf(5));
+        assertTrue(array.accepts(1, new SrValue(point)));
+        array.set(1, new SrValue(point));
+        assertTrue(point.isView());
+        assertEquals(5, array.columns.longs[0][1]);
+        point.setField("y", new SrValue(1.5));
+        assertEquals(1.5, array.columns.doubles[0][1]);
+        assertFalse(array.accepts(2, new SrValue(point)));
+        assertFalse(array.accepts(0, SrValue.valueOf(1)));
+
+        array.set(1, new SrValue(new SrStruct(shape)));
+        assertFalse(point.isView());
+        assertEquals(1.5, point.getField("y").asFloat());
+        assertEquals(0, array.columns.longs[0][1]);
+
+        SrValue element = array.get(1);
+        array.generalize();
+        assertNull(array.columns);
+        assertEquals(0, array.get(0).asLong());
+        assertSame(element.asObject(), array.get(1).asObject());
+    }
+}
@@ -9,39 +9,94 @@ public class SrStructTest {
 
     @Test
     public void testStructCreation() {
-        SrStruct point = new SrStruct("Point");
+        SrStruct point = new SrStruct(new StructShape("Point", "x", "y"));
         assertEquals("Point", point.name);
-        assertEquals(0, point.getSize());
+        assertEquals(2, point.getSize());
+        assertEquals(SrValue.Type.VOID, point.getField("x").type);
     }
 
     @Test
     public void testFieldAccess() {
-        SrStruct vector = new SrStruct("Vector");
+        SrStruct vector = new SrStruct(new StructShape("Vector", "x", "y"));
 
-        vector.fields.put("x", new SrValue(10.5));
-        vector.fields.put("y", new SrValue(20.5));
+        vector.setField("x", new SrValue(10.5));
+        vector.setField(1, new SrValue(20.5));
         assertEquals(2, vector.getSize());
-        assertEquals(10.5, vector.fields.get("x").asFloat(), 0.0001);
-        assertEquals(20.5, vector.fields.get("y").asFloat(), 0.0001);
+        assertEquals(10.5, vector.fields[0].asFloat(), 0.0001);
+        assertEquals(20.5, vector.getField("y").asFloat(), 0.0001);
     }
 
     @Test
     public void testNestedStructs() {
-        SrStruct line = new SrStruct("Line");
-        SrStruct p1 = new SrStruct("Point");
-        SrStruct p2 = new SrStruct("Point");
+        StructShape pointShape = new StructShape("Point", "x");
+        SrStruct line = new SrStruct(new StructShape("Line", "start", "end"));
+        SrStruct p1 = new SrStruct(pointShape);
+        SrStruct p2 = new SrStruct(pointShape);
 
-        p1.fields.put("x", new SrValue(BigInteger.ZERO));
-        p2.fields.put("x", new SrValue(BigInteger.TEN));
+        p1.setField("x", new SrValue(BigInteger.ZERO));
+        p2.setField("x", new SrValue(BigInteger.TEN));
 
-        line.fields.put("start", new SrValue(p1));
-        line.fields.put("end", new SrValue(p2));
+        line.setField("start", new SrValue(p1));
+        line.setField("end", new SrValue(p2));
 
-        SrValue startVal = line.fields.get("start");
+        SrValue startVal = line.getField("start");
         assertEquals(SrValue.Type.OBJECT, startVal.type);
         assertInstanceOf(SrStruct.class, startVal.asObject());
 
         SrStruct startPoint = (SrStruct) startVal.asObject();
-        assertEquals(BigInteger.ZERO, startPoint.fields.get("x").asInt());
+        assertEquals(BigInteger.ZERO, startPoint.getField("x").asInt());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testShapeSuppliesDefaultsPerInstance() {
+        StructShape shape = new StructShape("Body", new String[] { "mass", "name" },
+                new SrValue[] { new SrValue(0.0), new SrValue("") });
+        SrStruct a = new SrStruct(shape);
+        SrStruct b = new SrStruct(shape);
+
+        a.setField("mass", new SrValue(2.5));
+        assertEquals(0.0, b.getField("mass").asFloat());
+        assertEquals("", a.getField("name").asString());
+        RuntimeException error = assertThrows(RuntimeException.class, () -> a.setField("radius", new SrValue(1.0)));
+        assertTrue(error.getMessage().contains("no field 'radius'"));
+    }
+
+    @Test
+    public void testPrimitiveFieldsAreStoredUnboxed() {
+        StructShape shape = new StructShape("Body", new String[] { "id", "mass", "alive", "next" },
+                new SrValue[] { SrValue.valueOf(0), new SrValue(0.0), SrValue.valueOf(false), SrValue.VOID });
+        SrStruct body = new SrStruct(shape);
+        assertEquals(1, body.fields.length);
+        assertEquals(2, body.longs.length);
+        assertEquals(1, body.doubles.length);
+
+        body.setField("id", new SrValue(BigInteger.TWO.pow(80)));
+        body.setField("mass", new SrValue(2.5));
+        body.setField("alive", SrValue.valueOf(true));
+        assertEquals(BigInteger.TWO.pow(80), body.getField("id").asInt());
+        assertEquals(2.5, body.doubles[0]);
+        assertTrue(body.getField("alive").asBool());
+        assertFalse(body.mayContainRefs);
+
+        body.setField("id", SrValue.valueOf(7));
+        assertEquals(7, body.getField("id").asLong());
+        assertFalse(body.isBoxed());
+    }
+
+    @Test
+    public void testMismatchedWriteBoxesTheInstance() {
+        StructShape shape = new StructShape("Point", new String[] { "x", "label" },
+                new SrValue[] { new SrValue(0.0), new SrValue("") });
+        SrStruct point = new SrStruct(shape);
+        point.setField("x", new SrValue(1.5));
+
+        assertFalse(point.accepts(0, SrValue.valueOf(1)));
+        point.setField("x", SrValue.valueOf(1));
+        assertTrue(point.isBoxed());
+        assertNull(point.doubles);
+        assertEquals(2, point.fields.length);
+        assertEquals(SrValue.Type.INT, point.getField("x").type);
+        assertEquals("", point.getField("label").asString());
+        assertFalse(new SrStruct(shape).isBoxed());
+    }
+}